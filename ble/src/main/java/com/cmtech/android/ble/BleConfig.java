@@ -1,15 +1,30 @@
 package com.cmtech.android.ble;
 
+import android.bluetooth.BluetoothDevice;
+import android.os.Looper;
+
+import com.cmtech.android.ble.core.BleGattRetryPolicy;
+
+import java.util.concurrent.Executor;
 
 public class BleConfig {
     private static final int DEFAULT_CONNECT_TIMEOUT = 30000; // 缺省连接超时时间
     private static final int DEFAULT_DATA_OPERATE_TIMEOUT = 3000; // 缺省数据操作超时时间
     private static final int MIN_AUTO_SCAN_INTERVAL = 10; // 最小自动扫描间隔，单位：秒
+    public static final int MIN_MTU = 23; // 协议规定的最小MTU
+    public static final int MAX_MTU = 517; // Android支持的最大MTU
+    private static final int DEFAULT_MTU = 247; // 缺省请求的MTU
 
     private static BleConfig instance;
     private int connectTimeout = DEFAULT_CONNECT_TIMEOUT; //连接超时时间（毫秒）
     private int dataOperateTimeout = DEFAULT_DATA_OPERATE_TIMEOUT; //数据操作超时时间（毫秒）
     private int autoScanInterval = MIN_AUTO_SCAN_INTERVAL; // 自动扫描时间间隔，单位：秒
+    private int mtu = DEFAULT_MTU; // 连接时请求的MTU，为MIN_MTU时不进行MTU协商
+    private int preferredPhy = BluetoothDevice.PHY_LE_1M_MASK | BluetoothDevice.PHY_LE_2M_MASK; // 期望的PHY掩码，BluetoothDevice.PHY_LE_*_MASK的组合
+    private int phyOptions = BluetoothDevice.PHY_OPTION_NO_PREFERRED; // 使用Coded PHY时的编码选项
+    private volatile Looper callbackLooper; // Gatt回调处理使用的Looper，为null时使用共享的回调线程
+    private volatile Executor resultExecutor; // 给用户回调结果的Executor，为null时直接在回调线程中回调
+    private volatile BleGattRetryPolicy gattRetryPolicy = new BleGattRetryPolicy(); // 缺省的Gatt命令超时和重试策略
 
     private BleConfig() {
     }
@@ -50,4 +65,65 @@ public class BleConfig {
     public void setAutoScanInterval(int autoScanInterval) {
         this.autoScanInterval = (autoScanInterval < MIN_AUTO_SCAN_INTERVAL) ? MIN_AUTO_SCAN_INTERVAL : autoScanInterval;
     }
+
+    public int getMtu() {
+        return mtu;
+    }
+
+    public BleConfig setMtu(int mtu) {
+        this.mtu = Math.max(MIN_MTU, Math.min(MAX_MTU, mtu));
+        return this;
+    }
+
+    public int getPreferredPhy() {
+        return preferredPhy;
+    }
+
+    // 设置期望的PHY掩码，连接时与手机支持的PHY取交集，协商失败时回退到1M
+    public BleConfig setPreferredPhy(int preferredPhy) {
+        this.preferredPhy = preferredPhy | BluetoothDevice.PHY_LE_1M_MASK;
+        return this;
+    }
+
+    public int getPhyOptions() {
+        return phyOptions;
+    }
+
+    public BleConfig setPhyOptions(int phyOptions) {
+        this.phyOptions = phyOptions;
+        return this;
+    }
+
+    public Looper getCallbackLooper() {
+        return callbackLooper;
+    }
+
+    // 设置Gatt回调处理使用的Looper，下次连接时生效。不要使用主线程的Looper，否则Gatt操作的延迟会受UI影响
+    public BleConfig setCallbackLooper(Looper callbackLooper) {
+        this.callbackLooper = callbackLooper;
+        return this;
+    }
+
+    public Executor getResultExecutor() {
+        return resultExecutor;
+    }
+
+    // 设置回调结果的Executor。需要在主线程中得到结果时设置为BleCallbackThread.MAIN_THREAD_EXECUTOR
+    public BleConfig setResultExecutor(Executor resultExecutor) {
+        this.resultExecutor = resultExecutor;
+        return this;
+    }
+
+    public BleGattRetryPolicy getGattRetryPolicy() {
+        return gattRetryPolicy;
+    }
+
+    // 设置缺省的Gatt命令超时和重试策略，没有指定策略的命令使用它
+    public BleConfig setGattRetryPolicy(BleGattRetryPolicy gattRetryPolicy) {
+        if (gattRetryPolicy == null) {
+            throw new NullPointerException("The retry policy is null.");
+        }
+        this.gattRetryPolicy = gattRetryPolicy;
+        return this;
+    }
 }
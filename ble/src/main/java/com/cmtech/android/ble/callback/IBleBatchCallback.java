@@ -0,0 +1,19 @@
+package com.cmtech.android.ble.callback;
+
+import com.cmtech.android.ble.core.BleGattBatchResult;
+
+/**
+ *
+ * ClassName:      IBleBatchCallback
+ * Description:    Gatt批处理回调接口，批处理的所有步骤结束后回调一次
+ * Author:         chenm
+ * CreateDate:     2026-10-16 18:40
+ * UpdateUser:     chenm
+ * UpdateDate:     2026-10-16 18:40
+ * UpdateRemark:   无
+ * Version:        1.0
+ */
+
+public interface IBleBatchCallback {
+    void onComplete(BleGattBatchResult result); // 批处理结束，result包含每一步的结果和耗时
+}
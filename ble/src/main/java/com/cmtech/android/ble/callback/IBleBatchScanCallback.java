@@ -0,0 +1,22 @@
+package com.cmtech.android.ble.callback;
+
+import com.cmtech.android.ble.core.BleDeviceDetailInfo;
+
+import java.util.List;
+
+/**
+ *
+ * ClassName:      IBleBatchScanCallback
+ * Description:    批量扫描回调接口。以报告延时开始扫描的订阅者实现该接口时，扫描结果成批回调onDevicesFound；
+ *                 只实现IBleScanCallback时，每个结果仍回调onDeviceFound
+ * Author:         chenm
+ * CreateDate:     2026-10-17 10:00
+ * UpdateUser:     chenm
+ * UpdateDate:     2026-10-17 10:00
+ * UpdateRemark:   无
+ * Version:        1.0
+ */
+
+public interface IBleBatchScanCallback extends IBleScanCallback {
+    void onDevicesFound(List<BleDeviceDetailInfo> bleDeviceDetailInfos); // 批量扫描模式下一次发现的一批设备，按发现时间排序
+}
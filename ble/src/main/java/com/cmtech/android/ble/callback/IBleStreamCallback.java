@@ -0,0 +1,21 @@
+package com.cmtech.android.ble.callback;
+
+import com.cmtech.android.ble.exception.BleException;
+
+/**
+ *
+ * ClassName:      IBleStreamCallback
+ * Description:    流式写数据回调接口
+ * Author:         chenm
+ * CreateDate:     2026-10-16 09:10
+ * UpdateUser:     chenm
+ * UpdateDate:     2026-10-16 09:10
+ * UpdateRemark:   无
+ * Version:        1.0
+ */
+
+public interface IBleStreamCallback {
+    void onProgress(int sentBytes, int totalBytes); // 已被协议栈确认的字节数
+    void onComplete(int totalBytes, long elapsedMillis, double bytesPerSecond); // 全部写完，返回实际吞吐率
+    void onFailure(BleException exception); // 写失败，流终止
+}
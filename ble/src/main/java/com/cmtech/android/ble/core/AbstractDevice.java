@@ -4,13 +4,13 @@ import android.content.Context;
 
 import com.cmtech.android.ble.exception.BleException;
 
-import java.util.LinkedList;
 import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 public abstract class AbstractDevice implements IDevice{
     private final DeviceRegisterInfo registerInfo; // 注册信息
     protected final IDeviceConnector connector; // 设备连接器
-    private final List<OnDeviceListener> listeners; // 监听器列表
+    private final List<OnDeviceListener> listeners; // 监听器列表，监听器在回调线程或结果Executor中被回调，因此用写时复制的列表
     private int battery; // 电池电量
 
     public AbstractDevice(DeviceRegisterInfo registerInfo) {
@@ -23,7 +23,7 @@ public abstract class AbstractDevice implements IDevice{
         } else {
             connector = new WebDeviceConnector(this);
         }
-        listeners = new LinkedList<>();
+        listeners = new CopyOnWriteArrayList<>();
         battery = INVALID_BATTERY;
     }
 
@@ -69,11 +69,16 @@ public abstract class AbstractDevice implements IDevice{
     // 更新设备状态
     @Override
     public void updateState() {
-        for(OnDeviceListener listener : listeners) {
-            if(listener != null) {
-                listener.onStateUpdated(this);
+        BleCallbackThread.deliver(new Runnable() {
+            @Override
+            public void run() {
+                for(OnDeviceListener listener : listeners) {
+                    if(listener != null) {
+                        listener.onStateUpdated(AbstractDevice.this);
+                    }
+                }
             }
-        }
+        });
     }
     @Override
     public int getBattery() {
@@ -88,11 +93,16 @@ public abstract class AbstractDevice implements IDevice{
     }
     // 更新电池电量
     private void updateBattery() {
-        for (final OnDeviceListener listener : listeners) {
-            if (listener != null) {
-                listener.onBatteryUpdated(this);
+        BleCallbackThread.deliver(new Runnable() {
+            @Override
+            public void run() {
+                for (final OnDeviceListener listener : listeners) {
+                    if (listener != null) {
+                        listener.onBatteryUpdated(AbstractDevice.this);
+                    }
+                }
             }
-        }
+        });
     }
     @Override
     public final void addListener(OnDeviceListener listener) {
@@ -105,12 +115,17 @@ public abstract class AbstractDevice implements IDevice{
         listeners.remove(listener);
     }
     @Override
-    public void handleException(BleException ex) {
-        for(OnDeviceListener listener : listeners) {
-            if(listener != null) {
-                listener.onExceptionHandled(this, ex);
+    public void handleException(final BleException ex) {
+        BleCallbackThread.deliver(new Runnable() {
+            @Override
+            public void run() {
+                for(OnDeviceListener listener : listeners) {
+                    if(listener != null) {
+                        listener.onExceptionHandled(AbstractDevice.this, ex);
+                    }
+                }
             }
-        }
+        });
     }
     @Override
     public BleDeviceState getState() {
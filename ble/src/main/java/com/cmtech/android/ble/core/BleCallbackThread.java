@@ -0,0 +1,163 @@
+package com.cmtech.android.ble.core;
+
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.os.Process;
+
+import com.cmtech.android.ble.BleConfig;
+import com.cmtech.android.ble.callback.IBleBatchCallback;
+import com.cmtech.android.ble.callback.IBleDataCallback;
+import com.cmtech.android.ble.callback.IBleStreamCallback;
+import com.cmtech.android.ble.exception.BleException;
+
+import java.util.concurrent.Executor;
+
+/**
+ *
+ * ClassName:      BleCallbackThread
+ * Description:    蓝牙回调执行环境。BleGatt的回调处理和BleDeviceConnector的请求处理都在一个共享的回调线程中执行，
+ *                 不再排在主线程的UI帧之后；调用者可以通过BleConfig指定自己的Looper。
+ *                 给用户的结果缺省直接在回调线程中回调，只有在BleConfig中设置了结果Executor（如MAIN_THREAD_EXECUTOR）时才转交。
+ *                 Notify和Indicate收到的数据不经过结果Executor，直接在binder线程中分发给接收回调
+ * Author:         chenm
+ * CreateDate:     2026-10-16 15:10
+ * UpdateUser:     chenm
+ * UpdateDate:     2026-10-16 15:10
+ * UpdateRemark:   无
+ * Version:        1.0
+ */
+
+public final class BleCallbackThread {
+    private static final String THREAD_NAME = "MT_Ble_Callback";
+
+    // 主线程Executor，设置为结果Executor后所有结果都在主线程中回调
+    public static final Executor MAIN_THREAD_EXECUTOR = new Executor() {
+        private final Handler mainHandler = new Handler(Looper.getMainLooper());
+
+        @Override
+        public void execute(Runnable runnable) {
+            if(Looper.myLooper() == Looper.getMainLooper()) {
+                runnable.run();
+            } else {
+                mainHandler.post(runnable);
+            }
+        }
+    };
+
+    private static HandlerThread thread; // 共享的回调线程，第一次使用时启动
+
+    private BleCallbackThread() {
+    }
+
+    // 获取回调Looper，优先使用BleConfig中指定的Looper
+    static Looper getLooper() {
+        Looper looper = BleConfig.getInstance().getCallbackLooper();
+        return (looper != null) ? looper : getSharedLooper();
+    }
+
+    private static synchronized Looper getSharedLooper() {
+        if(thread == null) {
+            thread = new HandlerThread(THREAD_NAME, Process.THREAD_PRIORITY_FOREGROUND);
+            thread.start();
+        }
+        return thread.getLooper();
+    }
+
+    // 将结果交给用户，没有设置结果Executor时直接在当前线程中执行
+    static void deliver(Runnable runnable) {
+        Executor executor = BleConfig.getInstance().getResultExecutor();
+        if(executor == null) {
+            runnable.run();
+        } else {
+            executor.execute(runnable);
+        }
+    }
+
+    // 包装用户的数据回调，使其在结果Executor中执行
+    static IBleDataCallback wrap(final IBleDataCallback dataCallback) {
+        if(dataCallback == null || BleConfig.getInstance().getResultExecutor() == null) {
+            return dataCallback;
+        }
+
+        return new IBleDataCallback() {
+            @Override
+            public void onSuccess(final byte[] data, final BleGattElement element) {
+                deliver(new Runnable() {
+                    @Override
+                    public void run() {
+                        dataCallback.onSuccess(data, element);
+                    }
+                });
+            }
+
+            @Override
+            public void onFailure(final BleException exception) {
+                deliver(new Runnable() {
+                    @Override
+                    public void run() {
+                        dataCallback.onFailure(exception);
+                    }
+                });
+            }
+        };
+    }
+
+    // 包装用户的批处理回调，使其在结果Executor中执行
+    static IBleBatchCallback wrap(final IBleBatchCallback batchCallback) {
+        if(batchCallback == null || BleConfig.getInstance().getResultExecutor() == null) {
+            return batchCallback;
+        }
+
+        return new IBleBatchCallback() {
+            @Override
+            public void onComplete(final BleGattBatchResult result) {
+                deliver(new Runnable() {
+                    @Override
+                    public void run() {
+                        batchCallback.onComplete(result);
+                    }
+                });
+            }
+        };
+    }
+
+    // 包装用户的流回调，使其在结果Executor中执行
+    static IBleStreamCallback wrap(final IBleStreamCallback streamCallback) {
+        if(streamCallback == null || BleConfig.getInstance().getResultExecutor() == null) {
+            return streamCallback;
+        }
+
+        return new IBleStreamCallback() {
+            @Override
+            public void onProgress(final int sentBytes, final int totalBytes) {
+                deliver(new Runnable() {
+                    @Override
+                    public void run() {
+                        streamCallback.onProgress(sentBytes, totalBytes);
+                    }
+                });
+            }
+
+            @Override
+            public void onComplete(final int totalBytes, final long elapsedMillis, final double bytesPerSecond) {
+                deliver(new Runnable() {
+                    @Override
+                    public void run() {
+                        streamCallback.onComplete(totalBytes, elapsedMillis, bytesPerSecond);
+                    }
+                });
+            }
+
+            @Override
+            public void onFailure(final BleException exception) {
+                deliver(new Runnable() {
+                    @Override
+                    public void run() {
+                        streamCallback.onFailure(exception);
+                    }
+                });
+            }
+        };
+    }
+}
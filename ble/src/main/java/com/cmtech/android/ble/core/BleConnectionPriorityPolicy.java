@@ -0,0 +1,118 @@
+package com.cmtech.android.ble.core;
+
+import static android.bluetooth.BluetoothGatt.CONNECTION_PRIORITY_BALANCED;
+import static android.bluetooth.BluetoothGatt.CONNECTION_PRIORITY_HIGH;
+import static android.bluetooth.BluetoothGatt.CONNECTION_PRIORITY_LOW_POWER;
+
+/**
+ *
+ * ClassName:      BleConnectionPriorityPolicy
+ * Description:    连接优先级策略。连接建立后的初始化阶段、命令队列积压、命令提交速率或通知速率较高时使用高优先级，
+ *                 空闲一段时间后切换到低功耗，其他情况使用平衡模式
+ * Author:         chenm
+ * CreateDate:     2026-10-16 11:20
+ * UpdateUser:     chenm
+ * UpdateDate:     2026-10-16 11:20
+ * UpdateRemark:   无
+ * Version:        1.0
+ */
+
+public class BleConnectionPriorityPolicy {
+    private static final int DEFAULT_SETUP_BURST_TIME = 5000; // 缺省的初始化阶段时长，单位：毫秒
+    private static final int DEFAULT_HIGH_QUEUE_DEPTH = 4; // 缺省的进入高优先级的命令队列深度
+    private static final int DEFAULT_HIGH_COMMAND_RATE = 10; // 缺省的进入高优先级的命令提交速率，单位：条/秒
+    private static final int DEFAULT_HIGH_NOTIFY_RATE = 50; // 缺省的进入高优先级的通知速率，单位：包/秒
+    private static final int DEFAULT_HIGH_HOLD_TIME = 2000; // 缺省的高优先级保持时间，单位：毫秒
+    private static final int DEFAULT_IDLE_TIME = 10000; // 缺省的进入低功耗前的空闲时间，单位：毫秒
+
+    private int setupBurstTime = DEFAULT_SETUP_BURST_TIME;
+    private int highQueueDepth = DEFAULT_HIGH_QUEUE_DEPTH;
+    private int highCommandRate = DEFAULT_HIGH_COMMAND_RATE;
+    private int highNotifyRate = DEFAULT_HIGH_NOTIFY_RATE;
+    private int highHoldTime = DEFAULT_HIGH_HOLD_TIME;
+    private int idleTime = DEFAULT_IDLE_TIME;
+
+    public BleConnectionPriorityPolicy() {
+    }
+
+    public int getSetupBurstTime() {
+        return setupBurstTime;
+    }
+
+    public BleConnectionPriorityPolicy setSetupBurstTime(int setupBurstTime) {
+        this.setupBurstTime = setupBurstTime;
+        return this;
+    }
+
+    public int getHighQueueDepth() {
+        return highQueueDepth;
+    }
+
+    public BleConnectionPriorityPolicy setHighQueueDepth(int highQueueDepth) {
+        this.highQueueDepth = highQueueDepth;
+        return this;
+    }
+
+    public int getHighCommandRate() {
+        return highCommandRate;
+    }
+
+    public BleConnectionPriorityPolicy setHighCommandRate(int highCommandRate) {
+        this.highCommandRate = highCommandRate;
+        return this;
+    }
+
+    public int getHighNotifyRate() {
+        return highNotifyRate;
+    }
+
+    public BleConnectionPriorityPolicy setHighNotifyRate(int highNotifyRate) {
+        this.highNotifyRate = highNotifyRate;
+        return this;
+    }
+
+    public int getHighHoldTime() {
+        return highHoldTime;
+    }
+
+    public BleConnectionPriorityPolicy setHighHoldTime(int highHoldTime) {
+        this.highHoldTime = highHoldTime;
+        return this;
+    }
+
+    public int getIdleTime() {
+        return idleTime;
+    }
+
+    public BleConnectionPriorityPolicy setIdleTime(int idleTime) {
+        this.idleTime = idleTime;
+        return this;
+    }
+
+    /**
+     * 当前流量是否属于繁忙
+     * @param queueDepth 评估时排队中和在途的命令数
+     * @param commandRate 两次评估之间的命令提交速率，单位：条/秒
+     * @param notifyRate 两次评估之间的通知速率，单位：包/秒
+     */
+    boolean isBusy(int queueDepth, double commandRate, double notifyRate) {
+        return queueDepth >= highQueueDepth || commandRate >= highCommandRate || notifyRate >= highNotifyRate;
+    }
+
+    /**
+     * 决定连接优先级
+     * @param sinceConnect 距连接成功的时间，单位：毫秒
+     * @param sinceBusy 距上次繁忙的时间，单位：毫秒
+     * @param sinceActive 距上次有命令或通知的时间，单位：毫秒
+     * @return BluetoothGatt.CONNECTION_PRIORITY_*
+     */
+    int decide(long sinceConnect, long sinceBusy, long sinceActive) {
+        if(sinceConnect < setupBurstTime || sinceBusy < highHoldTime) {
+            return CONNECTION_PRIORITY_HIGH;
+        }
+        if(sinceActive >= idleTime) {
+            return CONNECTION_PRIORITY_LOW_POWER;
+        }
+        return CONNECTION_PRIORITY_BALANCED;
+    }
+}
@@ -1,28 +1,26 @@
 package com.cmtech.android.ble.core;
 
+import android.bluetooth.BluetoothDevice;
+import android.bluetooth.BluetoothGatt;
 import android.bluetooth.le.ScanFilter;
 import android.content.Context;
 import android.os.Handler;
-import android.os.Looper;
 import android.os.Message;
+import android.os.SystemClock;
 
 import com.cmtech.android.ble.BleConfig;
 import com.cmtech.android.ble.R;
+import com.cmtech.android.ble.callback.IBleBatchCallback;
 import com.cmtech.android.ble.callback.IBleConnectCallback;
 import com.cmtech.android.ble.callback.IBleDataCallback;
 import com.cmtech.android.ble.callback.IBleScanCallback;
+import com.cmtech.android.ble.callback.IBleStreamCallback;
 import com.cmtech.android.ble.exception.BleException;
 import com.cmtech.android.ble.exception.OtherException;
 import com.cmtech.android.ble.exception.ScanException;
-import com.cmtech.android.ble.utils.ExecutorUtil;
+import com.cmtech.android.ble.utils.BleLog;
 import com.vise.log.ViseLog;
 
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.ScheduledExecutorService;
-import java.util.concurrent.ThreadFactory;
-import java.util.concurrent.TimeUnit;
-
 import static com.cmtech.android.ble.core.BleDeviceState.CLOSED;
 import static com.cmtech.android.ble.core.BleDeviceState.CONNECTING;
 import static com.cmtech.android.ble.core.BleDeviceState.DISCONNECT;
@@ -50,12 +48,31 @@ public class BleDeviceConnector extends AbstractDeviceConnector {
     private static final int MIN_RSSI_WHEN_CONNECTED = -75; // 连接时要求的最小RSSI
     private static final int MSG_REQUEST_SCAN = 0; // 请求扫描消息
     private static final int MSG_REQUEST_DISCONNECT = 1; // 请求断开消息
+    private static final int MSG_EVALUATE_PRIORITY = 2; // 评估连接优先级消息
+    private static final int MSG_SCAN_WINDOW_END = 3; // 扫描窗口结束消息
+    private static final int MSG_SCAN_STARTED = 4; // 物理扫描开始消息
+    private static final int PRIORITY_EVALUATE_INTERVAL = 1000; // 连接优先级评估间隔，单位：毫秒
     private BleDeviceState connectState = DISCONNECT; // 连接状态，只能是CONNECT_SUCCESS, FAILURE or DISCONNECT
-    private Context context; // 上下文，用于启动蓝牙连接。当调用open()打开设备时赋值
-    private BleDeviceDetailInfo detailInfo;// 详细信息，扫描到设备后赋值
-    private BleGatt bleGatt; // Gatt，连接成功后赋值，完成连接状态改变处理以及数据通信功能
-    private BleSerialGattCommandExecutor gattCmdExecutor; // Gatt命令执行器，在内部的一个单线程池中执行。连接成功后启动，连接失败或者断开时停止
-    private ExecutorService autoScanService; // 自动扫描服务
+    private volatile Context context; // 上下文，用于启动蓝牙连接。当调用open()打开设备时赋值
+    private volatile BleDeviceDetailInfo detailInfo;// 详细信息，扫描到设备后赋值
+    private volatile BleGatt bleGatt; // Gatt，连接成功后赋值，完成连接状态改变处理以及数据通信功能
+    private volatile BleSerialGattCommandExecutor gattCmdExecutor; // Gatt命令执行器，命令在共享调度器中本设备的通道内串行执行。连接成功后启动，连接失败或者断开时停止
+    private int gattCmdWindowSize = 1; // Gatt命令在途窗口大小，大于1时无响应写可以流水线执行
+    private boolean gattReadCoalescing = false; // 是否合并排队中对同一element的读命令
+    private int gattQueueCapacity = BleSerialGattCommandExecutor.DEFAULT_QUEUE_CAPACITY; // Gatt命令队列容量，不大于0表示不限制
+    private BleGattQueuePolicy gattQueuePolicy = BleGattQueuePolicy.REJECT; // Gatt命令队列已满时的处理策略
+    private long gattQueueStaleTime = BleSerialGattCommandExecutor.DEFAULT_QUEUE_STALE_TIME; // DROP_STALE策略下命令的陈旧时间，单位：毫秒
+    private final BleGattLatencyStats gattLatencyStats = new BleGattLatencyStats(); // Gatt命令时延统计，跨连接累计
+    private BleConnectionPriorityPolicy priorityPolicy = new BleConnectionPriorityPolicy(); // 连接优先级策略，为null时不自动切换
+    private int connectionPriority = BluetoothGatt.CONNECTION_PRIORITY_BALANCED; // 当前连接优先级
+    private long connectTime; // 连接成功时间
+    private long lastBusyTime; // 上次流量繁忙的时间
+    private long lastActiveTime; // 上次有命令或通知的时间
+    private long lastEvaluateTime; // 上次评估优先级的时间
+    private long lastNotifyCount; // 上次评估时的累计通知包数
+    private long lastCommandCount; // 上次评估时的累计提交命令数
+    private volatile boolean autoScan = false; // 是否在断开时自动扫描重连
+    private final BleScanScheduler scanScheduler = new BleScanScheduler(); // 自动扫描的占空比调度
     // 扫描回调
     private final IBleScanCallback bleScanCallback = new IBleScanCallback() {
         @Override
@@ -87,6 +104,13 @@ public class BleDeviceConnector extends AbstractDeviceConnector {
             }
         }
     };
+    // 物理扫描开始的监听，扫描启动被限额推迟时在推迟结束后才执行
+    private final Runnable scanStartListener = new Runnable() {
+        @Override
+        public void run() {
+            handler.sendEmptyMessage(MSG_SCAN_STARTED);
+        }
+    };
     // 连接回调
     private final IBleConnectCallback connectCallback = new IBleConnectCallback() {
         // 连接成功
@@ -107,14 +131,20 @@ public class BleDeviceConnector extends AbstractDeviceConnector {
             processDisconnect();
         }
     };
-    // 请求处理Handler
-    private final Handler handler = new Handler(Looper.getMainLooper()) {
+    // 请求处理Handler，与BleGatt的回调处理在同一个回调线程中执行，连接状态的处理因此是串行的
+    private final Handler handler = new Handler(BleCallbackThread.getLooper()) {
         @Override
         public void handleMessage(Message msg) {
             if (msg.what == MSG_REQUEST_SCAN) {
                 scan();
+            } else if (msg.what == MSG_SCAN_STARTED) {
+                onScanStarted();
+            } else if (msg.what == MSG_SCAN_WINDOW_END) {
+                onScanWindowEnd();
             } else if (msg.what == MSG_REQUEST_DISCONNECT) {
                 disconnect();
+            } else if (msg.what == MSG_EVALUATE_PRIORITY) {
+                evaluateConnectionPriority();
             }
         }
     };
@@ -127,6 +157,42 @@ public class BleDeviceConnector extends AbstractDeviceConnector {
         return bleGatt;
     }
 
+    public int getGattCmdWindowSize() {
+        return gattCmdWindowSize;
+    }
+
+    // 设置Gatt命令在途窗口大小，下次打开设备时生效。1表示所有命令严格串行执行
+    public void setGattCmdWindowSize(int gattCmdWindowSize) {
+        if (gattCmdWindowSize < 1) {
+            throw new IllegalArgumentException("The window size must be positive.");
+        }
+        this.gattCmdWindowSize = gattCmdWindowSize;
+    }
+
+    public BleConnectionPriorityPolicy getConnectionPriorityPolicy() {
+        return priorityPolicy;
+    }
+
+    // 设置连接优先级策略，为null时停止自动切换，保持当前优先级
+    public void setConnectionPriorityPolicy(BleConnectionPriorityPolicy priorityPolicy) {
+        this.priorityPolicy = priorityPolicy;
+    }
+
+    // 获取当前连接优先级，BluetoothGatt.CONNECTION_PRIORITY_*
+    public int getConnectionPriority() {
+        return connectionPriority;
+    }
+
+    // 获取当前发送PHY，未连接时返回1M
+    public int getTxPhy() {
+        return (bleGatt == null) ? BluetoothDevice.PHY_LE_1M : bleGatt.getTxPhy();
+    }
+
+    // 获取当前接收PHY，未连接时返回1M
+    public int getRxPhy() {
+        return (bleGatt == null) ? BluetoothDevice.PHY_LE_1M : bleGatt.getRxPhy();
+    }
+
     private void setConnectState(BleDeviceState connectState) {
         this.connectState = connectState;
         setState(connectState);
@@ -159,7 +225,9 @@ public class BleDeviceConnector extends AbstractDeviceConnector {
 
         ViseLog.e("BleDeviceConnector.open()");
         this.context = context;
-        gattCmdExecutor = new BleSerialGattCommandExecutor(this);
+        gattCmdExecutor = new BleSerialGattCommandExecutor(this, gattCmdWindowSize);
+        gattCmdExecutor.setCoalesceReads(gattReadCoalescing);
+        gattCmdExecutor.setQueueLimit(gattQueueCapacity, gattQueuePolicy, gattQueueStaleTime);
         setState(DISCONNECT);
         if (device.autoConnect()) {
             callAutoScan();
@@ -185,39 +253,58 @@ public class BleDeviceConnector extends AbstractDeviceConnector {
         return state == SCANNING;
     }
 
-    // 请求自动扫描
+    // 请求自动扫描。已经在自动扫描的间歇期时，立即回到积极扫描
     private void callAutoScan() {
         if (isDisconnected()) {
-            if (ExecutorUtil.isDead(autoScanService)) {
+            if (!autoScan) {
                 ViseLog.e("BleDeviceConnector.callAutoScan()");
 
-                autoScanService = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
-                    @Override
-                    public Thread newThread(Runnable runnable) {
-                        return new Thread(runnable, "MT_Auto_Scan");
-                    }
-                });
-                ((ScheduledExecutorService) autoScanService).scheduleAtFixedRate(new Runnable() {
-                    @Override
-                    public void run() {
-                        if (isDisconnected()) {
-                            handler.sendEmptyMessage(MSG_REQUEST_SCAN);
-                        }
-                    }
-                }, 0, BleConfig.getInstance().getAutoScanInterval(), TimeUnit.SECONDS);
+                autoScan = true;
+                scanScheduler.boost();
+                handler.sendEmptyMessage(MSG_REQUEST_SCAN);
             } else {
-                device.handleException(new ScanException(ScanException.SCAN_ERR_WAIT_PLEASE, context.getString(R.string.wait_scan_pls)));
+                requestFastScan();
             }
         }
     }
 
+    // 用户操作要求尽快连接时调用：自动扫描立即以低时延模式开始一个积极窗口
+    public void requestFastScan() {
+        if (!autoScan) {
+            return;
+        }
+        scanScheduler.boost();
+        handler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (isDisconnected()) {
+                    handler.removeMessages(MSG_REQUEST_SCAN);
+                    scan();
+                } else if (isScanning() && !scanScheduler.isAggressive()) {
+                    // 正在间歇扫描，换成积极窗口
+                    BleScanner.stopScan(bleScanCallback);
+                    handler.removeMessages(MSG_SCAN_STARTED);
+                    handler.removeMessages(MSG_SCAN_WINDOW_END);
+                    scanScheduler.onStopped();
+                    setState(connectState);
+                    scan();
+                }
+            }
+        });
+    }
+
+    // 自动扫描的调度和统计
+    public BleScanScheduler getScanScheduler() {
+        return scanScheduler;
+    }
+
     // 强制断开
     @Override
     public void forceDisconnect(boolean forever) {
         ViseLog.e("BleDeviceConnector.forceDisconnect(): forever-" + forever);
 
         if (forever) {
-            ExecutorUtil.shutdownNowAndAwaitTerminate(autoScanService);
+            stopAutoScan();
         }
         handler.removeCallbacksAndMessages(null);
         handler.sendEmptyMessage(MSG_REQUEST_DISCONNECT);
@@ -226,13 +313,22 @@ public class BleDeviceConnector extends AbstractDeviceConnector {
     // 停止扫描
     private void stopScan(boolean forever) {
         if (forever) {
-            ExecutorUtil.shutdownNowAndAwaitTerminate(autoScanService);
+            stopAutoScan();
         }
         BleScanner.stopScan(bleScanCallback); // 设备处于扫描时，停止扫描
         handler.removeMessages(MSG_REQUEST_SCAN);
+        handler.removeMessages(MSG_SCAN_STARTED);
+        handler.removeMessages(MSG_SCAN_WINDOW_END);
+        scanScheduler.onStopped();
         setState(connectState);
     }
 
+    // 停止自动扫描
+    private void stopAutoScan() {
+        autoScan = false;
+        scanScheduler.reset();
+    }
+
     // 关闭设备
     @Override
     public void close() {
@@ -243,11 +339,10 @@ public class BleDeviceConnector extends AbstractDeviceConnector {
 
         ViseLog.e("BleDeviceConnector.close()");
 
-        ExecutorUtil.shutdownNowAndAwaitTerminate(autoScanService);
+        stopAutoScan();
         handler.removeCallbacksAndMessages(null);
         setState(BleDeviceState.CLOSED);
 
-        autoScanService = null;
         gattCmdExecutor = null;
         detailInfo = null;
         bleGatt = null;
@@ -263,7 +358,7 @@ public class BleDeviceConnector extends AbstractDeviceConnector {
 
     @Override
     public boolean isDisconnectedForever() {
-        return isDisconnected() && ExecutorUtil.isDead(autoScanService);
+        return isDisconnected() && !autoScan;
     }
 
     private void disconnect() {
@@ -274,12 +369,41 @@ public class BleDeviceConnector extends AbstractDeviceConnector {
         handler.removeCallbacksAndMessages(null);
     }
 
+    // 开始一个扫描窗口，窗口的模式和时长由扫描调度决定。窗口在物理扫描真正开始后才计时
     private void scan() {
         if (isDisconnected()) {
             handler.removeMessages(MSG_REQUEST_SCAN);
+            handler.removeMessages(MSG_SCAN_STARTED);
+            handler.removeMessages(MSG_SCAN_WINDOW_END);
+            int mode = scanScheduler.prepareWindow();
             ScanFilter scanFilter = new ScanFilter.Builder().setDeviceAddress(device.getAddress()).build();
-            BleScanner.startScan(scanFilter, bleScanCallback);
             setState(SCANNING);
+            BleScanner.startScan(scanFilter, mode, 0, bleScanCallback, scanStartListener);
+        }
+    }
+
+    // 物理扫描开始，扫描窗口开始计时
+    private void onScanStarted() {
+        if (!isScanning() || !scanScheduler.isWindowPending()) {
+            return;
+        }
+        long window = scanScheduler.onScanStarted();
+        handler.removeMessages(MSG_SCAN_WINDOW_END);
+        handler.sendEmptyMessageDelayed(MSG_SCAN_WINDOW_END, window);
+    }
+
+    // 扫描窗口结束仍没有发现设备，停扫一段时间后再开始下一个窗口
+    private void onScanWindowEnd() {
+        if (!isScanning()) {
+            return;
+        }
+        BleScanner.stopScan(bleScanCallback);
+        handler.removeMessages(MSG_REQUEST_SCAN);
+        long offTime = scanScheduler.onWindowMissed(BleConfig.getInstance().getAutoScanInterval() * 1000L);
+        setState(connectState);
+        BleLog.d("Scan window missed, next window after " + offTime + "ms: " + scanScheduler);
+        if (autoScan) {
+            handler.sendEmptyMessageDelayed(MSG_REQUEST_SCAN, offTime);
         }
     }
 
@@ -292,6 +416,7 @@ public class BleDeviceConnector extends AbstractDeviceConnector {
     private void processFoundDevice(final BleDeviceDetailInfo detailInfo) {
         ViseLog.e("Process found device: " + detailInfo);
 
+        scanScheduler.onHit();
         stopScan(false);
         BleDeviceConnector.this.detailInfo = detailInfo;
         if (context != null) {
@@ -318,6 +443,7 @@ public class BleDeviceConnector extends AbstractDeviceConnector {
 
         this.bleGatt = bleGatt;
         gattCmdExecutor.start();
+        startPriorityEvaluation();
         setConnectState(CONNECT);
 
         if (!device.onConnectSuccess()) {
@@ -332,8 +458,10 @@ public class BleDeviceConnector extends AbstractDeviceConnector {
 
             gattCmdExecutor.stop();
             bleGatt = null;
+            stopPriorityEvaluation();
             setConnectState(FAILURE);
             device.onConnectFailure();
+            rescanAfterDisconnect();
         }
     }
 
@@ -344,36 +472,359 @@ public class BleDeviceConnector extends AbstractDeviceConnector {
 
             gattCmdExecutor.stop();
             bleGatt = null;
+            stopPriorityEvaluation();
             setConnectState(DISCONNECT);
             device.onDisconnect();
+            rescanAfterDisconnect();
+        }
+    }
+
+    // 连接断开或失败后，自动扫描立即以积极窗口开始重连
+    private void rescanAfterDisconnect() {
+        if (autoScan) {
+            scanScheduler.boost();
+            handler.removeMessages(MSG_REQUEST_SCAN);
+            handler.sendEmptyMessage(MSG_REQUEST_SCAN);
+        }
+    }
+
+    // 开始周期评估连接优先级
+    private void startPriorityEvaluation() {
+        long now = SystemClock.elapsedRealtime();
+        connectTime = now;
+        lastBusyTime = now;
+        lastActiveTime = now;
+        lastEvaluateTime = now;
+        lastNotifyCount = bleGatt.getNotifyCount();
+        lastCommandCount = gattCmdExecutor.getSubmittedCount();
+        handler.removeMessages(MSG_EVALUATE_PRIORITY);
+        handler.sendEmptyMessage(MSG_EVALUATE_PRIORITY);
+    }
+
+    // 停止评估连接优先级
+    private void stopPriorityEvaluation() {
+        handler.removeMessages(MSG_EVALUATE_PRIORITY);
+        if (connectionPriority != BluetoothGatt.CONNECTION_PRIORITY_BALANCED) {
+            connectionPriority = BluetoothGatt.CONNECTION_PRIORITY_BALANCED;
+            device.updateState();
+        }
+    }
+
+    // 根据两次评估之间提交的命令数、通知包数和当前命令队列深度评估并切换连接优先级。
+    // 只看队列深度会漏掉两次采样之间很快完成的命令，因此同时统计累计提交命令数的增量
+    private void evaluateConnectionPriority() {
+        if (!isConnected() || bleGatt == null) {
+            return;
         }
+
+        BleConnectionPriorityPolicy policy = priorityPolicy;
+        if (policy != null) {
+            long now = SystemClock.elapsedRealtime();
+            long notifyCount = bleGatt.getNotifyCount();
+            long interval = Math.max(1, now - lastEvaluateTime);
+            double notifyRate = (notifyCount - lastNotifyCount) * 1000.0 / interval;
+            long commandCount = gattCmdExecutor.getSubmittedCount();
+            // 重新连接后计数从0开始
+            long commandDelta = Math.max(0, commandCount - lastCommandCount);
+            double commandRate = commandDelta * 1000.0 / interval;
+            int queueDepth = gattCmdExecutor.getQueueDepth();
+            lastEvaluateTime = now;
+            lastNotifyCount = notifyCount;
+            lastCommandCount = commandCount;
+
+            if (policy.isBusy(queueDepth, commandRate, notifyRate)) {
+                lastBusyTime = now;
+            }
+            if (commandDelta > 0 || queueDepth > 0 || notifyRate > 0) {
+                lastActiveTime = now;
+            }
+
+            int priority = policy.decide(now - connectTime, now - lastBusyTime, now - lastActiveTime);
+            if (priority != connectionPriority && bleGatt.requestConnectionPriority(priority)) {
+                BleLog.i("Connection priority changed to " + priority);
+                connectionPriority = priority;
+                device.updateState();
+            }
+        }
+        handler.sendEmptyMessageDelayed(MSG_EVALUATE_PRIORITY, PRIORITY_EVALUATE_INTERVAL);
+    }
+
+    // 设置是否合并排队中对同一element的读命令，合并后只读一次，结果回调给所有调用者。立即生效
+    public void setGattReadCoalescing(boolean coalesceReads) {
+        this.gattReadCoalescing = coalesceReads;
+        BleSerialGattCommandExecutor executor = gattCmdExecutor;
+        if (executor != null) {
+            executor.setCoalesceReads(coalesceReads);
+        }
+    }
+
+    public boolean isGattReadCoalescing() {
+        return gattReadCoalescing;
+    }
+
+    // 设置Gatt命令队列容量，不大于0表示不限制。立即生效，已经在队列中的命令不受影响
+    public void setGattQueueCapacity(int capacity) {
+        this.gattQueueCapacity = capacity;
+        applyGattQueueLimit();
+    }
+
+    public int getGattQueueCapacity() {
+        return gattQueueCapacity;
+    }
+
+    // 设置Gatt命令队列已满时的处理策略。立即生效
+    public void setGattQueuePolicy(BleGattQueuePolicy policy) {
+        if (policy == null) {
+            throw new NullPointerException("The queue policy is null.");
+        }
+        this.gattQueuePolicy = policy;
+        applyGattQueueLimit();
+    }
+
+    public BleGattQueuePolicy getGattQueuePolicy() {
+        return gattQueuePolicy;
+    }
+
+    // 设置DROP_STALE策略下命令的陈旧时间，单位：毫秒。立即生效
+    public void setGattQueueStaleTime(long staleTime) {
+        this.gattQueueStaleTime = staleTime;
+        applyGattQueueLimit();
+    }
+
+    public long getGattQueueStaleTime() {
+        return gattQueueStaleTime;
+    }
+
+    private void applyGattQueueLimit() {
+        BleSerialGattCommandExecutor executor = gattCmdExecutor;
+        if (executor != null) {
+            executor.setQueueLimit(gattQueueCapacity, gattQueuePolicy, gattQueueStaleTime);
+        }
+    }
+
+    // 排队中的Gatt命令数
+    public int getGattQueueSize() {
+        BleSerialGattCommandExecutor executor = gattCmdExecutor;
+        return (executor == null) ? 0 : executor.getPendingCount();
+    }
+
+    // 本次连接中排队的Gatt命令数的峰值
+    public int getGattQueuePeakSize() {
+        BleSerialGattCommandExecutor executor = gattCmdExecutor;
+        return (executor == null) ? 0 : executor.getPeakPendingCount();
+    }
+
+    // 本次连接中因队列已满被拒绝的Gatt命令数
+    public long getGattRejectedCount() {
+        BleSerialGattCommandExecutor executor = gattCmdExecutor;
+        return (executor == null) ? 0 : executor.getRejectedCount();
+    }
+
+    // 本次连接中因队列已满被丢弃的Gatt命令数
+    public long getGattDroppedCount() {
+        BleSerialGattCommandExecutor executor = gattCmdExecutor;
+        return (executor == null) ? 0 : executor.getDroppedCount();
+    }
+
+    // 本次连接中因命令合并而省去的Gatt往返次数
+    public long getGattSavedRoundTrips() {
+        BleSerialGattCommandExecutor executor = gattCmdExecutor;
+        return (executor == null) ? 0 : executor.getSavedRoundTrips();
+    }
+
+    // 某一优先级排队中的Gatt命令数
+    public int getGattQueueDepth(BleGattCmdPriority priority) {
+        BleSerialGattCommandExecutor executor = gattCmdExecutor;
+        return (executor == null) ? 0 : executor.getQueueDepth(priority);
+    }
+
+    // 某一优先级的Gatt命令在本次连接中的平均排队等待时间，单位：毫秒
+    public long getGattAverageWaitTime(BleGattCmdPriority priority) {
+        BleSerialGattCommandExecutor executor = gattCmdExecutor;
+        return (executor == null) ? 0 : executor.getAverageWaitTime(priority);
+    }
+
+    // 某一优先级的Gatt命令在本次连接中的最长排队等待时间，单位：毫秒
+    public long getGattMaxWaitTime(BleGattCmdPriority priority) {
+        BleSerialGattCommandExecutor executor = gattCmdExecutor;
+        return (executor == null) ? 0 : executor.getMaxWaitTime(priority);
+    }
+
+    // 本设备Gatt命令的时延统计，按命令类型和element给出排队、发出到响应、响应到回调以及全程时延的百分位数
+    public BleGattLatencyStats getGattLatencyStats() {
+        return gattLatencyStats;
     }
 
     public boolean isGattExecutorAlive() {
         return gattCmdExecutor.isAlive();
     }
 
-    public final void read(BleGattElement element, IBleDataCallback dataCallback) {
-        gattCmdExecutor.read(element, dataCallback);
+    // 以下Gatt操作返回取消句柄，调用cancel()可以撤回排队中的命令，已经发出的命令以CancelledException结束
+    public final BleGattHandle read(BleGattElement element, IBleDataCallback dataCallback) {
+        return gattCmdExecutor.read(element, BleCallbackThread.wrap(dataCallback));
+    }
+
+    // 按指定优先级读，CONTROL优先级的命令总是排在其他排队命令之前发出
+    public final BleGattHandle read(BleGattElement element, BleGattCmdPriority priority, IBleDataCallback dataCallback) {
+        return gattCmdExecutor.read(element, priority, BleCallbackThread.wrap(dataCallback));
+    }
+
+    // 按指定优先级和超时重试策略读，retryPolicy为null时使用BleConfig中的缺省策略
+    public final BleGattHandle read(BleGattElement element, BleGattCmdPriority priority, BleGattRetryPolicy retryPolicy, IBleDataCallback dataCallback) {
+        return gattCmdExecutor.read(element, priority, retryPolicy, BleCallbackThread.wrap(dataCallback));
+    }
+
+    public final BleGattHandle readLong(BleGattElement element, IBleDataCallback dataCallback) {
+        return gattCmdExecutor.readLong(element, BleCallbackThread.wrap(dataCallback));
+    }
+
+    public final BleGattHandle reliableWrite(BleGattElement element, byte[] data, IBleDataCallback dataCallback) {
+        return gattCmdExecutor.reliableWrite(element, data, BleCallbackThread.wrap(dataCallback));
+    }
+
+    // 写数据，超过单包长度的数据按MTU切分后依次写入，不加长度头。
+    // 对端用BleGattFrameAssembler的格式重组消息时，写BleGattFrameAssembler.frame(message)
+    public final BleGattHandle write(BleGattElement element, byte[] data, IBleDataCallback dataCallback) {
+        return gattCmdExecutor.write(element, data, BleCallbackThread.wrap(dataCallback));
+    }
+
+    // 按指定优先级写，CONTROL优先级的命令总是排在其他排队命令之前发出
+    public final BleGattHandle write(BleGattElement element, byte[] data, BleGattCmdPriority priority, IBleDataCallback dataCallback) {
+        return gattCmdExecutor.write(element, data, priority, BleCallbackThread.wrap(dataCallback));
+    }
+
+    // 按指定优先级和超时重试策略写，retryPolicy为null时使用BleConfig中的缺省策略。缺省策略不重试写操作，
+    // 写操作可以重复执行时传入setRetryWrites(true)的策略
+    public final BleGattHandle write(BleGattElement element, byte[] data, BleGattCmdPriority priority, BleGattRetryPolicy retryPolicy, IBleDataCallback dataCallback) {
+        return gattCmdExecutor.write(element, data, priority, retryPolicy, BleCallbackThread.wrap(dataCallback));
+    }
+
+    public final BleGattHandle write(BleGattElement element, byte data, IBleDataCallback dataCallback) {
+        return gattCmdExecutor.write(element, data, BleCallbackThread.wrap(dataCallback));
+    }
+
+    // 无响应写数据，和write()一样按MTU切分，不加长度头
+    public final BleGattHandle writeNoResponse(BleGattElement element, byte[] data, IBleDataCallback dataCallback) {
+        return gattCmdExecutor.writeNoResponse(element, data, BleCallbackThread.wrap(dataCallback));
     }
 
-    public final void write(BleGattElement element, byte[] data, IBleDataCallback dataCallback) {
-        gattCmdExecutor.write(element, data, dataCallback);
+    // 状态写，排队中对同一element的状态写只写最后的值，适用于只关心最终状态的控制特征值
+    public final BleGattHandle writeState(BleGattElement element, byte[] data, IBleDataCallback dataCallback) {
+        return writeState(element, data, BleGattCmdPriority.INTERACTIVE, dataCallback);
     }
 
-    public final void write(BleGattElement element, byte data, IBleDataCallback dataCallback) {
-        gattCmdExecutor.write(element, data, dataCallback);
+    public final BleGattHandle writeState(BleGattElement element, byte[] data, BleGattCmdPriority priority, IBleDataCallback dataCallback) {
+        return gattCmdExecutor.writeState(element, data, priority, BleCallbackThread.wrap(dataCallback));
     }
 
-    public final void notify(BleGattElement element, boolean enable, IBleDataCallback receiveCallback) {
-        gattCmdExecutor.notify(element, enable, receiveCallback);
+    public final BleGattHandle writeNoResponse(BleGattElement element, byte[] data, BleGattCmdPriority priority, IBleDataCallback dataCallback) {
+        return gattCmdExecutor.writeNoResponse(element, data, priority, BleCallbackThread.wrap(dataCallback));
     }
 
-    public final void indicate(BleGattElement element, boolean enable, IBleDataCallback receiveCallback) {
-        gattCmdExecutor.indicate(element, enable, receiveCallback);
+    // 流式写大块数据，采用无响应写和信用流量控制，完成后报告实际吞吐率
+    public final void writeStream(BleGattElement element, byte[] data, IBleStreamCallback streamCallback) {
+        writeStream(element, data, BleGattStreamWriter.DEFAULT_CREDITS, streamCallback);
     }
 
-    public final void runInstantly(IBleDataCallback callback) {
-        gattCmdExecutor.runInstantly(callback);
+    public final void writeStream(BleGattElement element, byte[] data, int credits, IBleStreamCallback streamCallback) {
+        streamCallback = BleCallbackThread.wrap(streamCallback);
+        if (bleGatt == null) {
+            streamCallback.onFailure(new OtherException("The device is not connected."));
+            return;
+        }
+        new BleGattStreamWriter(gattCmdExecutor, element, data, bleGatt.getMaxPayloadSize(), credits, streamCallback).start();
+    }
+
+    // 收到的数据直接在binder线程中回调receiveCallback，不经过结果Executor。高速数据请使用BleNotifyRingBuffer转交给消费线程
+    public final BleGattHandle notify(BleGattElement element, boolean enable, IBleDataCallback receiveCallback) {
+        return gattCmdExecutor.notify(element, enable, receiveCallback);
+    }
+
+    public final BleGattHandle notify(BleGattElement element, boolean enable, boolean reassemble, IBleDataCallback receiveCallback) {
+        return gattCmdExecutor.notify(element, enable, reassemble, receiveCallback);
+    }
+
+    public final BleGattHandle indicate(BleGattElement element, boolean enable, IBleDataCallback receiveCallback) {
+        return gattCmdExecutor.indicate(element, enable, receiveCallback);
+    }
+
+    public final BleGattHandle indicate(BleGattElement element, boolean enable, boolean reassemble, IBleDataCallback receiveCallback) {
+        return gattCmdExecutor.indicate(element, enable, reassemble, receiveCallback);
+    }
+
+    public final BleGattHandle runInstantly(IBleDataCallback callback) {
+        return gattCmdExecutor.runInstantly(BleCallbackThread.wrap(callback));
+    }
+
+    // 执行一组按顺序的Gatt操作，整批一次提交、连续执行，全部结束后回调一次汇总结果。设备未连接时所有步骤都不执行
+    public final BleGattHandle executeBatch(BleGattBatch batch, IBleBatchCallback batchCallback) {
+        batchCallback = BleCallbackThread.wrap(batchCallback);
+        BleSerialGattCommandExecutor executor = gattCmdExecutor;
+        if (executor == null) {
+            BleSerialGattCommandExecutor.failBatch(batch, batchCallback, new OtherException("The gatt command executor is stopped."));
+            return BleGattHandle.NONE;
+        }
+        return executor.executeBatch(batch, batchCallback);
+    }
+
+    // 以下异步操作返回BleGattFuture，可以用then()串联多条命令，可以用cancel()取消命令。设备未连接时返回已失败的结果
+    public final BleGattFuture readAsync(BleGattElement element) {
+        BleGattFuture future = new BleGattFuture();
+        if (checkExecutorAlive(future)) {
+            future.setHandle(gattCmdExecutor.read(element, BleCallbackThread.wrap(future.getCompleteCallback())));
+        }
+        return future;
+    }
+
+    public final BleGattFuture readAsync(BleGattElement element, BleGattCmdPriority priority) {
+        BleGattFuture future = new BleGattFuture();
+        if (checkExecutorAlive(future)) {
+            future.setHandle(gattCmdExecutor.read(element, priority, BleCallbackThread.wrap(future.getCompleteCallback())));
+        }
+        return future;
+    }
+
+    public final BleGattFuture writeAsync(BleGattElement element, byte[] data) {
+        return writeAsync(element, data, BleGattCmdPriority.INTERACTIVE);
+    }
+
+    public final BleGattFuture writeAsync(BleGattElement element, byte[] data, BleGattCmdPriority priority) {
+        BleGattFuture future = new BleGattFuture();
+        if (checkExecutorAlive(future)) {
+            future.setHandle(gattCmdExecutor.write(element, data, priority, BleCallbackThread.wrap(future.getCompleteCallback())));
+        }
+        return future;
+    }
+
+    public final BleGattFuture writeAsync(BleGattElement element, byte data) {
+        return writeAsync(element, new byte[]{data});
+    }
+
+    // 使能或禁止Notify，使能完成时结果完成，收到的数据由receiveCallback在binder线程中回调
+    public final BleGattFuture notifyAsync(BleGattElement element, boolean enable, IBleDataCallback receiveCallback) {
+        BleGattFuture future = new BleGattFuture();
+        if (checkExecutorAlive(future)) {
+            future.setHandle(gattCmdExecutor.notify(element, enable, BleCallbackThread.wrap(future.getCompleteCallback()), receiveCallback));
+        }
+        return future;
+    }
+
+    // 使能或禁止Indicate，使能完成时结果完成，收到的数据由receiveCallback在binder线程中回调
+    public final BleGattFuture indicateAsync(BleGattElement element, boolean enable, IBleDataCallback receiveCallback) {
+        BleGattFuture future = new BleGattFuture();
+        if (checkExecutorAlive(future)) {
+            future.setHandle(gattCmdExecutor.indicate(element, enable, BleCallbackThread.wrap(future.getCompleteCallback()), receiveCallback));
+        }
+        return future;
+    }
+
+    // 命令执行器没有运行时，命令不会被执行，直接让结果失败
+    private boolean checkExecutorAlive(BleGattFuture future) {
+        BleSerialGattCommandExecutor executor = gattCmdExecutor;
+        if (executor == null || !executor.isAlive()) {
+            future.getCompleteCallback().onFailure(new OtherException("The gatt command executor is stopped."));
+            return false;
+        }
+        return true;
     }
 }
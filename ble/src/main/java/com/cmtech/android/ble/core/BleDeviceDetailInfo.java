@@ -29,6 +29,17 @@ import java.util.Set;
  * UpdateDate:     2019-06-28 08:56
  * UpdateRemark:   更新说明
  * Version:        1.0
+ * UpdateUser:     chenm
+ * UpdateDate:     2026-10-16 23:30
+ * UpdateRemark:   扫描时同一设备复用一个实例：RSSI记录改为定长的环形数组，更新RSSI不再分配对象；
+ *                 广播数据变化时才重新解析
+ * Version:        1.1
+ * UpdateUser:     chenm
+ * UpdateDate:     2026-10-17 10:30
+ * UpdateRemark:   扫描得到的实例是活的，扫描仪会就地更新它的RSSI和广播数据，需要快照时用复制构造函数。
+ *                 equals和hashCode只比较设备和首次发现时的RSSI、时间戳，实例可以放在HashSet中或作为Map的键；
+ *                 广播数据和它的解析结果一起替换，读到的总是同一次广播的数据
+ * Version:        1.2
  */
 
 public class BleDeviceDetailInfo implements Parcelable {
@@ -54,17 +65,34 @@ public class BleDeviceDetailInfo implements Parcelable {
     private static final String PARCEL_EXTRA_DEVICE_SCANRECORD_STORE = "device_scanrecord_store";
     private static final String PARCEL_EXTRA_FIRST_RSSI = "device_first_rssi";
     private static final String PARCEL_EXTRA_FIRST_TIMESTAMP = "first_timestamp";
-    private static final long LOG_INVALIDATION_THRESHOLD = 10 * 1000;
-    private final AdRecordStore mRecordStore;
+    private static final long LOG_INVALIDATION_THRESHOLD = 10 * 1000 * 1000000L; // 时间戳取自扫描结果，单位为纳秒
+    private volatile AdvertisingRecord mRecord; // 广播数据及其解析结果
     private final BluetoothDevice mDevice;
-    private final Map<Long, Integer> mRssiLog;
-    private final byte[] mScanRecord;
+    private final long[] mRssiLogTimestamps = new long[MAX_RSSI_LOG_SIZE]; // RSSI记录的环形数组，时间戳
+    private final int[] mRssiLogReadings = new int[MAX_RSSI_LOG_SIZE]; // RSSI记录的环形数组，RSSI值
+    private int mRssiLogHead = 0; // 下一条RSSI记录的位置
+    private int mRssiLogSize = 0; // RSSI记录数
     private final int mFirstRssi;
     private final long mFirstTimestamp;
-    private int mCurrentRssi;
-    private long mCurrentTimestamp;
+    private volatile int mCurrentRssi;
+    private volatile long mCurrentTimestamp;
     private transient Set<BluetoothServiceType> mServiceSet;
 
+    // 一次广播的数据及其解析结果，两者总是一起替换
+    private static final class AdvertisingRecord {
+        private final byte[] bytes;
+        private final AdRecordStore store;
+
+        AdvertisingRecord(final byte[] bytes, final AdRecordStore store) {
+            this.bytes = bytes;
+            this.store = store;
+        }
+
+        AdvertisingRecord(final byte[] bytes) {
+            this(bytes, new AdRecordStore(AdRecordUtil.parseScanRecordAsSparseArray(bytes)));
+        }
+    }
+
     /**
      * Instantiates a new Bluetooth LE device.
      *
@@ -77,9 +105,7 @@ public class BleDeviceDetailInfo implements Parcelable {
         mDevice = device;
         mFirstRssi = rssi;
         mFirstTimestamp = timestamp;
-        mRecordStore = new AdRecordStore(AdRecordUtil.parseScanRecordAsSparseArray(scanRecord));
-        mScanRecord = scanRecord;
-        mRssiLog = new LinkedHashMap<>(MAX_RSSI_LOG_SIZE);
+        mRecord = new AdvertisingRecord(scanRecord);
         updateRssiReading(timestamp, rssi);
     }
 
@@ -94,9 +120,13 @@ public class BleDeviceDetailInfo implements Parcelable {
         mDevice = device.getDevice();
         mFirstRssi = device.getFirstRssi();
         mFirstTimestamp = device.getFirstTimestamp();
-        mRecordStore = new AdRecordStore(AdRecordUtil.parseScanRecordAsSparseArray(device.getScanRecord()));
-        mRssiLog = device.getRssiLog();
-        mScanRecord = device.getScanRecord();
+        mRecord = new AdvertisingRecord(device.getScanRecord());
+        synchronized (device.mRssiLogReadings) {
+            System.arraycopy(device.mRssiLogTimestamps, 0, mRssiLogTimestamps, 0, MAX_RSSI_LOG_SIZE);
+            System.arraycopy(device.mRssiLogReadings, 0, mRssiLogReadings, 0, MAX_RSSI_LOG_SIZE);
+            mRssiLogHead = device.mRssiLogHead;
+            mRssiLogSize = device.mRssiLogSize;
+        }
     }
 
     /**
@@ -112,9 +142,14 @@ public class BleDeviceDetailInfo implements Parcelable {
         mDevice = b.getParcelable(PARCEL_EXTRA_BLUETOOTH_DEVICE);
         mFirstRssi = b.getInt(PARCEL_EXTRA_FIRST_RSSI, 0);
         mFirstTimestamp = b.getLong(PARCEL_EXTRA_FIRST_TIMESTAMP, 0);
-        mRecordStore = b.getParcelable(PARCEL_EXTRA_DEVICE_SCANRECORD_STORE);
-        mRssiLog = (Map<Long, Integer>) b.getSerializable(PARCEL_EXTRA_DEVICE_RSSI_LOG);
-        mScanRecord = b.getByteArray(PARCEL_EXTRA_DEVICE_SCANRECORD);
+        final AdRecordStore recordStore = b.getParcelable(PARCEL_EXTRA_DEVICE_SCANRECORD_STORE);
+        final Map<Long, Integer> rssiLog = (Map<Long, Integer>) b.getSerializable(PARCEL_EXTRA_DEVICE_RSSI_LOG);
+        if (rssiLog != null) {
+            for (final Map.Entry<Long, Integer> entry : rssiLog.entrySet()) {
+                putRssiLog(entry.getKey(), entry.getValue());
+            }
+        }
+        mRecord = new AdvertisingRecord(b.getByteArray(PARCEL_EXTRA_DEVICE_SCANRECORD), recordStore);
     }
 
     /**
@@ -124,17 +159,25 @@ public class BleDeviceDetailInfo implements Parcelable {
      * @param rssiReading the rssi reading
      */
     private void addToRssiLog(final long timestamp, final int rssiReading) {
-        synchronized (mRssiLog) {
+        synchronized (mRssiLogReadings) {
             if (timestamp - mCurrentTimestamp > LOG_INVALIDATION_THRESHOLD) {
-                mRssiLog.clear();
+                mRssiLogSize = 0;
             }
 
             mCurrentRssi = rssiReading;
             mCurrentTimestamp = timestamp;
-            mRssiLog.put(timestamp, rssiReading);
+            putRssiLog(timestamp, rssiReading);
         }
     }
 
+    // 加入一条RSSI记录，记录满时覆盖最早的一条
+    private void putRssiLog(final long timestamp, final int rssiReading) {
+        mRssiLogTimestamps[mRssiLogHead] = timestamp;
+        mRssiLogReadings[mRssiLogHead] = rssiReading;
+        mRssiLogHead = (mRssiLogHead + 1) % MAX_RSSI_LOG_SIZE;
+        if (mRssiLogSize < MAX_RSSI_LOG_SIZE) mRssiLogSize++;
+    }
+
     /* (non-Javadoc)
      * @see android.os.Parcelable#describeContents()
      */
@@ -145,6 +188,7 @@ public class BleDeviceDetailInfo implements Parcelable {
 
     /* (non-Javadoc)
      * @see java.lang.Object#equals(java.lang.Object)
+     * 只比较不会改变的字段，扫描仪就地更新实例后比较结果不变
      */
     @Override
     public boolean equals(final Object obj) {
@@ -152,23 +196,11 @@ public class BleDeviceDetailInfo implements Parcelable {
         if (obj == null) return false;
         if (getClass() != obj.getClass()) return false;
         final BleDeviceDetailInfo other = (BleDeviceDetailInfo) obj;
-        if (mCurrentRssi != other.mCurrentRssi) return false;
-        if (mCurrentTimestamp != other.mCurrentTimestamp) return false;
         if (mDevice == null) {
             if (other.mDevice != null) return false;
         } else if (!mDevice.equals(other.mDevice)) return false;
         if (mFirstRssi != other.mFirstRssi) return false;
-        if (mFirstTimestamp != other.mFirstTimestamp) return false;
-        if (mRecordStore == null) {
-            if (other.mRecordStore != null) return false;
-        } else if (!mRecordStore.equals(other.mRecordStore)) return false;
-        if (mRssiLog == null) {
-            if (other.mRssiLog != null) return false;
-        } else if (!mRssiLog.equals(other.mRssiLog)) return false;
-        if (Arrays.equals(mScanRecord, other.mScanRecord)) {
-            return true;
-        }
-        return false;
+        return mFirstTimestamp == other.mFirstTimestamp;
     }
 
     /**
@@ -177,7 +209,7 @@ public class BleDeviceDetailInfo implements Parcelable {
      * @return the ad record store
      */
     public AdRecordStore getAdRecordStore() {
-        return mRecordStore;
+        return mRecord.store;
     }
 
     /**
@@ -281,13 +313,18 @@ public class BleDeviceDetailInfo implements Parcelable {
     }
 
     /**
-     * Gets the rssi log.
+     * Gets a copy of the rssi log, oldest reading first.
      *
      * @return the rssi log
      */
     protected Map<Long, Integer> getRssiLog() {
-        synchronized (mRssiLog) {
-            return mRssiLog;
+        synchronized (mRssiLogReadings) {
+            final Map<Long, Integer> rssiLog = new LinkedHashMap<>(MAX_RSSI_LOG_SIZE);
+            for (int i = 0; i < mRssiLogSize; i++) {
+                final int index = (mRssiLogHead - mRssiLogSize + i + MAX_RSSI_LOG_SIZE) % MAX_RSSI_LOG_SIZE;
+                rssiLog.put(mRssiLogTimestamps[index], mRssiLogReadings[index]);
+            }
+            return rssiLog;
         }
     }
 
@@ -300,11 +337,10 @@ public class BleDeviceDetailInfo implements Parcelable {
         int sum = 0;
         int count = 0;
 
-        synchronized (mRssiLog) {
-
-            for (final Long aLong : mRssiLog.keySet()) {
+        synchronized (mRssiLogReadings) {
+            for (int i = 0; i < mRssiLogSize; i++) {
                 count++;
-                sum += mRssiLog.get(aLong);
+                sum += mRssiLogReadings[(mRssiLogHead - 1 - i + MAX_RSSI_LOG_SIZE) % MAX_RSSI_LOG_SIZE];
             }
         }
 
@@ -322,7 +358,7 @@ public class BleDeviceDetailInfo implements Parcelable {
      * @return the scan record
      */
     public byte[] getScanRecord() {
-        return mScanRecord;
+        return mRecord.bytes;
     }
 
     /**
@@ -336,19 +372,15 @@ public class BleDeviceDetailInfo implements Parcelable {
 
     /* (non-Javadoc)
      * @see java.lang.Object#hashCode()
+     * 与equals一致，只使用不会改变的字段
      */
     @Override
     public int hashCode() {
         final int prime = 31;
         int result = 1;
-        result = prime * result + mCurrentRssi;
-        result = prime * result + (int) (mCurrentTimestamp ^ (mCurrentTimestamp >>> 32));
         result = prime * result + ((mDevice == null) ? 0 : mDevice.hashCode());
         result = prime * result + mFirstRssi;
         result = prime * result + (int) (mFirstTimestamp ^ (mFirstTimestamp >>> 32));
-        result = prime * result + ((mRecordStore == null) ? 0 : mRecordStore.hashCode());
-        result = prime * result + ((mRssiLog == null) ? 0 : mRssiLog.hashCode());
-        result = prime * result + Arrays.hashCode(mScanRecord);
         return result;
     }
 
@@ -357,9 +389,10 @@ public class BleDeviceDetailInfo implements Parcelable {
      */
     @Override
     public String toString() {
+        final AdvertisingRecord record = mRecord;
         return "BleDeviceDetailInfo [mDevice=" + mDevice + ", " +
-                "mRssi=" + mFirstRssi + ", mScanRecord=" + HexUtil.encodeHexStr(mScanRecord) +
-                ", mRecordStore=" + mRecordStore + ", getBluetoothDeviceBondState()=" +
+                "mRssi=" + mFirstRssi + ", mScanRecord=" + HexUtil.encodeHexStr(record.bytes) +
+                ", mRecordStore=" + record.store + ", getBluetoothDeviceBondState()=" +
                 getBluetoothDeviceBondState() + ", getBluetoothDeviceClassName()=" +
                 getBluetoothDeviceClassName() + "]";
     }
@@ -374,14 +407,30 @@ public class BleDeviceDetailInfo implements Parcelable {
         addToRssiLog(timestamp, rssiReading);
     }
 
+    /**
+     * Update the scan record, re-parsing it only when the bytes changed.
+     * The bytes and the parsed store are replaced together.
+     *
+     * @param scanRecord the new scan record
+     * @return whether the scan record changed
+     */
+    boolean updateScanRecord(final byte[] scanRecord) {
+        if (Arrays.equals(mRecord.bytes, scanRecord)) {
+            return false;
+        }
+        mRecord = new AdvertisingRecord(scanRecord);
+        return true;
+    }
+
     /* (non-Javadoc)
      * @see android.os.Parcelable#writeToParcel(android.os.Parcel, int)
      */
     @Override
     public void writeToParcel(final Parcel parcel, final int arg1) {
         final Bundle b = new Bundle(getClass().getClassLoader());
+        final AdvertisingRecord record = mRecord;
 
-        b.putByteArray(PARCEL_EXTRA_DEVICE_SCANRECORD, mScanRecord);
+        b.putByteArray(PARCEL_EXTRA_DEVICE_SCANRECORD, record.bytes);
 
         b.putInt(PARCEL_EXTRA_FIRST_RSSI, mFirstRssi);
         b.putInt(PARCEL_EXTRA_CURRENT_RSSI, mCurrentRssi);
@@ -390,8 +439,8 @@ public class BleDeviceDetailInfo implements Parcelable {
         b.putLong(PARCEL_EXTRA_CURRENT_TIMESTAMP, mCurrentTimestamp);
 
         b.putParcelable(PARCEL_EXTRA_BLUETOOTH_DEVICE, mDevice);
-        b.putParcelable(PARCEL_EXTRA_DEVICE_SCANRECORD_STORE, mRecordStore);
-        b.putSerializable(PARCEL_EXTRA_DEVICE_RSSI_LOG, (Serializable) mRssiLog);
+        b.putParcelable(PARCEL_EXTRA_DEVICE_SCANRECORD_STORE, record.store);
+        b.putSerializable(PARCEL_EXTRA_DEVICE_RSSI_LOG, (Serializable) getRssiLog());
 
         parcel.writeBundle(b);
     }
@@ -1,15 +1,17 @@
 package com.cmtech.android.ble.core;
 
+import android.bluetooth.BluetoothAdapter;
 import android.bluetooth.BluetoothDevice;
 import android.bluetooth.BluetoothGatt;
 import android.bluetooth.BluetoothGattCallback;
 import android.bluetooth.BluetoothGattCharacteristic;
 import android.bluetooth.BluetoothGattDescriptor;
 import android.content.Context;
+import android.os.Build;
 import android.os.Handler;
 import android.os.Looper;
 import android.os.Message;
-import android.util.Pair;
+import android.os.SystemClock;
 
 import com.cmtech.android.ble.BleConfig;
 import com.cmtech.android.ble.callback.IBleConnectCallback;
@@ -19,11 +21,16 @@ import com.cmtech.android.ble.exception.BleException;
 import com.cmtech.android.ble.exception.ConnectException;
 import com.cmtech.android.ble.exception.GattException;
 import com.cmtech.android.ble.exception.TimeoutException;
+import com.cmtech.android.ble.utils.BleLog;
+import com.cmtech.android.ble.utils.BleTrace;
 import com.cmtech.android.ble.utils.HexUtil;
-import com.vise.log.ViseLog;
 
 import java.lang.reflect.Method;
-import java.util.HashMap;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedList;
 import java.util.Map;
 import java.util.UUID;
 
@@ -42,27 +49,71 @@ import static android.bluetooth.BluetoothGatt.GATT_SUCCESS;
 
 public class BleGatt {
     private static final int MSG_CONNECT_TIMEOUT = 1; // 连接超时
-    private static final int MSG_WRITE_DATA_TIMEOUT = 2; // 写数据超时
-    private static final int MSG_READ_DATA_TIMEOUT = 3; // 读数据超时
+    private static final int MSG_REQUEST_MTU_TIMEOUT = 4; // 请求MTU超时
+    private static final int MSG_CHARACTERISTIC_READ = 5; // 特征值读响应，obj为特征值，arg1为状态
+    private static final int MSG_CHARACTERISTIC_WRITE = 6; // 特征值写响应，obj为特征值，arg1为状态
+    private static final int MSG_DESCRIPTOR_READ = 7; // 描述符读响应，obj为描述符，arg1为状态
+    private static final int MSG_DESCRIPTOR_WRITE = 8; // 描述符写响应，obj为描述符，arg1为状态
+    private static final int MSG_NO_RESPONSE_WRITE = 9; // 无响应写完成，obj为NoResponseWrite，arg1为状态
+    private static final int NO_RESPONSE_WRITE_POOL_SIZE = 16; // 无响应写操作对象池的大小
+    private static final int ATT_HEADER_SIZE = 3; // ATT写请求和通知的包头长度
+    private static final int PREPARE_WRITE_HEADER_SIZE = 5; // ATT准备写请求的包头长度
 
     private BluetoothGatt bluetoothGatt; //底层蓝牙GATT
     private IBleRssiCallback rssiCallback; //获取rssi信号值回调
     private IBleConnectCallback connectCallback;//连接回调
-    private volatile Pair<BleGattElement, IBleDataCallback> readElementCallback = null; // 读操作的Element和Callback对
-    private volatile Pair<BleGattElement, IBleDataCallback> writeElementCallback = null; // 写操作的Element和Callback对
-    private volatile Map<UUID, Pair<BleGattElement, IBleDataCallback>> notifyElementCallbackMap = new HashMap<>(); // Notify或Indicate操作的Element和Callback Map
+    private volatile int mtu = BleConfig.MIN_MTU; // 协商后的MTU
+    private volatile int txPhy = BluetoothDevice.PHY_LE_1M; // 当前发送PHY
+    private volatile int rxPhy = BluetoothDevice.PHY_LE_1M; // 当前接收PHY
+    private int requestedPhy = BluetoothDevice.PHY_LE_1M_MASK; // 本次连接请求的PHY掩码
+    private volatile long notifyCount = 0; // 累计收到的通知包数，只在binder线程中递增
+    // 等待响应的读操作和写操作的Element和Callback，由本对象的锁保护
+    private BleGattElement readElement = null;
+    private IBleDataCallback readCallback = null;
+    private BleGattElement writeElement = null;
+    private IBleDataCallback writeCallback = null;
+    // Notify或Indicate的分发表，以特征值实例为键。enable时整表复制后替换，binder线程中直接查表，无需加锁和遍历
+    private volatile Map<BluetoothGattCharacteristic, NotifyEntry> notifyDispatchTable = new IdentityHashMap<>();
+    private volatile ReliableWrite reliableWrite = null; // 正在进行的可靠写事务
+    private final LinkedList<NoResponseWrite> noResponseWrites = new LinkedList<>(); // 在途的无响应写操作队列，队首为已交给协议栈的写操作
+    private final ArrayDeque<NoResponseWrite> noResponseWritePool = new ArrayDeque<>(); // 回收的无响应写操作，由本对象的锁保护
+    // 读响应和写响应到达binder线程的时间，用于统计命令时延。读和写各只有一个操作在等待响应
+    private volatile long readResponseTime = 0;
+    private volatile long writeResponseTime = 0;
+    private long dispatchingResponseTime = 0; // 回调线程中正在分发的响应到达的时间，不在分发响应时为0。只在回调线程中访问
 
     // 回调Handler，除了onCharacteristicChanged回调在其本身的线程中执行外，其他所有回调处理都在此Handler中执行
-    private final Handler callbackHandler = new Handler(Looper.getMainLooper()) {
+    // 绑定在共享的回调线程上，不再受主线程UI帧的影响
+    private final Handler callbackHandler = new Handler(BleCallbackThread.getLooper()) {
         @Override
         public void handleMessage(Message msg) {
             if (msg.what == MSG_CONNECT_TIMEOUT) {
                 connectFailure(new TimeoutException());
-            } else if (msg.what == MSG_WRITE_DATA_TIMEOUT) {
-                writeFailure(new TimeoutException());
-            } else if (msg.what == MSG_READ_DATA_TIMEOUT) {
-                readFailure(new TimeoutException());
+            } else if (msg.what == MSG_REQUEST_MTU_TIMEOUT) {
+                BleLog.e("Request MTU timeout, use the default MTU.");
+                connectSuccess();
+            } else if (msg.what == MSG_CHARACTERISTIC_READ) {
+                BluetoothGattCharacteristic characteristic = (BluetoothGattCharacteristic) msg.obj;
+                dispatchingResponseTime = readResponseTime;
+                onReadResponse(characteristic.getUuid(), characteristic.getValue(), msg.arg1, false);
+            } else if (msg.what == MSG_CHARACTERISTIC_WRITE) {
+                BluetoothGattCharacteristic characteristic = (BluetoothGattCharacteristic) msg.obj;
+                dispatchingResponseTime = writeResponseTime;
+                onWriteResponse(characteristic.getUuid(), characteristic.getValue(), msg.arg1, false);
+            } else if (msg.what == MSG_DESCRIPTOR_READ) {
+                BluetoothGattDescriptor descriptor = (BluetoothGattDescriptor) msg.obj;
+                dispatchingResponseTime = readResponseTime;
+                onReadResponse(descriptor.getUuid(), descriptor.getValue(), msg.arg1, true);
+            } else if (msg.what == MSG_DESCRIPTOR_WRITE) {
+                BluetoothGattDescriptor descriptor = (BluetoothGattDescriptor) msg.obj;
+                dispatchingResponseTime = writeResponseTime;
+                onWriteResponse(descriptor.getUuid(), descriptor.getValue(), msg.arg1, true);
+            } else if (msg.what == MSG_NO_RESPONSE_WRITE) {
+                NoResponseWrite write = (NoResponseWrite) msg.obj;
+                dispatchingResponseTime = write.responseTime;
+                onNoResponseWriteComplete(write, msg.arg1);
             }
+            dispatchingResponseTime = 0;
         }
     };
 
@@ -78,8 +129,7 @@ public class BleGatt {
          */
         @Override
         public void onConnectionStateChange(final BluetoothGatt gatt, final int status, final int newState) {
-            ViseLog.i("onConnectionStateChange  status: " + status + " ,newState: " + newState +
-                    "  ,thread: " + Thread.currentThread());
+            BleLog.i("onConnectionStateChange  status: " + status + " ,newState: " + newState);
             callbackHandler.post(new Runnable() {
                 @Override
                 public void run() {
@@ -116,20 +166,18 @@ public class BleGatt {
          */
         @Override
         public void onServicesDiscovered(final BluetoothGatt gatt, final int status) {
-            ViseLog.i("onServicesDiscovered  status: " + status + "  ,thread: " + Thread.currentThread());
+            BleLog.i("onServicesDiscovered  status: " + status);
             callbackHandler.post(new Runnable() {
                 @Override
                 public void run() {
-                    callbackHandler.removeMessages(MSG_CONNECT_TIMEOUT);
                     bluetoothGatt = gatt;
 
                     if (status == GATT_SUCCESS) {
-                        ViseLog.i("onServicesDiscovered connectSuccess.");
+                        BleLog.i("onServicesDiscovered success.");
 
-                        if (connectCallback != null) {
-                            connectCallback.onConnectSuccess(BleGatt.this);
-                        }
+                        requestMtu(BleConfig.getInstance().getMtu());
                     } else {
+                        callbackHandler.removeMessages(MSG_CONNECT_TIMEOUT);
                         connectFailure(new ConnectException(gatt, status));
                     }
                 }
@@ -137,55 +185,111 @@ public class BleGatt {
         }
 
         /**
-         * 读取特征值，主要用来读取该特征值包含的可读信息
+         * MTU改变，MTU协商完成后才认为连接成功
          * @param gatt GATT
-         * @param characteristic 特征值
+         * @param mtu 协商后的MTU
          * @param status 操作状态，成功还是失败
          */
         @Override
-        public void onCharacteristicRead(BluetoothGatt gatt, final BluetoothGattCharacteristic characteristic, final int status) {
-            ViseLog.i("onCharacteristicRead  status: " + status + ", data:" + HexUtil.encodeHexStr(characteristic.getValue()) +
-                    "  ,thread: " + Thread.currentThread());
+        public void onMtuChanged(BluetoothGatt gatt, final int mtu, final int status) {
+            BleLog.i("onMtuChanged  status: " + status + ", mtu: " + mtu);
             callbackHandler.post(new Runnable() {
                 @Override
                 public void run() {
-                    callbackHandler.removeMessages(MSG_READ_DATA_TIMEOUT);
-
                     if (status == GATT_SUCCESS) {
-                        if (readElementCallback.second != null && readElementCallback.first.getCharacteristicUUID().equals(characteristic.getUuid()))
-                            readElementCallback.second.onSuccess(characteristic.getValue(), readElementCallback.first);
-                    } else {
-                        readFailure(new GattException(status));
+                        BleGatt.this.mtu = mtu;
+                    }
+                    // 只有连接过程中的MTU请求才触发连接成功，对端主动发起的MTU交换只更新MTU
+                    if (callbackHandler.hasMessages(MSG_REQUEST_MTU_TIMEOUT)) {
+                        connectSuccess();
                     }
                 }
             });
         }
 
         /**
-         * 写入特征值，主要用来发送数据到设备
+         * PHY更新，协商失败时回退到1M
          * @param gatt GATT
-         * @param characteristic 特征值
+         * @param txPhy 发送PHY
+         * @param rxPhy 接收PHY
          * @param status 操作状态，成功还是失败
          */
         @Override
-        public void onCharacteristicWrite(BluetoothGatt gatt, final BluetoothGattCharacteristic characteristic, final int status) {
-            ViseLog.i("onCharacteristicWrite  status: " + status + ", data:" + HexUtil.encodeHexStr(characteristic.getValue()) +
-                    "  ,thread: " + Thread.currentThread());
-
+        public void onPhyUpdate(BluetoothGatt gatt, final int txPhy, final int rxPhy, final int status) {
+            BleLog.i("onPhyUpdate  status: " + status + ", txPhy: " + txPhy + ", rxPhy: " + rxPhy);
             callbackHandler.post(new Runnable() {
                 @Override
                 public void run() {
-                    callbackHandler.removeMessages(MSG_WRITE_DATA_TIMEOUT);
                     if (status == GATT_SUCCESS) {
-                        if (writeElementCallback.second != null && writeElementCallback.first.getCharacteristicUUID().equals(characteristic.getUuid()))
-                            writeElementCallback.second.onSuccess(characteristic.getValue(), writeElementCallback.first);
-                    } else {
-                        writeFailure(new GattException(status));
+                        BleGatt.this.txPhy = txPhy;
+                        BleGatt.this.rxPhy = rxPhy;
+                    } else if (requestedPhy != BluetoothDevice.PHY_LE_1M_MASK) {
+                        BleLog.e("PHY update failed, fall back to 1M.");
+                        setPreferredPhy(BluetoothDevice.PHY_LE_1M_MASK);
                     }
                 }
             });
         }
 
+        /**
+         * 读取PHY
+         * @param gatt GATT
+         * @param txPhy 发送PHY
+         * @param rxPhy 接收PHY
+         * @param status 操作状态，成功还是失败
+         */
+        @Override
+        public void onPhyRead(BluetoothGatt gatt, final int txPhy, final int rxPhy, final int status) {
+            BleLog.i("onPhyRead  status: " + status + ", txPhy: " + txPhy + ", rxPhy: " + rxPhy);
+            if (status == GATT_SUCCESS) {
+                BleGatt.this.txPhy = txPhy;
+                BleGatt.this.rxPhy = rxPhy;
+            }
+        }
+
+        /**
+         * 读取特征值，主要用来读取该特征值包含的可读信息
+         * @param gatt GATT
+         * @param characteristic 特征值
+         * @param status 操作状态，成功还是失败
+         */
+        @Override
+        public void onCharacteristicRead(BluetoothGatt gatt, final BluetoothGattCharacteristic characteristic, final int status) {
+            readResponseTime = SystemClock.elapsedRealtime();
+            BleTrace.record(BleTrace.EVENT_READ, status, characteristic.getValue());
+            if (BleLog.isLoggable(BleLog.DEBUG)) {
+                BleLog.d("onCharacteristicRead  status: " + status + ", data:" + HexUtil.encodeHexStr(characteristic.getValue()));
+            }
+            // 用Message池中的消息转交回调线程，不为每个响应创建对象
+            callbackHandler.sendMessage(callbackHandler.obtainMessage(MSG_CHARACTERISTIC_READ, status, 0, characteristic));
+        }
+
+        /**
+         * 写入特征值，主要用来发送数据到设备
+         * @param gatt GATT
+         * @param characteristic 特征值
+         * @param status 操作状态，成功还是失败
+         */
+        @Override
+        public void onCharacteristicWrite(BluetoothGatt gatt, final BluetoothGattCharacteristic characteristic, final int status) {
+            long now = SystemClock.elapsedRealtime();
+            BleTrace.record(BleTrace.EVENT_WRITE, status, characteristic.getValue());
+            if (BleLog.isLoggable(BleLog.DEBUG)) {
+                BleLog.d("onCharacteristicWrite  status: " + status + ", data:" + HexUtil.encodeHexStr(characteristic.getValue()));
+            }
+
+            // 无响应写在本线程中直接发出下一个写操作，不经过callbackHandler中转
+            final NoResponseWrite finished = completeNoResponseWrite(characteristic);
+            if(finished != null) {
+                finished.responseTime = now;
+                callbackHandler.sendMessage(callbackHandler.obtainMessage(MSG_NO_RESPONSE_WRITE, status, 0, finished));
+                return;
+            }
+
+            writeResponseTime = now;
+            callbackHandler.sendMessage(callbackHandler.obtainMessage(MSG_CHARACTERISTIC_WRITE, status, 0, characteristic));
+        }
+
         /**
          * 特征值改变，主要用来接收设备返回的数据信息
          * @param gatt GATT
@@ -193,15 +297,14 @@ public class BleGatt {
          */
         @Override
         public void onCharacteristicChanged(BluetoothGatt gatt, final BluetoothGattCharacteristic characteristic) {
-            ViseLog.i("onCharacteristicChanged data:" + HexUtil.encodeHexStr(characteristic.getValue()) +
-                    "  ,thread: " + Thread.currentThread());
-            for (Map.Entry<UUID, Pair<BleGattElement, IBleDataCallback>> notifyEntry : notifyElementCallbackMap.entrySet()) {
-                UUID notifyKey = notifyEntry.getKey();
-                Pair<BleGattElement, IBleDataCallback> notifyValue = notifyEntry.getValue();
-                if (notifyValue != null && notifyValue.second != null && notifyKey.equals(characteristic.getUuid())) {
-                    notifyValue.second.onSuccess(characteristic.getValue(), notifyValue.first);
-                    break;
-                }
+            BleTrace.record(BleTrace.EVENT_NOTIFY, GATT_SUCCESS, characteristic.getValue());
+            if (BleLog.isLoggable(BleLog.VERBOSE)) {
+                BleLog.v("onCharacteristicChanged data:" + HexUtil.encodeHexStr(characteristic.getValue()));
+            }
+            notifyCount++;
+            NotifyEntry notifyEntry = notifyDispatchTable.get(characteristic);
+            if (notifyEntry != null) {
+                notifyEntry.receiveCallback.onSuccess(characteristic.getValue(), notifyEntry.element);
             }
         }
 
@@ -213,21 +316,12 @@ public class BleGatt {
          */
         @Override
         public void onDescriptorRead(BluetoothGatt gatt, final BluetoothGattDescriptor descriptor, final int status) {
-            ViseLog.i("onDescriptorRead  status: " + status + ", data:" + HexUtil.encodeHexStr(descriptor.getValue()) +
-                    "  ,thread: " + Thread.currentThread());
-            callbackHandler.post(new Runnable() {
-                @Override
-                public void run() {
-                    callbackHandler.removeMessages(MSG_READ_DATA_TIMEOUT);
-
-                    if (status == GATT_SUCCESS) {
-                        if (readElementCallback.second != null && readElementCallback.first.getDescriptorUUID().equals(descriptor.getUuid()))
-                            readElementCallback.second.onSuccess(descriptor.getValue(), readElementCallback.first);
-                    } else {
-                        readFailure(new GattException(status));
-                    }
-                }
-            });
+            readResponseTime = SystemClock.elapsedRealtime();
+            BleTrace.record(BleTrace.EVENT_DESCRIPTOR_READ, status, descriptor.getValue());
+            if (BleLog.isLoggable(BleLog.DEBUG)) {
+                BleLog.d("onDescriptorRead  status: " + status + ", data:" + HexUtil.encodeHexStr(descriptor.getValue()));
+            }
+            callbackHandler.sendMessage(callbackHandler.obtainMessage(MSG_DESCRIPTOR_READ, status, 0, descriptor));
         }
 
         /**
@@ -238,19 +332,38 @@ public class BleGatt {
          */
         @Override
         public void onDescriptorWrite(BluetoothGatt gatt, final BluetoothGattDescriptor descriptor, final int status) {
-            ViseLog.i("onDescriptorWrite  status: " + status + ", data:" + HexUtil.encodeHexStr(descriptor.getValue()) +
-                    "  ,thread: " + Thread.currentThread());
+            writeResponseTime = SystemClock.elapsedRealtime();
+            BleTrace.record(BleTrace.EVENT_DESCRIPTOR_WRITE, status, descriptor.getValue());
+            if (BleLog.isLoggable(BleLog.DEBUG)) {
+                BleLog.d("onDescriptorWrite  status: " + status + ", data:" + HexUtil.encodeHexStr(descriptor.getValue()));
+            }
+            callbackHandler.sendMessage(callbackHandler.obtainMessage(MSG_DESCRIPTOR_WRITE, status, 0, descriptor));
+        }
+
+        /**
+         * 可靠写事务执行完毕
+         * @param gatt GATT
+         * @param status 操作状态，成功还是失败
+         */
+        @Override
+        public void onReliableWriteCompleted(BluetoothGatt gatt, final int status) {
+            BleLog.i("onReliableWriteCompleted  status: " + status);
+            final long responseTime = SystemClock.elapsedRealtime();
             callbackHandler.post(new Runnable() {
                 @Override
                 public void run() {
-                    callbackHandler.removeMessages(MSG_WRITE_DATA_TIMEOUT);
-
+                    ReliableWrite transaction = reliableWrite;
+                    if (transaction == null) {
+                        return;
+                    }
+                    reliableWrite = null;
+                    dispatchingResponseTime = responseTime;
                     if (status == GATT_SUCCESS) {
-                        if (writeElementCallback.second != null && writeElementCallback.first.getDescriptorUUID().equals(descriptor.getUuid()))
-                            writeElementCallback.second.onSuccess(descriptor.getValue(), writeElementCallback.first);
+                        transaction.dataCallback.onSuccess(transaction.data, transaction.element);
                     } else {
-                        writeFailure(new GattException(status));
+                        transaction.dataCallback.onFailure(new GattException(status));
                     }
+                    dispatchingResponseTime = 0;
                 }
             });
         }
@@ -263,8 +376,9 @@ public class BleGatt {
          */
         @Override
         public void onReadRemoteRssi(BluetoothGatt gatt, final int rssi, final int status) {
-            ViseLog.i("onReadRemoteRssi  status: " + status + ", rssi:" + rssi +
-                    "  ,thread: " + Thread.currentThread());
+            if (BleLog.isLoggable(BleLog.DEBUG)) {
+                BleLog.d("onReadRemoteRssi  status: " + status + ", rssi:" + rssi);
+            }
             callbackHandler.post(new Runnable() {
                 @Override
                 public void run() {
@@ -302,7 +416,45 @@ public class BleGatt {
         this.connectCallback = connectCallback;
         callbackHandler.removeMessages(MSG_CONNECT_TIMEOUT);
         callbackHandler.sendEmptyMessageDelayed(MSG_CONNECT_TIMEOUT, BleConfig.getInstance().getConnectTimeout());
-        device.connectGatt(context, false, coreGattCallback, BluetoothDevice.TRANSPORT_LE);
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
+            requestedPhy = getSupportedPhy(BleConfig.getInstance().getPreferredPhy());
+            device.connectGatt(context, false, coreGattCallback, BluetoothDevice.TRANSPORT_LE, requestedPhy);
+        } else {
+            requestedPhy = BluetoothDevice.PHY_LE_1M_MASK;
+            device.connectGatt(context, false, coreGattCallback, BluetoothDevice.TRANSPORT_LE);
+        }
+    }
+
+    /**
+     * 获取手机支持的PHY掩码
+     *
+     * @param phyMask 期望的PHY掩码
+     * @return 期望的PHY掩码中手机支持的部分，至少包含1M
+     */
+    private static int getSupportedPhy(int phyMask) {
+        int supported = BluetoothDevice.PHY_LE_1M_MASK;
+        BluetoothAdapter adapter = BluetoothAdapter.getDefaultAdapter();
+        if (adapter != null && Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
+            if (adapter.isLe2MPhySupported()) {
+                supported |= BluetoothDevice.PHY_LE_2M_MASK;
+            }
+            if (adapter.isLeCodedPhySupported()) {
+                supported |= BluetoothDevice.PHY_LE_CODED_MASK;
+            }
+        }
+        return (phyMask & supported) | BluetoothDevice.PHY_LE_1M_MASK;
+    }
+
+    /**
+     * 设置期望的PHY，结果在onPhyUpdate中返回
+     *
+     * @param phyMask PHY掩码
+     */
+    private void setPreferredPhy(int phyMask) {
+        requestedPhy = phyMask;
+        if (bluetoothGatt != null && Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
+            bluetoothGatt.setPreferredPhy(phyMask, phyMask, BleConfig.getInstance().getPhyOptions());
+        }
     }
 
     /**
@@ -313,9 +465,6 @@ public class BleGatt {
             return false;
         }
 
-        callbackHandler.removeMessages(MSG_READ_DATA_TIMEOUT);
-        callbackHandler.sendEmptyMessageDelayed(MSG_READ_DATA_TIMEOUT, BleConfig.getInstance().getDataOperateTimeout());
-
         boolean success = false;
         BluetoothGattCharacteristic characteristic = gattElement.getCharacteristic(bluetoothGatt);
         BluetoothGattDescriptor descriptor = gattElement.getDescriptor(bluetoothGatt);
@@ -327,8 +476,10 @@ public class BleGatt {
             }
         }
 
-        if (success)
-            readElementCallback = Pair.create(gattElement, dataCallback);
+        if (success) {
+            readElement = gattElement;
+            readCallback = dataCallback;
+        }
 
         return success;
     }
@@ -339,17 +490,14 @@ public class BleGatt {
      * @param data written data
      */
     public synchronized boolean writeData(BleGattElement gattElement, IBleDataCallback dataCallback, byte[] data) {
-        if (data == null || data.length > 20) {
-            ViseLog.e("The data is null or length beyond 20 byte.");
+        if (data == null || data.length > getMaxPayloadSize()) {
+            BleLog.e("The data is null or length beyond " + getMaxPayloadSize() + " byte.");
             return false;
         }
         if (bluetoothGatt == null || dataCallback == null || gattElement == null) {
             return false;
         }
 
-        callbackHandler.removeMessages(MSG_WRITE_DATA_TIMEOUT);
-        //callbackHandler.sendEmptyMessageDelayed(MSG_WRITE_DATA_TIMEOUT, BleConfig.getInstance().getDataOperateTimeout());
-
         boolean success = false;
         BluetoothGattCharacteristic characteristic = gattElement.getCharacteristic(bluetoothGatt);
         BluetoothGattDescriptor descriptor = gattElement.getDescriptor(bluetoothGatt);
@@ -359,17 +507,176 @@ public class BleGatt {
                 success = bluetoothGatt.writeDescriptor(descriptor);
             } else {
                 characteristic.setValue(data);
-                //characteristic.setWriteType(BluetoothGattCharacteristic.WRITE_TYPE_DEFAULT);
+                characteristic.setWriteType(BluetoothGattCharacteristic.WRITE_TYPE_DEFAULT);
                 success = bluetoothGatt.writeCharacteristic(characteristic);
             }
         }
 
-        if (success)
-            writeElementCallback = Pair.create(gattElement, dataCallback);
+        if (success) {
+            writeElement = gattElement;
+            writeCallback = dataCallback;
+        }
+
+        return success;
+    }
+
+    /**
+     * 无响应写入数据。写操作先进入在途队列，协议栈空闲时立即发出，否则在上一个写操作的onCharacteristicWrite中发出
+     *
+     * @param data written data
+     */
+    public synchronized boolean writeDataNoResponse(BleGattElement gattElement, IBleDataCallback dataCallback, byte[] data) {
+        if (data == null || data.length > getMaxPayloadSize()) {
+            BleLog.e("The data is null or length beyond " + getMaxPayloadSize() + " byte.");
+            return false;
+        }
+        if (bluetoothGatt == null || dataCallback == null || gattElement == null) {
+            return false;
+        }
+        if (gattElement.getCharacteristic(bluetoothGatt) == null || gattElement.getDescriptorUUID() != null) {
+            return false;
+        }
+
+        NoResponseWrite write = noResponseWritePool.poll();
+        if (write == null) {
+            write = new NoResponseWrite();
+        }
+        write.set(gattElement, dataCallback, data);
+        noResponseWrites.add(write);
+        if (noResponseWrites.size() == 1 && !issueNoResponseWrite(write)) {
+            noResponseWrites.remove(write);
+            recycleNoResponseWrite(write);
+            return false;
+        }
+        return true;
+    }
+
+    // 回收无响应写操作对象
+    private synchronized void recycleNoResponseWrite(NoResponseWrite write) {
+        write.set(null, null, null);
+        if (noResponseWritePool.size() < NO_RESPONSE_WRITE_POOL_SIZE) {
+            noResponseWritePool.push(write);
+        }
+    }
+
+    /**
+     * 正在回调线程中分发的响应到达binder线程的时间，用于统计命令时延。
+     * 只在响应的回调中返回有效值，其他时候和其他线程中返回0
+     */
+    long getDispatchingResponseTime() {
+        if (Looper.myLooper() != BleCallbackThread.getLooper()) {
+            return 0;
+        }
+        return dispatchingResponseTime;
+    }
+
+    // 无响应写操作完成，回调后回收
+    private void onNoResponseWriteComplete(NoResponseWrite write, int status) {
+        IBleDataCallback dataCallback = write.dataCallback;
+        byte[] data = write.data;
+        BleGattElement element = write.element;
+        recycleNoResponseWrite(write);
+        if (dataCallback == null) return;
+        if (status == GATT_SUCCESS) {
+            dataCallback.onSuccess(data, element);
+        } else {
+            dataCallback.onFailure(new GattException(status));
+        }
+    }
+
+    // 将无响应写操作交给协议栈
+    private boolean issueNoResponseWrite(NoResponseWrite write) {
+        if (bluetoothGatt == null) {
+            return false;
+        }
+        BluetoothGattCharacteristic characteristic = write.element.getCharacteristic(bluetoothGatt);
+        if (characteristic == null) {
+            return false;
+        }
+        characteristic.setValue(write.data);
+        characteristic.setWriteType(BluetoothGattCharacteristic.WRITE_TYPE_NO_RESPONSE);
+        boolean success = bluetoothGatt.writeCharacteristic(characteristic);
+        characteristic.setWriteType(BluetoothGattCharacteristic.WRITE_TYPE_DEFAULT);
+        return success;
+    }
+
+    // 完成队首的无响应写操作，并发出下一个。如果该写响应不属于无响应写，返回null
+    private synchronized NoResponseWrite completeNoResponseWrite(BluetoothGattCharacteristic characteristic) {
+        NoResponseWrite head = noResponseWrites.peek();
+        if (head == null || !head.element.getCharacteristicUUID().equals(characteristic.getUuid())) {
+            return null;
+        }
+        noResponseWrites.poll();
+
+        NoResponseWrite next;
+        while ((next = noResponseWrites.peek()) != null && !issueNoResponseWrite(next)) {
+            noResponseWrites.poll();
+            callbackHandler.sendMessage(callbackHandler.obtainMessage(MSG_NO_RESPONSE_WRITE, BluetoothGatt.GATT_FAILURE, 0, next));
+        }
+        return head;
+    }
+
+    /**
+     * 长读数据。协议栈在readCharacteristic()中已经用Read Blob读完整个值（最长512字节），
+     * 因此只发出一次读操作，完整的值只回调一次
+     */
+    public boolean readLongData(BleGattElement gattElement, IBleDataCallback dataCallback) {
+        return readData(gattElement, dataCallback);
+    }
+
+    /**
+     * 可靠写数据。在一个可靠写事务中将数据分段写入，校验每段的回显后执行事务，只回调一次
+     *
+     * @param data written data
+     */
+    public synchronized boolean reliableWriteData(BleGattElement gattElement, IBleDataCallback dataCallback, byte[] data) {
+        if (data == null || data.length == 0) {
+            BleLog.e("The data is null or empty.");
+            return false;
+        }
+        if (bluetoothGatt == null || dataCallback == null || gattElement == null || reliableWrite != null) {
+            return false;
+        }
+        if (gattElement.getCharacteristic(bluetoothGatt) == null || gattElement.getDescriptorUUID() != null) {
+            return false;
+        }
+        if (!bluetoothGatt.beginReliableWrite()) {
+            return false;
+        }
+
+        ReliableWrite transaction = new ReliableWrite(gattElement, dataCallback, data, mtu - PREPARE_WRITE_HEADER_SIZE);
+        reliableWrite = transaction;
+        if (!writeReliableSegment(transaction)) {
+            abortReliableWrite();
+            return false;
+        }
+        return true;
+    }
 
+    // 写可靠写事务的下一段
+    private boolean writeReliableSegment(ReliableWrite transaction) {
+        BluetoothGattCharacteristic characteristic = transaction.element.getCharacteristic(bluetoothGatt);
+        if (characteristic == null) {
+            return false;
+        }
+        characteristic.setValue(transaction.nextSegment());
+        characteristic.setWriteType(BluetoothGattCharacteristic.WRITE_TYPE_DEFAULT);
+        boolean success = bluetoothGatt.writeCharacteristic(characteristic);
+        if (success) {
+            writeElement = transaction.element;
+            writeCallback = transaction;
+        }
         return success;
     }
 
+    // 放弃可靠写事务
+    private void abortReliableWrite() {
+        reliableWrite = null;
+        if (bluetoothGatt != null) {
+            bluetoothGatt.abortReliableWrite();
+        }
+    }
+
     /**
      * 设置使能
      *
@@ -382,10 +689,6 @@ public class BleGatt {
             return false;
         }
 
-        callbackHandler.removeMessages(MSG_WRITE_DATA_TIMEOUT);
-        //callbackHandler.sendEmptyMessageDelayed(MSG_WRITE_DATA_TIMEOUT, BleConfig.getInstance().getDataOperateTimeout());
-
-
         BluetoothGattCharacteristic characteristic = gattElement.getCharacteristic(bluetoothGatt);
         BluetoothGattDescriptor descriptor = gattElement.getDescriptor(bluetoothGatt);
         if (characteristic == null || descriptor == null) {
@@ -410,18 +713,79 @@ public class BleGatt {
         }
 
         if (success) {
-            writeElementCallback = Pair.create(gattElement, dataCallback);
+            writeElement = gattElement;
+            writeCallback = dataCallback;
 
-            if (enable) {
-                notifyElementCallbackMap.put(gattElement.getCharacteristicUUID(), Pair.create(gattElement, receiveCallback));
+            // 先启动新表项再停止旧表项。用同一个环形缓冲区重新使能时，缓冲区按启动次数计数，消费线程不会被停止
+            Map<BluetoothGattCharacteristic, NotifyEntry> table = new IdentityHashMap<>(notifyDispatchTable);
+            NotifyEntry old;
+            if (enable && receiveCallback != null) {
+                NotifyEntry entry = new NotifyEntry(gattElement, receiveCallback);
+                entry.start();
+                old = table.put(characteristic, entry);
             } else {
-                notifyElementCallbackMap.remove(gattElement.getCharacteristicUUID());
+                old = table.remove(characteristic);
+            }
+            notifyDispatchTable = table;
+            if (old != null) {
+                old.stop();
             }
         }
 
         return success;
     }
 
+    /**
+     * 放弃等待中的操作，之后到达的响应被忽略。由命令超时时调用
+     *
+     * @param cmdType      操作类型
+     * @param dataCallback 操作的回调
+     */
+    synchronized void cancelOperation(BleGattCmdType cmdType, IBleDataCallback dataCallback) {
+        switch (cmdType) {
+            case GATT_CMD_READ:
+            case GATT_CMD_READ_LONG:
+                readElement = null;
+                readCallback = null;
+                break;
+            case GATT_CMD_WRITE:
+            case GATT_CMD_NOTIFY:
+            case GATT_CMD_INDICATE:
+                writeElement = null;
+                writeCallback = null;
+                break;
+            case GATT_CMD_RELIABLE_WRITE:
+                writeElement = null;
+                writeCallback = null;
+                if (reliableWrite != null) {
+                    abortReliableWrite();
+                }
+                break;
+            case GATT_CMD_WRITE_NO_RESPONSE:
+                // 移除该写操作，如果它在队首，说明协议栈一直没有确认，发出下一个
+                Iterator<NoResponseWrite> iterator = noResponseWrites.iterator();
+                boolean head = true;
+                while (iterator.hasNext()) {
+                    NoResponseWrite write = iterator.next();
+                    if (write.dataCallback == dataCallback) {
+                        iterator.remove();
+                        recycleNoResponseWrite(write);
+                        if (head) {
+                            NoResponseWrite next = noResponseWrites.peek();
+                            if (next != null && !issueNoResponseWrite(next)) {
+                                BleLog.e("Issue the next no-response write failure.");
+                            }
+                        }
+                        break;
+                    }
+                    head = false;
+                }
+                break;
+            default:
+                break;
+        }
+    }
+
     /**
      * 获取设备信号值
      *
@@ -434,6 +798,61 @@ public class BleGatt {
         }
     }
 
+    /**
+     * 获取单包最大数据长度
+     *
+     * @return 单包最大数据长度
+     */
+    public int getMaxPayloadSize() {
+        return mtu - ATT_HEADER_SIZE;
+    }
+
+    /**
+     * 获取累计收到的通知包数
+     *
+     * @return 通知包数
+     */
+    public long getNotifyCount() {
+        return notifyCount;
+    }
+
+    /**
+     * 请求连接优先级
+     *
+     * @param connectionPriority BluetoothGatt.CONNECTION_PRIORITY_*
+     * @return 请求是否发出
+     */
+    public synchronized boolean requestConnectionPriority(int connectionPriority) {
+        return bluetoothGatt != null && bluetoothGatt.requestConnectionPriority(connectionPriority);
+    }
+
+    /**
+     * 获取当前发送PHY
+     *
+     * @return BluetoothDevice.PHY_LE_*
+     */
+    public int getTxPhy() {
+        return txPhy;
+    }
+
+    /**
+     * 获取当前接收PHY
+     *
+     * @return BluetoothDevice.PHY_LE_*
+     */
+    public int getRxPhy() {
+        return rxPhy;
+    }
+
+    /**
+     * 获取协商后的MTU
+     *
+     * @return MTU
+     */
+    public int getMtu() {
+        return mtu;
+    }
+
     /**
      * 获取蓝牙GATT
      *
@@ -449,7 +868,7 @@ public class BleGatt {
     synchronized void disconnect() {
         callbackHandler.removeCallbacksAndMessages(null);
         if (bluetoothGatt != null) {
-            ViseLog.e("BluetoothGatt is disconnected");
+            BleLog.e("BluetoothGatt is disconnected");
 
             bluetoothGatt.disconnect();
         }
@@ -465,11 +884,11 @@ public class BleGatt {
             final Method refresh = BluetoothGatt.class.getMethod("refresh");
             if (bluetoothGatt != null) {
                 final boolean success = (Boolean) refresh.invoke(bluetoothGatt);
-                ViseLog.i("Refreshing result: " + success);
+                BleLog.i("Refreshing result: " + success);
                 return success;
             }
         } catch (Exception e) {
-            ViseLog.e("An exception occured while refreshing device" + e);
+            BleLog.e("An exception occured while refreshing device" + e);
         }
         return false;
     }
@@ -479,7 +898,7 @@ public class BleGatt {
      */
     private void close() {
         if (bluetoothGatt != null) {
-            ViseLog.e("BluetoothGatt is closed");
+            BleLog.e("BluetoothGatt is closed");
             bluetoothGatt.close();
             bluetoothGatt = null;
         }
@@ -489,14 +908,24 @@ public class BleGatt {
      * 清除设备资源，在不使用该设备时调用
      */
     public synchronized void clear() {
-        ViseLog.i("BleGatt clear.");
+        BleLog.i("BleGatt clear.");
         disconnect();
         refreshDeviceCache();
         close();
 
-        readElementCallback = null;
-        writeElementCallback = null;
-        notifyElementCallbackMap.clear();
+        readElement = null;
+        readCallback = null;
+        writeElement = null;
+        writeCallback = null;
+        reliableWrite = null;
+        mtu = BleConfig.MIN_MTU;
+        txPhy = BluetoothDevice.PHY_LE_1M;
+        rxPhy = BluetoothDevice.PHY_LE_1M;
+        for (NotifyEntry entry : notifyDispatchTable.values()) {
+            entry.stop();
+        }
+        notifyDispatchTable = new IdentityHashMap<>();
+        noResponseWrites.clear();
 
         callbackHandler.removeCallbacksAndMessages(null);
     }
@@ -508,6 +937,38 @@ public class BleGatt {
                 '}';
     }
 
+    /**
+     * 请求MTU。请求发不出去时直接使用缺省MTU
+     *
+     * @param mtu 请求的MTU
+     */
+    private void requestMtu(int mtu) {
+        this.mtu = BleConfig.MIN_MTU;
+        if (mtu > BleConfig.MIN_MTU && bluetoothGatt != null && bluetoothGatt.requestMtu(mtu)) {
+            callbackHandler.sendEmptyMessageDelayed(MSG_REQUEST_MTU_TIMEOUT, BleConfig.getInstance().getDataOperateTimeout());
+        } else {
+            connectSuccess();
+        }
+    }
+
+    /**
+     * 连接成功处理
+     */
+    private void connectSuccess() {
+        callbackHandler.removeMessages(MSG_REQUEST_MTU_TIMEOUT);
+        callbackHandler.removeMessages(MSG_CONNECT_TIMEOUT);
+        BleLog.i("connectSuccess with MTU: " + mtu);
+
+        // 部分手机在连接时不会按请求的PHY建立连接，连接后再协商一次
+        if (requestedPhy != BluetoothDevice.PHY_LE_1M_MASK) {
+            setPreferredPhy(requestedPhy);
+        }
+
+        if (connectCallback != null) {
+            connectCallback.onConnectSuccess(BleGatt.this);
+        }
+    }
+
     /**
      * 连接失败处理
      *
@@ -518,7 +979,7 @@ public class BleGatt {
         if (connectCallback != null) {
             connectCallback.onConnectFailure(bleException);
         }
-        ViseLog.i("connectFailure " + bleException);
+        BleLog.i("connectFailure " + bleException);
     }
 
     /**
@@ -527,10 +988,15 @@ public class BleGatt {
      * @param bleException exception
      */
     private void readFailure(BleException bleException) {
-        //callbackHandler.removeMessages(MSG_READ_DATA_TIMEOUT);
-        if (readElementCallback != null && readElementCallback.second != null)
-            readElementCallback.second.onFailure(bleException);
-        ViseLog.i("readFailure " + bleException);
+        IBleDataCallback readCallback;
+        synchronized (this) {
+            readCallback = this.readCallback;
+            this.readElement = null;
+            this.readCallback = null;
+        }
+        if (readCallback != null)
+            readCallback.onFailure(bleException);
+        BleLog.i("readFailure " + bleException);
     }
 
     /**
@@ -539,10 +1005,159 @@ public class BleGatt {
      * @param bleException exception
      */
     private void writeFailure(BleException bleException) {
-        //callbackHandler.removeMessages(MSG_WRITE_DATA_TIMEOUT);
-        if (writeElementCallback.second != null)
-            writeElementCallback.second.onFailure(bleException);
-        ViseLog.i("writeFailure " + bleException);
+        IBleDataCallback writeCallback;
+        synchronized (this) {
+            writeCallback = this.writeCallback;
+            this.writeElement = null;
+            this.writeCallback = null;
+        }
+        if (writeCallback != null)
+            writeCallback.onFailure(bleException);
+        BleLog.i("writeFailure " + bleException);
+    }
+
+    /**
+     * 读响应处理，在回调线程中执行。在锁内取出等待响应的读操作，在锁外回调。
+     * 每个读操作只接受一次响应，之后的重复响应被忽略
+     *
+     * @param uuid         响应的特征值或描述符的UUID
+     * @param isDescriptor 是否为描述符的响应
+     */
+    private void onReadResponse(UUID uuid, byte[] value, int status, boolean isDescriptor) {
+        if (status != GATT_SUCCESS) {
+            readFailure(new GattException(status));
+            return;
+        }
+        BleGattElement element;
+        IBleDataCallback callback;
+        synchronized (this) {
+            element = readElement;
+            callback = readCallback;
+            if (element == null || callback == null || !uuid.equals(isDescriptor ? element.getDescriptorUUID() : element.getCharacteristicUUID()))
+                return;
+            readElement = null;
+            readCallback = null;
+        }
+        callback.onSuccess(value, element);
+    }
+
+    /**
+     * 写响应处理，在回调线程中执行。在锁内取出等待响应的写操作，在锁外回调。
+     * 每个写操作只接受一次响应，之后的重复响应被忽略
+     *
+     * @param uuid         响应的特征值或描述符的UUID
+     * @param isDescriptor 是否为描述符的响应
+     */
+    private void onWriteResponse(UUID uuid, byte[] value, int status, boolean isDescriptor) {
+        if (status != GATT_SUCCESS) {
+            writeFailure(new GattException(status));
+            return;
+        }
+        BleGattElement element;
+        IBleDataCallback callback;
+        synchronized (this) {
+            element = writeElement;
+            callback = writeCallback;
+            if (element == null || callback == null || !uuid.equals(isDescriptor ? element.getDescriptorUUID() : element.getCharacteristicUUID()))
+                return;
+            writeElement = null;
+            writeCallback = null;
+        }
+        callback.onSuccess(value, element);
+    }
+
+    // 可靠写事务，同时作为每一段写操作的回调
+    private class ReliableWrite implements IBleDataCallback {
+        private final BleGattElement element;
+        private final IBleDataCallback dataCallback;
+        private final byte[] data;
+        private final int segmentSize;
+        private int offset; // 下一段的起始位置
+        private byte[] segment; // 最近写出的一段，用于校验回显
+
+        ReliableWrite(BleGattElement element, IBleDataCallback dataCallback, byte[] data, int segmentSize) {
+            this.element = element;
+            this.dataCallback = dataCallback;
+            this.data = data;
+            this.segmentSize = segmentSize;
+        }
+
+        byte[] nextSegment() {
+            int end = Math.min(offset + segmentSize, data.length);
+            segment = Arrays.copyOfRange(data, offset, end);
+            offset = end;
+            return segment;
+        }
+
+        @Override
+        public void onSuccess(byte[] echo, BleGattElement element) {
+            // 失败回调在锁外执行，避免与命令的锁形成死锁
+            synchronized (BleGatt.this) {
+                if (reliableWrite != this) {
+                    return;
+                }
+                if (!Arrays.equals(echo, segment)) {
+                    BleLog.e("The echo of the reliable write is wrong, abort.");
+                    abortReliableWrite();
+                } else {
+                    boolean success = (offset < data.length) ? writeReliableSegment(this) : bluetoothGatt.executeReliableWrite();
+                    if (success) {
+                        return;
+                    }
+                    abortReliableWrite();
+                }
+            }
+            dataCallback.onFailure(new GattException(BluetoothGatt.GATT_FAILURE));
+        }
+
+        @Override
+        public void onFailure(BleException exception) {
+            synchronized (BleGatt.this) {
+                if (reliableWrite != this) {
+                    return;
+                }
+                abortReliableWrite();
+            }
+            dataCallback.onFailure(exception);
+        }
+    }
+
+    // Notify或Indicate分发表项
+    private static class NotifyEntry {
+        private final BleGattElement element;
+        private final IBleDataCallback receiveCallback;
+
+        NotifyEntry(BleGattElement element, IBleDataCallback receiveCallback) {
+            this.element = element;
+            this.receiveCallback = receiveCallback;
+        }
+
+        // 如果接收回调需要启动（如环形缓冲区，或者包装了环形缓冲区的重组器），启动它
+        void start() {
+            if (receiveCallback instanceof BleNotifyLifecycle) {
+                ((BleNotifyLifecycle) receiveCallback).start();
+            }
+        }
+
+        void stop() {
+            if (receiveCallback instanceof BleNotifyLifecycle) {
+                ((BleNotifyLifecycle) receiveCallback).stop();
+            }
+        }
+    }
+
+    // 无响应写操作，完成后回收重用
+    private static class NoResponseWrite {
+        private BleGattElement element;
+        private IBleDataCallback dataCallback;
+        private byte[] data;
+        private long responseTime; // 协议栈确认的时间
+
+        void set(BleGattElement element, IBleDataCallback dataCallback, byte[] data) {
+            this.element = element;
+            this.dataCallback = dataCallback;
+            this.data = data;
+        }
     }
 
 }
@@ -0,0 +1,140 @@
+package com.cmtech.android.ble.core;
+
+import com.cmtech.android.ble.callback.IBleDataCallback;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ *
+ * ClassName:      BleGattBatch
+ * Description:    Gatt批处理，一组按顺序执行的Gatt操作。整批命令一次提交给命令执行器，
+ *                 前一步完成后下一步由调度线程紧接着发出，其他命令不会插到中间；全部结束后只回调一次汇总结果。
+ *                 批处理中的写数据不分包，每一步的数据不能超过一个数据包的长度
+ * Author:         chenm
+ * CreateDate:     2026-10-16 18:40
+ * UpdateUser:     chenm
+ * UpdateDate:     2026-10-16 18:40
+ * UpdateRemark:   无
+ * Version:        1.0
+ */
+
+public class BleGattBatch {
+    // 批处理中的一步
+    static final class Step {
+        private final BleGattCmdType cmdType;
+        private final BleGattElement element;
+        private final byte[] data;
+        private final IBleDataCallback receiveCallback;
+
+        private Step(BleGattCmdType cmdType, BleGattElement element, byte[] data, IBleDataCallback receiveCallback) {
+            this.cmdType = cmdType;
+            this.element = element;
+            this.data = data;
+            this.receiveCallback = receiveCallback;
+        }
+
+        BleGattCmdType getCmdType() {
+            return cmdType;
+        }
+
+        BleGattElement getElement() {
+            return element;
+        }
+
+        byte[] getData() {
+            return data;
+        }
+
+        IBleDataCallback getReceiveCallback() {
+            return receiveCallback;
+        }
+    }
+
+    private final List<Step> steps = new ArrayList<>();
+    private BleGattCmdPriority priority = BleGattCmdPriority.INTERACTIVE; // 所有步骤的优先级
+    private BleGattRetryPolicy retryPolicy; // 所有步骤的超时重试策略，为null时使用缺省策略
+    private boolean stopOnFailure = true; // 某一步失败后是否跳过后面的步骤
+
+    public BleGattBatch() {
+    }
+
+    public BleGattBatch read(BleGattElement element) {
+        return addStep(BleGattCmdType.GATT_CMD_READ, element, null, null);
+    }
+
+    public BleGattBatch write(BleGattElement element, byte[] data) {
+        if(data == null) {
+            throw new NullPointerException("The data is null.");
+        }
+        return addStep(BleGattCmdType.GATT_CMD_WRITE, element, data, null);
+    }
+
+    public BleGattBatch write(BleGattElement element, byte data) {
+        return write(element, new byte[]{data});
+    }
+
+    public BleGattBatch writeNoResponse(BleGattElement element, byte[] data) {
+        if(data == null) {
+            throw new NullPointerException("The data is null.");
+        }
+        return addStep(BleGattCmdType.GATT_CMD_WRITE_NO_RESPONSE, element, data, null);
+    }
+
+    // 使能或禁止Notify，收到的数据由receiveCallback回调
+    public BleGattBatch notify(BleGattElement element, boolean enable, IBleDataCallback receiveCallback) {
+        return addStep(BleGattCmdType.GATT_CMD_NOTIFY, element, (enable) ? BleGattCommand.ENABLE_VALUE : BleGattCommand.DISABLE_VALUE, receiveCallback);
+    }
+
+    // 使能或禁止Indicate，收到的数据由receiveCallback回调
+    public BleGattBatch indicate(BleGattElement element, boolean enable, IBleDataCallback receiveCallback) {
+        return addStep(BleGattCmdType.GATT_CMD_INDICATE, element, (enable) ? BleGattCommand.ENABLE_VALUE : BleGattCommand.DISABLE_VALUE, receiveCallback);
+    }
+
+    private BleGattBatch addStep(BleGattCmdType cmdType, BleGattElement element, byte[] data, IBleDataCallback receiveCallback) {
+        if(element == null) {
+            throw new NullPointerException("The element is null.");
+        }
+        steps.add(new Step(cmdType, element, data, receiveCallback));
+        return this;
+    }
+
+    public BleGattCmdPriority getPriority() {
+        return priority;
+    }
+
+    public BleGattBatch setPriority(BleGattCmdPriority priority) {
+        if(priority == null) {
+            throw new NullPointerException("The priority is null.");
+        }
+        this.priority = priority;
+        return this;
+    }
+
+    public BleGattRetryPolicy getRetryPolicy() {
+        return retryPolicy;
+    }
+
+    public BleGattBatch setRetryPolicy(BleGattRetryPolicy retryPolicy) {
+        this.retryPolicy = retryPolicy;
+        return this;
+    }
+
+    public boolean isStopOnFailure() {
+        return stopOnFailure;
+    }
+
+    public BleGattBatch setStopOnFailure(boolean stopOnFailure) {
+        this.stopOnFailure = stopOnFailure;
+        return this;
+    }
+
+    public int size() {
+        return steps.size();
+    }
+
+    List<Step> getSteps() {
+        return Collections.unmodifiableList(steps);
+    }
+}
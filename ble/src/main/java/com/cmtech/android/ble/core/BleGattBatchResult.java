@@ -0,0 +1,128 @@
+package com.cmtech.android.ble.core;
+
+import com.cmtech.android.ble.exception.BleException;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ *
+ * ClassName:      BleGattBatchResult
+ * Description:    Gatt批处理的汇总结果，按步骤顺序给出每一步的结果、排队等待时间和执行时间
+ * Author:         chenm
+ * CreateDate:     2026-10-16 18:40
+ * UpdateUser:     chenm
+ * UpdateDate:     2026-10-16 18:40
+ * UpdateRemark:   无
+ * Version:        1.0
+ */
+
+public class BleGattBatchResult {
+    // 一步的结果
+    public static class StepResult {
+        private final BleGattCmdType cmdType;
+        private final BleGattElement element;
+        private boolean executed = false; // 是否已经发出。被跳过或者执行器停止时没有发出
+        private byte[] data; // 成功时的数据
+        private BleException exception; // 失败时的异常，为null表示成功
+        private long waitTime; // 排队等待时间，单位：毫秒
+        private long executeTime; // 从发出到结束的时间，包括重试，单位：毫秒
+
+        StepResult(BleGattCmdType cmdType, BleGattElement element) {
+            this.cmdType = cmdType;
+            this.element = element;
+        }
+
+        public BleGattCmdType getCmdType() {
+            return cmdType;
+        }
+
+        public BleGattElement getElement() {
+            return element;
+        }
+
+        public boolean isExecuted() {
+            return executed;
+        }
+
+        public boolean isSuccess() {
+            return executed && exception == null;
+        }
+
+        public byte[] getData() {
+            return data;
+        }
+
+        public BleException getException() {
+            return exception;
+        }
+
+        public long getWaitTime() {
+            return waitTime;
+        }
+
+        public long getExecuteTime() {
+            return executeTime;
+        }
+
+        void setSuccess(byte[] data, long waitTime, long executeTime) {
+            this.executed = true;
+            this.data = data;
+            this.waitTime = waitTime;
+            this.executeTime = executeTime;
+        }
+
+        void setFailure(BleException exception, boolean executed, long waitTime, long executeTime) {
+            this.executed = executed;
+            this.exception = exception;
+            this.waitTime = waitTime;
+            this.executeTime = executeTime;
+        }
+
+        @Override
+        public String toString() {
+            return cmdType + " " + element + ": " + (!executed ? "not executed" : (exception == null ? "success" : exception.toString()))
+                    + " wait=" + waitTime + "ms execute=" + executeTime + "ms";
+        }
+    }
+
+    private final List<StepResult> stepResults;
+    private final long totalTime; // 从提交到最后一步结束的时间，单位：毫秒
+
+    BleGattBatchResult(StepResult[] stepResults, long totalTime) {
+        this.stepResults = Collections.unmodifiableList(Arrays.asList(stepResults));
+        this.totalTime = totalTime;
+    }
+
+    // 是否所有步骤都成功
+    public boolean isSuccess() {
+        return getFailedStep() < 0;
+    }
+
+    // 第一个没有成功的步骤序号，都成功时返回-1
+    public int getFailedStep() {
+        for(int i = 0; i < stepResults.size(); i++) {
+            if(!stepResults.get(i).isSuccess()) return i;
+        }
+        return -1;
+    }
+
+    public List<StepResult> getStepResults() {
+        return stepResults;
+    }
+
+    public StepResult getStepResult(int index) {
+        return stepResults.get(index);
+    }
+
+    public long getTotalTime() {
+        return totalTime;
+    }
+
+    @Override
+    public String toString() {
+        return "BleGattBatchResult{" + (isSuccess() ? "success" : "failed at step " + getFailedStep())
+                + ", totalTime=" + totalTime + "ms, steps=" + stepResults + "}";
+    }
+}
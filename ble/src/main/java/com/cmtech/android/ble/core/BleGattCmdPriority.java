@@ -0,0 +1,19 @@
+package com.cmtech.android.ble.core;
+
+/**
+ *
+ * ClassName:      BleGattCmdPriority
+ * Description:    Gatt命令优先级。调度器总是先发出优先级最高的就绪命令，同一优先级内按提交顺序发出
+ * Author:         chenm
+ * CreateDate:     2026-10-16 17:20
+ * UpdateUser:     chenm
+ * UpdateDate:     2026-10-16 17:20
+ * UpdateRemark:   无
+ * Version:        1.0
+ */
+
+public enum BleGattCmdPriority {
+    CONTROL, // 控制命令，如停止采集，不能排在大量数据命令之后
+    INTERACTIVE, // 交互命令，用户操作触发的读写，缺省优先级
+    BULK // 批量数据命令，如流式写
+}
@@ -17,7 +17,10 @@ public enum BleGattCmdType {
     GATT_CMD_WRITE(0x02),
     GATT_CMD_NOTIFY(0x04),
     GATT_CMD_INDICATE(0x08),
-    GATT_CMD_INSTANT_RUN(0x10); //即时执行命令属性，即不需要等待蓝牙响应，立即执行回调的命令
+    GATT_CMD_INSTANT_RUN(0x10), //即时执行命令属性，即不需要等待蓝牙响应，立即执行回调的命令
+    GATT_CMD_WRITE_NO_RESPONSE(0x20), //无响应写命令，可以在流水线执行器中与其他无响应写命令同时在途
+    GATT_CMD_READ_LONG(0x40), //长读命令，由协议栈的Read Blob读完整个值，只回调一次
+    GATT_CMD_RELIABLE_WRITE(0x80); //可靠写命令，在一个可靠写事务中分段写入并执行，只回调一次
 
     private int code;
 
@@ -28,4 +31,9 @@ public enum BleGattCmdType {
     public int getCode() {
         return code;
     }
+
+    // 是否允许在流水线中与其他命令同时在途。请求/响应类命令必须严格串行
+    boolean isPipelinable() {
+        return this == GATT_CMD_WRITE_NO_RESPONSE;
+    }
 }
@@ -1,6 +1,10 @@
 package com.cmtech.android.ble.core;
 
+import android.bluetooth.BluetoothGatt;
+
+import com.cmtech.android.ble.BleConfig;
 import com.cmtech.android.ble.callback.IBleDataCallback;
+import com.cmtech.android.ble.exception.GattException;
 import com.cmtech.android.ble.utils.HexUtil;
 
 
@@ -17,46 +21,114 @@ import com.cmtech.android.ble.utils.HexUtil;
  */
 
 class BleGattCommand{
-    private final BleDeviceConnector device; // 执行命令的设备
-    private final BleGattElement element; // 命令操作的element
-    private final BleGattCmdType bleGattCmdType; // 命令类型
+    // notify或indicate命令的使能值和禁止值。只用来判断使能还是禁止，不会写出，也不会交给调用者
+    static final byte[] ENABLE_VALUE = new byte[]{0x01};
+    static final byte[] DISABLE_VALUE = new byte[]{0x00};
+
+    // 命令的字段在init()中设置，在clear()中清除，同一个命令对象可以回收后重复使用
+    private BleDeviceConnector device; // 执行命令的设备
+    private BleGattElement element; // 命令操作的element
+    private BleGattCmdType bleGattCmdType; // 命令类型
     protected IBleDataCallback dataCallback; // 数据操作回调
-    private final byte[] writtenData; // 待写数据。如果是写操作，存放要写的数据；如果是notify或indicate操作，存放enable值；如果为其他操作，则无意义
-    private final IBleDataCallback receiveCallback; // 如果是notify或indicate操作，存放notify或indicate的回调
-    private final String description; // 命令描述字符串
+    private byte[] writtenData; // 待写数据。如果是写操作，存放要写的数据；如果是notify或indicate操作，存放enable值；如果为其他操作，则无意义
+    private IBleDataCallback receiveCallback; // 如果是notify或indicate操作，存放notify或indicate的回调
+    private BleGattCmdPriority priority; // 命令优先级
+    private BleGattRetryPolicy retryPolicy; // 超时和重试策略
+
+    BleGattCommand() {
+    }
 
-    private BleGattCommand(BleDeviceConnector device, BleGattElement element, BleGattCmdType bleGattCmdType,
-                           IBleDataCallback dataCallback,
-                           byte[] writtenData, IBleDataCallback receiveCallback, String description) {
+    /**
+     * 设置命令的所有字段并检查命令是否有效
+     * @return 命令是否有效，无效时命令不能执行
+     */
+    boolean init(BleDeviceConnector device, BleGattElement element, BleGattCmdType bleGattCmdType, byte[] data,
+                 IBleDataCallback dataCallback, IBleDataCallback receiveCallback, BleGattCmdPriority priority,
+                 BleGattRetryPolicy retryPolicy) {
         this.device = device;
         this.element = element;
         this.bleGattCmdType = bleGattCmdType;
+        this.writtenData = data;
         this.dataCallback = dataCallback;
-        this.writtenData = writtenData;
         this.receiveCallback = receiveCallback;
-        this.description = description;
+        this.priority = priority;
+        this.retryPolicy = (retryPolicy == null) ? BleConfig.getInstance().getGattRetryPolicy() : retryPolicy;
+
+        if(priority == null || bleGattCmdType == null) {
+            return false;
+        }
+        if(bleGattCmdType == BleGattCmdType.GATT_CMD_INSTANT_RUN) {
+            this.device = null;
+            this.element = null;
+            this.writtenData = null;
+            this.receiveCallback = null;
+            return dataCallback != null;
+        }
+        if(device == null || device.getBleGatt() == null || element == null) {
+            return false;
+        }
+        if (bleGattCmdType == BleGattCmdType.GATT_CMD_WRITE
+                || bleGattCmdType == BleGattCmdType.GATT_CMD_WRITE_NO_RESPONSE
+                || bleGattCmdType == BleGattCmdType.GATT_CMD_RELIABLE_WRITE
+                || bleGattCmdType == BleGattCmdType.GATT_CMD_NOTIFY
+                || bleGattCmdType == BleGattCmdType.GATT_CMD_INDICATE) {
+            if (data == null || data.length == 0) {
+                return false;
+            }
+        }
+        if (bleGattCmdType == BleGattCmdType.GATT_CMD_NOTIFY
+                || bleGattCmdType == BleGattCmdType.GATT_CMD_INDICATE) {
+            if (data[0] == 1 && receiveCallback == null) {
+                return false;
+            }
+        }
+        return true;
     }
 
-    BleGattCommand(BleGattCommand gattCommand) {
-        if(gattCommand == null)
-            throw new IllegalArgumentException("BleGattCommand is null.");
-
-        this.device = gattCommand.device;
-        this.element = gattCommand.element;
-        this.bleGattCmdType = gattCommand.bleGattCmdType;
-        this.dataCallback = gattCommand.dataCallback;
-        this.writtenData = gattCommand.writtenData;
-        this.receiveCallback = gattCommand.receiveCallback;
-        this.description = gattCommand.description;
+    // 清除所有字段，不再引用设备、数据和回调
+    void clear() {
+        device = null;
+        element = null;
+        bleGattCmdType = null;
+        dataCallback = null;
+        writtenData = null;
+        receiveCallback = null;
+        priority = null;
+        retryPolicy = null;
     }
 
     public BleDeviceConnector getDevice() {
         return device;
     }
 
+    BleGattCmdType getBleGattCmdType() {
+        return bleGattCmdType;
+    }
+
+    BleGattCmdPriority getPriority() {
+        return priority;
+    }
+
+    BleGattRetryPolicy getRetryPolicy() {
+        return retryPolicy;
+    }
+
+    BleGattElement getElement() {
+        return element;
+    }
+
+    byte[] getWrittenData() {
+        return writtenData;
+    }
+
+    // 替换待写数据，用于合并状态写命令
+    void setWrittenData(byte[] writtenData) {
+        this.writtenData = writtenData;
+    }
+
     /**
      * 执行命令。除了INSTANT_RUN命令以外，执行完其他命令不仅需要发送命令，还需要收到响应
-     * @return 是否已经执行完命令，true-执行完 false-等待响应
+     * @return 是否已经执行完命令，true-执行完 false-等待响应。命令发不出去时直接回调失败，返回false
      */
     boolean execute() throws InterruptedException{
         if(bleGattCmdType == BleGattCmdType.GATT_CMD_INSTANT_RUN) {
@@ -71,103 +143,52 @@ class BleGattCommand{
         }
 
         BleGatt bleGatt = device.getBleGatt();
+        boolean issued;
         switch (bleGattCmdType) {
             case GATT_CMD_READ:
-                bleGatt.readData(element, dataCallback);
+                issued = bleGatt.readData(element, dataCallback);
                 break;
             case GATT_CMD_WRITE:
-                bleGatt.writeData(element, dataCallback, writtenData);
+                issued = bleGatt.writeData(element, dataCallback, writtenData);
+                break;
+            case GATT_CMD_WRITE_NO_RESPONSE:
+                issued = bleGatt.writeDataNoResponse(element, dataCallback, writtenData);
+                break;
+            case GATT_CMD_READ_LONG:
+                issued = bleGatt.readLongData(element, dataCallback);
+                break;
+            case GATT_CMD_RELIABLE_WRITE:
+                issued = bleGatt.reliableWriteData(element, dataCallback, writtenData);
                 break;
             case GATT_CMD_NOTIFY:
             case GATT_CMD_INDICATE:
-                bleGatt.enable(element, dataCallback, receiveCallback, (writtenData[0] == 1), (bleGattCmdType == BleGattCmdType.GATT_CMD_INDICATE));
+                issued = bleGatt.enable(element, dataCallback, receiveCallback, (writtenData[0] == 1), (bleGattCmdType == BleGattCmdType.GATT_CMD_INDICATE));
                 break;
             default:
+                issued = false;
                 break;
         }
+        if(!issued) {
+            dataCallback.onFailure(new GattException(BluetoothGatt.GATT_FAILURE));
+        }
         return false;
     }
 
+    // 命令描述字符串只在需要时生成，避免每条命令都格式化数据
     @Override
     public String toString() {
-        return description;
-    }
-
-    static class Builder {
-        private BleDeviceConnector device;
-        private BleGattElement element;
-        private BleGattCmdType bleGattCmdType;
-        private byte[] data;
-        private IBleDataCallback dataCallback;
-        private IBleDataCallback receiveCallback;
-
-        Builder() {
-        }
-
-        Builder setDevice(BleDeviceConnector device) {
-            this.device = device;
-            return this;
-        }
-
-        Builder setBluetoothElement(BleGattElement element) {
-            this.element = element;
-            return this;
-        }
-
-        Builder setBleGattCmdType(BleGattCmdType bleGattCmdType) {
-            this.bleGattCmdType = bleGattCmdType;
-            return this;
-        }
-
-        Builder setDataCallback(IBleDataCallback dataCallback) {
-            this.dataCallback = dataCallback;
-            return this;
-        }
-
-        Builder setData(byte[] data) {
-            this.data = data;
-            return this;
-        }
-
-        Builder setReceiveCallback(IBleDataCallback receiveCallback) {
-            this.receiveCallback = receiveCallback;
-            return this;
+        if(bleGattCmdType == BleGattCmdType.GATT_CMD_INSTANT_RUN) {
+            return "<" + bleGattCmdType + ">";
         }
 
-        BleGattCommand build() {
-            if(bleGattCmdType == BleGattCmdType.GATT_CMD_INSTANT_RUN) {
-                if(dataCallback == null) {
-                    return null;
-                }
-                return new BleGattCommand(null, null, bleGattCmdType, dataCallback,
-                        null, null, "<" + bleGattCmdType + ">");
-            }
-            if(device == null || device.getBleGatt() == null || element == null) {
-                return null;
-            }
-            if (bleGattCmdType == BleGattCmdType.GATT_CMD_WRITE
-                    || bleGattCmdType == BleGattCmdType.GATT_CMD_NOTIFY
-                    || bleGattCmdType == BleGattCmdType.GATT_CMD_INDICATE) {
-                if (data == null || data.length == 0) {
-                    return null;
-                }
-            }
-            if (bleGattCmdType == BleGattCmdType.GATT_CMD_NOTIFY
-                    || bleGattCmdType == BleGattCmdType.GATT_CMD_INDICATE) {
-                if (data[0] == 1 && receiveCallback == null) {
-                    return null;
-                }
-            }
-
-            String description = "<" + bleGattCmdType + " " + element.toString();
-            if(bleGattCmdType == BleGattCmdType.GATT_CMD_WRITE) {
-                description += HexUtil.encodeHexStr(data);
-            } else if(bleGattCmdType == BleGattCmdType.GATT_CMD_INDICATE || bleGattCmdType == BleGattCmdType.GATT_CMD_NOTIFY) {
-                description += ((data[0] == 1) ? "enable" : "disable");
-            }
-            description += ">";
-
-            return new BleGattCommand(device, element, bleGattCmdType, dataCallback, data, receiveCallback, description);
+        String description = "<" + bleGattCmdType + " " + element.toString();
+        if(bleGattCmdType == BleGattCmdType.GATT_CMD_WRITE || bleGattCmdType == BleGattCmdType.GATT_CMD_WRITE_NO_RESPONSE) {
+            description += HexUtil.encodeHexStr(writtenData);
+        } else if(bleGattCmdType == BleGattCmdType.GATT_CMD_RELIABLE_WRITE) {
+            description += writtenData.length + "bytes";
+        } else if(bleGattCmdType == BleGattCmdType.GATT_CMD_INDICATE || bleGattCmdType == BleGattCmdType.GATT_CMD_NOTIFY) {
+            description += ((writtenData[0] == 1) ? "enable" : "disable");
         }
+        return description + ">";
     }
 }
@@ -8,6 +8,7 @@ import android.bluetooth.BluetoothGattService;
 import com.cmtech.android.ble.utils.UuidUtil;
 import com.vise.log.ViseLog;
 
+import java.util.Objects;
 import java.util.UUID;
 
 
@@ -100,6 +101,13 @@ public class BleGattElement {
         return null;
     }
 
+    // 是否与另一个element指向同一个Gatt对象
+    boolean isSameTarget(BleGattElement other) {
+        return other != null && Objects.equals(serviceUuid, other.serviceUuid)
+                && Objects.equals(characteristicUuid, other.characteristicUuid)
+                && Objects.equals(descriptorUuid, other.descriptorUuid);
+    }
+
     @Override
     public String toString() {
         return description;
@@ -0,0 +1,117 @@
+package com.cmtech.android.ble.core;
+
+import com.cmtech.android.ble.callback.IBleDataCallback;
+import com.cmtech.android.ble.exception.BleException;
+import com.cmtech.android.ble.utils.BleLog;
+
+/**
+ *
+ * ClassName:      BleGattFrameAssembler
+ * Description:    Notify/Indicate多包数据重组器。一条消息的第一包以2字节小端的消息总长度开头，后续包为消息的剩余数据，
+ *                 收齐后将不含长度头的完整消息交给接收回调。对端按同样的格式重组写入的消息时，用frame()加上长度头后再写，
+ *                 写操作本身只按MTU切分数据，不加长度头。
+ *                 接收回调需要启动和停止时（如环形缓冲区），重组器把使能和禁止转给它
+ * Author:         chenm
+ * CreateDate:     2026-10-16 10:05
+ * UpdateUser:     chenm
+ * UpdateDate:     2026-10-16 10:05
+ * UpdateRemark:   无
+ * Version:        1.0
+ */
+
+public class BleGattFrameAssembler implements IBleDataCallback, BleNotifyLifecycle {
+    private static final int LENGTH_HEADER_SIZE = 2; // 长度头字节数
+    private static final int MAX_MESSAGE_LENGTH = 0xffff; // 长度头能表示的最大消息长度
+
+    private final IBleDataCallback receiveCallback; // 完整消息的接收回调
+    private byte[] message; // 正在重组的消息，为null表示等待新消息的第一包
+    private int offset; // 已收到的消息字节数
+
+    public BleGattFrameAssembler(IBleDataCallback receiveCallback) {
+        if(receiveCallback == null) {
+            throw new IllegalArgumentException("The receive callback is null.");
+        }
+        this.receiveCallback = receiveCallback;
+    }
+
+    /**
+     * 在消息前加上2字节小端的长度头，得到的数据交给写操作后，由写操作按MTU分包，对端按长度头重组
+     * @param message 要写的消息
+     * @return 带长度头的数据
+     */
+    public static byte[] frame(byte[] message) {
+        if(message == null) {
+            throw new NullPointerException("The message is null.");
+        }
+        if(message.length > MAX_MESSAGE_LENGTH) {
+            throw new IllegalArgumentException("The message length beyond " + MAX_MESSAGE_LENGTH + " byte.");
+        }
+        byte[] data = new byte[LENGTH_HEADER_SIZE + message.length];
+        data[0] = (byte) message.length;
+        data[1] = (byte) (message.length >> 8);
+        System.arraycopy(message, 0, data, LENGTH_HEADER_SIZE, message.length);
+        return data;
+    }
+
+    @Override
+    public synchronized void onSuccess(byte[] data, BleGattElement element) {
+        if(data == null || data.length == 0) return;
+
+        int start = 0;
+        if(message == null) {
+            if(data.length < LENGTH_HEADER_SIZE) {
+                BleLog.e("The first frame is too short, dropped.");
+                return;
+            }
+            int length = (data[0] & 0xff) | ((data[1] & 0xff) << 8);
+            message = new byte[length];
+            offset = 0;
+            start = LENGTH_HEADER_SIZE;
+        }
+
+        int count = data.length - start;
+        if(offset + count > message.length) {
+            // 数据与长度头不一致，丢弃当前消息，从下一包重新同步
+            BleLog.e("The frame overflows the message length, message dropped.");
+            reset();
+            return;
+        }
+        System.arraycopy(data, start, message, offset, count);
+        offset += count;
+
+        if(offset == message.length) {
+            byte[] completed = message;
+            reset();
+            receiveCallback.onSuccess(completed, element);
+        }
+    }
+
+    @Override
+    public void onFailure(BleException exception) {
+        reset();
+        receiveCallback.onFailure(exception);
+    }
+
+    // 使能时启动被包装的接收回调
+    @Override
+    public void start() {
+        if(receiveCallback instanceof BleNotifyLifecycle) {
+            ((BleNotifyLifecycle) receiveCallback).start();
+        }
+    }
+
+    // 禁止时放弃正在重组的消息，并停止被包装的接收回调
+    @Override
+    public void stop() {
+        reset();
+        if(receiveCallback instanceof BleNotifyLifecycle) {
+            ((BleNotifyLifecycle) receiveCallback).stop();
+        }
+    }
+
+    // 放弃正在重组的消息
+    public synchronized void reset() {
+        message = null;
+        offset = 0;
+    }
+}
@@ -0,0 +1,216 @@
+package com.cmtech.android.ble.core;
+
+import com.cmtech.android.ble.callback.IBleDataCallback;
+import com.cmtech.android.ble.exception.BleException;
+import com.cmtech.android.ble.exception.CancelledException;
+import com.cmtech.android.ble.exception.OtherException;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ *
+ * ClassName:      BleGattFuture
+ * Description:    Gatt命令的异步结果。命令完成时由BleGatt的回调直接驱动，不占用等待线程；
+ *                 可以添加回调，也可以用then()把多条命令串成一个序列，避免层层嵌套的回调。
+ *                 取消then()返回的结果时，取消序列中正在执行的那一级，后面的后续操作不再执行
+ * Author:         chenm
+ * CreateDate:     2026-10-16 16:40
+ * UpdateUser:     chenm
+ * UpdateDate:     2026-10-16 16:40
+ * UpdateRemark:   无
+ * Version:        1.0
+ */
+
+public class BleGattFuture {
+    // 后续操作，用上一条命令的结果发出下一条命令。返回null表示没有后续命令，直接传递上一条命令的结果
+    public interface Continuation {
+        BleGattFuture apply(byte[] data, BleGattElement element);
+    }
+
+    private boolean done = false; // 是否已经完成
+    private byte[] data; // 成功时的数据
+    private BleGattElement element; // 成功时的element
+    private BleException exception; // 失败时的异常，为null表示成功
+    private List<IBleDataCallback> callbacks = new ArrayList<>(1); // 完成前添加的回调
+    private BleGattHandle handle; // 命令的取消句柄
+    private BleGattFuture upstream; // then()返回的结果当前等待的那一级结果，取消时一起取消
+
+    // 交给命令执行器的回调，命令结束时完成本结果
+    private final IBleDataCallback completeCallback = new IBleDataCallback() {
+        @Override
+        public void onSuccess(byte[] data, BleGattElement element) {
+            complete(data, element, null);
+        }
+
+        @Override
+        public void onFailure(BleException exception) {
+            complete(null, null, exception);
+        }
+    };
+
+    BleGattFuture() {
+    }
+
+    // 已成功的结果
+    public static BleGattFuture succeeded(byte[] data, BleGattElement element) {
+        BleGattFuture future = new BleGattFuture();
+        future.complete(data, element, null);
+        return future;
+    }
+
+    // 已失败的结果
+    public static BleGattFuture failed(BleException exception) {
+        if(exception == null) {
+            throw new NullPointerException("The exception is null.");
+        }
+        BleGattFuture future = new BleGattFuture();
+        future.complete(null, null, exception);
+        return future;
+    }
+
+    IBleDataCallback getCompleteCallback() {
+        return completeCallback;
+    }
+
+    synchronized void setHandle(BleGattHandle handle) {
+        this.handle = handle;
+    }
+
+    /**
+     * 设置then()返回的结果当前等待的那一级结果
+     * @return 是否设置成功。本结果已经完成（如已被取消）时返回false，调用者应取消upstream
+     */
+    private synchronized boolean setUpstream(BleGattFuture upstream) {
+        if(done) return false;
+        this.upstream = upstream;
+        return true;
+    }
+
+    // 取消命令，本结果以CancelledException失败。then()返回的结果取消序列中正在执行的那一级。已经完成时返回false
+    public boolean cancel() {
+        BleGattHandle handle;
+        BleGattFuture upstream;
+        synchronized (this) {
+            if(done) return false;
+            handle = this.handle;
+            upstream = this.upstream;
+        }
+        if(handle != null) {
+            handle.cancel();
+        }
+        if(upstream != null) {
+            upstream.cancel();
+        }
+        // 命令的失败回调可能经过结果Executor异步到达，这里直接完成；上一级已经完成、后续操作还没开始时也在这里完成。
+        // 取消上一级时本结果可能已经随之失败
+        return complete(null, null, new CancelledException()) || getException() instanceof CancelledException;
+    }
+
+    public synchronized boolean isDone() {
+        return done;
+    }
+
+    public synchronized boolean isSuccess() {
+        return done && exception == null;
+    }
+
+    // 成功时的数据，未完成或失败时返回null
+    public synchronized byte[] getData() {
+        return data;
+    }
+
+    // 失败时的异常，未完成或成功时返回null
+    public synchronized BleException getException() {
+        return exception;
+    }
+
+    // 添加完成回调，已经完成时立即在当前线程中回调
+    public BleGattFuture addCallback(IBleDataCallback callback) {
+        if(callback == null) {
+            throw new NullPointerException("The callback is null.");
+        }
+        synchronized (this) {
+            if(!done) {
+                callbacks.add(callback);
+                return this;
+            }
+        }
+        notifyCallback(callback);
+        return this;
+    }
+
+    /**
+     * 本命令成功后执行后续操作，返回后续操作的结果。
+     * 本命令失败或后续操作失败时，返回的结果以同一异常失败，后面的后续操作不再执行
+     */
+    public BleGattFuture then(final Continuation continuation) {
+        if(continuation == null) {
+            throw new NullPointerException("The continuation is null.");
+        }
+
+        final BleGattFuture next = new BleGattFuture();
+        next.upstream = this;
+        addCallback(new IBleDataCallback() {
+            @Override
+            public void onSuccess(byte[] data, BleGattElement element) {
+                // 已经取消的序列不再执行后续操作
+                if(next.isDone()) return;
+                BleGattFuture result;
+                try {
+                    result = continuation.apply(data, element);
+                } catch (RuntimeException e) {
+                    next.completeCallback.onFailure(new OtherException(e.toString()));
+                    return;
+                }
+                if(result == null) {
+                    next.completeCallback.onSuccess(data, element);
+                } else if(next.setUpstream(result)) {
+                    result.addCallback(next.completeCallback);
+                } else {
+                    // 后续操作执行期间序列被取消
+                    result.cancel();
+                }
+            }
+
+            @Override
+            public void onFailure(BleException exception) {
+                next.completeCallback.onFailure(exception);
+            }
+        });
+        return next;
+    }
+
+    // 完成本结果，返回是否由本次调用完成
+    private boolean complete(byte[] data, BleGattElement element, BleException exception) {
+        List<IBleDataCallback> callbacks;
+        synchronized (this) {
+            if(done) return false;
+            this.done = true;
+            this.data = data;
+            this.element = element;
+            this.exception = exception;
+            this.handle = null;
+            this.upstream = null;
+            callbacks = this.callbacks;
+            this.callbacks = null;
+        }
+        for(IBleDataCallback callback : callbacks) {
+            notifyCallback(callback);
+        }
+        return true;
+    }
+
+    private void notifyCallback(IBleDataCallback callback) {
+        if(exception == null) {
+            callback.onSuccess(data, element);
+        } else {
+            callback.onFailure(exception);
+        }
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "BleGattFuture{" + (!done ? "pending" : (exception == null ? "success" : exception.toString())) + "}";
+    }
+}
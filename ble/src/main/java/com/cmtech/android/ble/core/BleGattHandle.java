@@ -0,0 +1,122 @@
+package com.cmtech.android.ble.core;
+
+import com.cmtech.android.ble.callback.IBleDataCallback;
+import com.cmtech.android.ble.exception.CancelledException;
+
+/**
+ *
+ * ClassName:      BleGattHandle
+ * Description:    Gatt命令的取消句柄，每次通过BleDeviceConnector提交命令都返回一个句柄。
+ *                 排队中的命令取消后从队列中移除；已经发出的命令立即以CancelledException回调，
+ *                 响应到达后只让出通道，不再回调也不再重试。分包写和批处理的所有命令一起取消。
+ *                 单条命令的句柄只记录命令、代数和回调，不再新建其他对象；包含多条命令时才分配数组。
+ *                 句柄本身每次操作新建一个，不放入对象池：调用者可能一直持有句柄，重用后旧的引用会取消别人的命令
+ * Author:         chenm
+ * CreateDate:     2026-10-16 20:10
+ * UpdateUser:     chenm
+ * UpdateDate:     2026-10-16 20:10
+ * UpdateRemark:   无
+ * Version:        1.0
+ */
+
+public class BleGattHandle {
+    // 没有提交任何命令的句柄，取消不做任何操作
+    static final BleGattHandle NONE = new BleGattHandle(null);
+
+    private final BleGattScheduler.Lane lane; // 命令所在的通道
+    private int size = 0; // 句柄包含的命令数
+    // 第一条命令直接保存在字段中
+    private BleSerialGattCommand command; // 第一条命令
+    private IBleDataCallback callback; // 第一条命令中属于本句柄的回调
+    private int generation; // 加入句柄时第一条命令的代数，命令回收后不再操作它
+    // 其余的命令保存在数组中，只有包含多条命令的句柄才分配，下标为序号减一
+    private final BleSerialGattCommand[] moreCommands;
+    private final IBleDataCallback[] moreCallbacks;
+    private final int[] moreGenerations;
+    private boolean cancelled = false; // 是否已经取消
+
+    // 只包含一条命令的句柄
+    BleGattHandle(BleGattScheduler.Lane lane) {
+        this(lane, 1);
+    }
+
+    // 包含commandNum条命令的句柄
+    BleGattHandle(BleGattScheduler.Lane lane, int commandNum) {
+        this.lane = lane;
+        int more = Math.max(0, commandNum - 1);
+        moreCommands = (more == 0) ? null : new BleSerialGattCommand[more];
+        moreCallbacks = (more == 0) ? null : new IBleDataCallback[more];
+        moreGenerations = (more == 0) ? null : new int[more];
+    }
+
+    // 加入一条将要提交的命令，callback是该命令中属于本句柄的回调
+    synchronized void add(BleSerialGattCommand command, IBleDataCallback callback) {
+        int index = size;
+        if(index > 0 && (moreCommands == null || index > moreCommands.length)) {
+            throw new IllegalStateException("The handle is full.");
+        }
+        size++;
+        set(index, command, command.getGeneration());
+        if(index == 0) {
+            this.callback = callback;
+        } else {
+            moreCallbacks[index - 1] = callback;
+        }
+        command.setHandle(this, index);
+    }
+
+    // 命令被合并到排队中的另一条命令，之后取消作用于那条命令中本句柄的回调
+    synchronized void retarget(int index, BleSerialGattCommand command, int generation) {
+        set(index, command, generation);
+    }
+
+    private void set(int index, BleSerialGattCommand command, int generation) {
+        if(index == 0) {
+            this.command = command;
+            this.generation = generation;
+        } else {
+            moreCommands[index - 1] = command;
+            moreGenerations[index - 1] = generation;
+        }
+    }
+
+    /**
+     * 取消句柄中所有还没结束的命令
+     * @return 是否有命令被取消。命令都已经结束时返回false
+     */
+    public boolean cancel() {
+        BleSerialGattCommand command;
+        IBleDataCallback callback;
+        int generation;
+        BleSerialGattCommand[] commands = null;
+        IBleDataCallback[] callbacks = null;
+        int[] generations = null;
+        int size;
+        synchronized (this) {
+            if(cancelled || lane == null || this.size == 0) return false;
+            cancelled = true;
+            size = this.size;
+            command = this.command;
+            callback = this.callback;
+            generation = this.generation;
+            if(size > 1) {
+                commands = moreCommands.clone();
+                callbacks = moreCallbacks.clone();
+                generations = moreGenerations.clone();
+            }
+        }
+
+        // 在锁外取消，取消的回调中可能提交新的命令
+        boolean result = lane.cancel(command, generation, callback, new CancelledException());
+        for(int i = 0; i < size - 1; i++) {
+            if(lane.cancel(commands[i], generations[i], callbacks[i], new CancelledException())) {
+                result = true;
+            }
+        }
+        return result;
+    }
+
+    public synchronized boolean isCancelled() {
+        return cancelled;
+    }
+}
@@ -0,0 +1,131 @@
+package com.cmtech.android.ble.core;
+
+/**
+ *
+ * ClassName:      BleGattLatencyHistogram
+ * Description:    时延直方图，单位：毫秒。16毫秒以下每毫秒一个桶，之上每个2的幂区间分为8个桶，
+ *                 相对误差不超过12.5%。记录一次只是一个桶计数加一，不保存原始样本，内存占用固定
+ * Author:         chenm
+ * CreateDate:     2026-10-16 20:50
+ * UpdateUser:     chenm
+ * UpdateDate:     2026-10-16 20:50
+ * UpdateRemark:   无
+ * Version:        1.0
+ */
+
+public class BleGattLatencyHistogram {
+    private static final int LINEAR_LIMIT = 16; // 线性桶的上限
+    private static final int SUB_BUCKET_BITS = 3; // 每个2的幂区间分为2^3个桶
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int MAX_EXPONENT = 20; // 可区分的最大时延约为2^21毫秒，更大的计入最后一个桶
+    private static final int BUCKET_NUM = LINEAR_LIMIT + (MAX_EXPONENT - 3) * SUB_BUCKETS;
+
+    private final long[] counts = new long[BUCKET_NUM]; // 各桶的计数
+    private long count = 0; // 样本数
+    private long total = 0; // 样本累计值
+    private long max = 0; // 最大样本
+
+    BleGattLatencyHistogram() {
+    }
+
+    // 复制一个快照
+    private BleGattLatencyHistogram(BleGattLatencyHistogram other) {
+        synchronized (other) {
+            System.arraycopy(other.counts, 0, counts, 0, BUCKET_NUM);
+            count = other.count;
+            total = other.total;
+            max = other.max;
+        }
+    }
+
+    // 记录一个样本，负值按0计
+    synchronized void record(long value) {
+        if(value < 0) value = 0;
+        counts[bucketOf(value)]++;
+        count++;
+        total += value;
+        if(value > max) max = value;
+    }
+
+    synchronized void reset() {
+        for(int i = 0; i < BUCKET_NUM; i++) {
+            counts[i] = 0;
+        }
+        count = 0;
+        total = 0;
+        max = 0;
+    }
+
+    // 当前数据的快照，之后的记录不影响快照
+    BleGattLatencyHistogram snapshot() {
+        return new BleGattLatencyHistogram(this);
+    }
+
+    private static int bucketOf(long value) {
+        if(value < LINEAR_LIMIT) return (int) value;
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        if(exponent > MAX_EXPONENT) return BUCKET_NUM - 1;
+        int sub = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return LINEAR_LIMIT + (exponent - 4) * SUB_BUCKETS + sub;
+    }
+
+    // 桶中时延的上界
+    private static long upperBoundOf(int bucket) {
+        if(bucket < LINEAR_LIMIT) return bucket;
+        int exponent = (bucket - LINEAR_LIMIT) / SUB_BUCKETS + 4;
+        int sub = (bucket - LINEAR_LIMIT) % SUB_BUCKETS;
+        long width = 1L << (exponent - SUB_BUCKET_BITS);
+        return (SUB_BUCKETS + sub) * width + width - 1;
+    }
+
+    public synchronized long getCount() {
+        return count;
+    }
+
+    public synchronized long getMax() {
+        return max;
+    }
+
+    public synchronized long getMean() {
+        return (count == 0) ? 0 : total / count;
+    }
+
+    /**
+     * 百分位时延
+     * @param percentile 百分位，0到100
+     * @return 不小于该百分位样本的桶上界，不超过最大样本。没有样本时返回0
+     */
+    public synchronized long getPercentile(double percentile) {
+        if(count == 0) return 0;
+        if(percentile < 0 || percentile > 100) {
+            throw new IllegalArgumentException("The percentile must be in [0, 100].");
+        }
+
+        long rank = Math.max(1, (long) Math.ceil(percentile / 100 * count));
+        long seen = 0;
+        for(int i = 0; i < BUCKET_NUM; i++) {
+            seen += counts[i];
+            if(seen >= rank) {
+                return Math.min(upperBoundOf(i), max);
+            }
+        }
+        return max;
+    }
+
+    public long getP50() {
+        return getPercentile(50);
+    }
+
+    public long getP95() {
+        return getPercentile(95);
+    }
+
+    public long getP99() {
+        return getPercentile(99);
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "n=" + count + " p50=" + getP50() + "ms p95=" + getP95() + "ms p99=" + getP99() + "ms max=" + max + "ms";
+    }
+}
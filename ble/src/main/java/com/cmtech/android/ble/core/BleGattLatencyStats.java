@@ -0,0 +1,152 @@
+package com.cmtech.android.ble.core;
+
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ *
+ * ClassName:      BleGattLatencyStats
+ * Description:    一个设备的Gatt命令时延统计。每条发出过的命令结束时记录四段时延，分别按命令类型和按element汇总为直方图：
+ *                 QUEUE为进入队列到第一次发出，SERVICE为第一次发出到收到响应（包括重试），
+ *                 DELIVERY为收到响应到命令完成回调，TOTAL为进入队列到命令完成回调
+ * Author:         chenm
+ * CreateDate:     2026-10-16 20:50
+ * UpdateUser:     chenm
+ * UpdateDate:     2026-10-16 20:50
+ * UpdateRemark:   无
+ * Version:        1.0
+ */
+
+public class BleGattLatencyStats {
+    // 时延分段
+    public enum Stage {
+        QUEUE, // 排队
+        SERVICE, // 发出到响应
+        DELIVERY, // 响应到回调
+        TOTAL // 全程
+    }
+
+    private static final int MAX_ELEMENT_NUM = 64; // 最多分别统计的element数，超过后新的element不再单独统计
+
+    // 一组分段直方图
+    private static class Entry {
+        private final BleGattElement element;
+        private final BleGattLatencyHistogram[] histograms = new BleGattLatencyHistogram[Stage.values().length];
+
+        Entry(BleGattElement element) {
+            this.element = element;
+            for(int i = 0; i < histograms.length; i++) {
+                histograms[i] = new BleGattLatencyHistogram();
+            }
+        }
+
+        void record(long enqueueTime, long issueTime, long responseTime, long finishTime) {
+            histograms[Stage.QUEUE.ordinal()].record(issueTime - enqueueTime);
+            histograms[Stage.SERVICE.ordinal()].record(responseTime - issueTime);
+            histograms[Stage.DELIVERY.ordinal()].record(finishTime - responseTime);
+            histograms[Stage.TOTAL.ordinal()].record(finishTime - enqueueTime);
+        }
+
+        void reset() {
+            for(BleGattLatencyHistogram histogram : histograms) {
+                histogram.reset();
+            }
+        }
+    }
+
+    private final Map<BleGattCmdType, Entry> typeEntries = new EnumMap<>(BleGattCmdType.class); // 按命令类型的统计
+    private final List<Entry> elementEntries = new ArrayList<>(); // 按element的统计
+    private final Map<BleGattElement, Entry> elementIndex = new IdentityHashMap<>(); // element实例到统计的索引
+
+    BleGattLatencyStats() {
+        for(BleGattCmdType type : BleGattCmdType.values()) {
+            typeEntries.put(type, new Entry(null));
+        }
+    }
+
+    /**
+     * 记录一条命令的时延，时间都取自SystemClock.elapsedRealtime()
+     * @param enqueueTime 进入队列的时间
+     * @param issueTime 第一次发出的时间
+     * @param responseTime 收到响应的时间
+     * @param finishTime 命令完成回调的时间
+     */
+    void record(BleGattCmdType type, BleGattElement element, long enqueueTime, long issueTime, long responseTime, long finishTime) {
+        typeEntries.get(type).record(enqueueTime, issueTime, responseTime, finishTime);
+        if(element != null) {
+            Entry entry = findEntry(element, true);
+            if(entry != null) {
+                entry.record(enqueueTime, issueTime, responseTime, finishTime);
+            }
+        }
+    }
+
+    // 查找element的统计。先按实例查，再按操作的Gatt对象查，找到后把该实例加入索引
+    private synchronized Entry findEntry(BleGattElement element, boolean create) {
+        Entry entry = elementIndex.get(element);
+        if(entry != null) return entry;
+
+        for(Entry e : elementEntries) {
+            if(e.element.isSameTarget(element)) {
+                entry = e;
+                break;
+            }
+        }
+        if(entry == null) {
+            if(!create || elementEntries.size() >= MAX_ELEMENT_NUM) return null;
+            entry = new Entry(element);
+            elementEntries.add(entry);
+        }
+        if(elementIndex.size() < MAX_ELEMENT_NUM * 4) {
+            elementIndex.put(element, entry);
+        }
+        return entry;
+    }
+
+    // 某一类命令某一段时延的直方图快照
+    public BleGattLatencyHistogram getHistogram(BleGattCmdType type, Stage stage) {
+        return typeEntries.get(type).histograms[stage.ordinal()].snapshot();
+    }
+
+    // 某一element上的命令某一段时延的直方图快照，没有记录时返回空直方图
+    public BleGattLatencyHistogram getHistogram(BleGattElement element, Stage stage) {
+        Entry entry = findEntry(element, false);
+        return (entry == null) ? new BleGattLatencyHistogram() : entry.histograms[stage.ordinal()].snapshot();
+    }
+
+    // 有记录的element
+    public synchronized List<BleGattElement> getElements() {
+        List<BleGattElement> elements = new ArrayList<>(elementEntries.size());
+        for(Entry entry : elementEntries) {
+            elements.add(entry.element);
+        }
+        return elements;
+    }
+
+    // 清除所有记录
+    public synchronized void reset() {
+        for(Entry entry : typeEntries.values()) {
+            entry.reset();
+        }
+        elementEntries.clear();
+        elementIndex.clear();
+    }
+
+    @Override
+    public synchronized String toString() {
+        StringBuilder builder = new StringBuilder("BleGattLatencyStats{");
+        for(Map.Entry<BleGattCmdType, Entry> typeEntry : typeEntries.entrySet()) {
+            BleGattLatencyHistogram total = typeEntry.getValue().histograms[Stage.TOTAL.ordinal()];
+            if(total.getCount() > 0) {
+                builder.append("\n  ").append(typeEntry.getKey()).append(": ").append(total);
+            }
+        }
+        for(Entry entry : elementEntries) {
+            builder.append("\n  ").append(entry.element).append(": ").append(entry.histograms[Stage.TOTAL.ordinal()]);
+        }
+        return builder.append("\n}").toString();
+    }
+}
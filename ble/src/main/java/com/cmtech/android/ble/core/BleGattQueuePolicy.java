@@ -0,0 +1,20 @@
+package com.cmtech.android.ble.core;
+
+/**
+ *
+ * ClassName:      BleGattQueuePolicy
+ * Description:    Gatt命令队列已满时的处理策略。队列容量只限制排队中的命令，不包括在途命令
+ * Author:         chenm
+ * CreateDate:     2026-10-16 19:20
+ * UpdateUser:     chenm
+ * UpdateDate:     2026-10-16 19:20
+ * UpdateRemark:   无
+ * Version:        1.0
+ */
+
+public enum BleGattQueuePolicy {
+    BLOCK, // 阻塞提交线程直到队列有空位，最长等待一个数据操作超时时间。在回调线程和调度线程中提交时不阻塞，直接拒绝
+    REJECT, // 拒绝新命令，新命令以失败回调，缺省策略
+    DROP_OLDEST, // 丢弃优先级不高于新命令的最早排队的命令，被丢弃的命令以失败回调
+    DROP_STALE // 丢弃排队超过陈旧时间的命令，仍然不够时丢弃最早排队的操作同一element的同类命令，再不够时拒绝新命令
+}
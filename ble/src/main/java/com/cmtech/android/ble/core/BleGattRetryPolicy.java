@@ -0,0 +1,172 @@
+package com.cmtech.android.ble.core;
+
+import android.bluetooth.BluetoothGatt;
+
+import com.cmtech.android.ble.BleConfig;
+import com.cmtech.android.ble.exception.BleException;
+import com.cmtech.android.ble.exception.GattException;
+import com.cmtech.android.ble.exception.TimeoutException;
+
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ *
+ * ClassName:      BleGattRetryPolicy
+ * Description:    Gatt命令的超时和重试策略。命令超时或者返回可重试的状态码时，按指数退避重新发出，
+ *                 重试次数用完后才作为失败回调，并按策略决定是否断开连接。
+ *                 长读和可靠写的超时时间针对整条命令，数据较长时应设置更长的超时。
+ *                 缺省只重试读操作（包括读描述符）。写操作超时或失败时设备可能已经执行了它，重试会重复执行，
+ *                 因此写、可靠写、无响应写和Notify/Indicate的使能都不重试，调用者确认写操作可以重复执行时
+ *                 用setRetryWrites(true)的策略单独指定
+ * Author:         chenm
+ * CreateDate:     2026-10-16 18:10
+ * UpdateUser:     chenm
+ * UpdateDate:     2026-10-16 18:10
+ * UpdateRemark:   无
+ * Version:        1.0
+ */
+
+public class BleGattRetryPolicy {
+    public static final int GATT_ERROR = 0x85; // 协议栈内部错误，即常见的133错误
+    public static final int GATT_BUSY = 0x84; // 协议栈忙
+    private static final int DEFAULT_MAX_RETRIES = 2; // 缺省重试次数
+    private static final int DEFAULT_BACKOFF = 50; // 缺省的第一次重试前的等待时间，单位：毫秒
+    private static final float DEFAULT_BACKOFF_MULTIPLIER = 2.0f; // 缺省的退避倍数
+
+    private int timeout = 0; // 超时时间，单位：毫秒。不大于0时使用BleConfig中的数据操作超时时间
+    private int maxRetries = DEFAULT_MAX_RETRIES;
+    private int backoff = DEFAULT_BACKOFF;
+    private float backoffMultiplier = DEFAULT_BACKOFF_MULTIPLIER;
+    private boolean retryOnTimeout = true; // 超时是否重试
+    private boolean retryWrites = false; // 写操作是否重试，为true时写操作与读操作按同样的规则重试
+    private boolean disconnectOnFailure = true; // 最终失败时是否断开连接
+    private final Set<Integer> retryableStatuses = new HashSet<>(); // 可重试的Gatt状态码
+
+    public BleGattRetryPolicy() {
+        retryableStatuses.add(GATT_ERROR);
+        retryableStatuses.add(GATT_BUSY);
+        retryableStatuses.add(BluetoothGatt.GATT_FAILURE);
+        retryableStatuses.add(BluetoothGatt.GATT_CONNECTION_CONGESTED);
+    }
+
+    // 不重试的策略，失败时直接回调
+    public static BleGattRetryPolicy noRetry() {
+        return new BleGattRetryPolicy().setMaxRetries(0);
+    }
+
+    public int getTimeout() {
+        return (timeout > 0) ? timeout : BleConfig.getInstance().getDataOperateTimeout();
+    }
+
+    public BleGattRetryPolicy setTimeout(int timeout) {
+        this.timeout = timeout;
+        return this;
+    }
+
+    public int getMaxRetries() {
+        return maxRetries;
+    }
+
+    public BleGattRetryPolicy setMaxRetries(int maxRetries) {
+        this.maxRetries = Math.max(0, maxRetries);
+        return this;
+    }
+
+    public int getBackoff() {
+        return backoff;
+    }
+
+    public BleGattRetryPolicy setBackoff(int backoff) {
+        this.backoff = Math.max(0, backoff);
+        return this;
+    }
+
+    public float getBackoffMultiplier() {
+        return backoffMultiplier;
+    }
+
+    public BleGattRetryPolicy setBackoffMultiplier(float backoffMultiplier) {
+        this.backoffMultiplier = Math.max(1.0f, backoffMultiplier);
+        return this;
+    }
+
+    public boolean isRetryOnTimeout() {
+        return retryOnTimeout;
+    }
+
+    public BleGattRetryPolicy setRetryOnTimeout(boolean retryOnTimeout) {
+        this.retryOnTimeout = retryOnTimeout;
+        return this;
+    }
+
+    public boolean isRetryWrites() {
+        return retryWrites;
+    }
+
+    // 设置写操作是否重试。只有写操作可以重复执行（如写入同样的配置值）时才应打开
+    public BleGattRetryPolicy setRetryWrites(boolean retryWrites) {
+        this.retryWrites = retryWrites;
+        return this;
+    }
+
+    public boolean isDisconnectOnFailure() {
+        return disconnectOnFailure;
+    }
+
+    public BleGattRetryPolicy setDisconnectOnFailure(boolean disconnectOnFailure) {
+        this.disconnectOnFailure = disconnectOnFailure;
+        return this;
+    }
+
+    public BleGattRetryPolicy addRetryableStatus(int status) {
+        retryableStatuses.add(status);
+        return this;
+    }
+
+    public BleGattRetryPolicy removeRetryableStatus(int status) {
+        retryableStatuses.remove(status);
+        return this;
+    }
+
+    public boolean isRetryableStatus(int status) {
+        return retryableStatuses.contains(status);
+    }
+
+    /**
+     * 判断一次失败是否应该重试
+     * @param cmdType 命令类型，写命令只在retryWrites为true时重试
+     * @param retries 已经重试的次数
+     * @param exception 本次失败的异常
+     */
+    boolean shouldRetry(BleGattCmdType cmdType, int retries, BleException exception) {
+        if(retries >= maxRetries) {
+            return false;
+        }
+        if(!isRead(cmdType) && !retryWrites) {
+            return false;
+        }
+        if(exception instanceof TimeoutException) {
+            return retryOnTimeout;
+        }
+        return (exception instanceof GattException) && isRetryableStatus(((GattException) exception).getGattStatus());
+    }
+
+    // 读操作重复执行不会改变设备状态
+    private static boolean isRead(BleGattCmdType cmdType) {
+        return cmdType == BleGattCmdType.GATT_CMD_READ || cmdType == BleGattCmdType.GATT_CMD_READ_LONG;
+    }
+
+    /**
+     * 第retry次重试前的等待时间
+     * @param retry 重试序号，从1开始
+     * @return 等待时间，单位：毫秒
+     */
+    long getBackoffTime(int retry) {
+        double time = backoff;
+        for(int i = 1; i < retry; i++) {
+            time *= backoffMultiplier;
+        }
+        return (long) time;
+    }
+}
@@ -0,0 +1,656 @@
+package com.cmtech.android.ble.core;
+
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.os.Message;
+import android.os.Process;
+import android.os.SystemClock;
+
+import com.cmtech.android.ble.BleConfig;
+import com.cmtech.android.ble.callback.IBleDataCallback;
+import com.cmtech.android.ble.exception.BleException;
+import com.cmtech.android.ble.exception.OtherException;
+import com.cmtech.android.ble.utils.BleLog;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ *
+ * ClassName:      BleGattScheduler
+ * Description:    所有已连接设备共享的Gatt命令调度器。每个设备对应一条串行的命令通道（Lane），
+ *                 所有通道由一个小线程池发出命令。命令发出后线程不等待响应，响应到达时再调度该通道的下一条命令，
+ *                 因此线程数与连接的设备数无关。就绪的通道在线程池队列中先进先出，每次最多发出一个窗口的命令，
+ *                 各设备之间轮流执行。通道内按优先级分队列，总是先发出优先级最高的就绪命令。
+ *                 所有命令的超时和重试由一个共享的定时器线程触发。定时消息取自Android的Message池，
+ *                 并带有命令的定时令牌，命令结束或回收后到达的过期消息被忽略，因此超时和重试的定时不需要新建对象
+ * Author:         chenm
+ * CreateDate:     2026-10-16 16:00
+ * UpdateUser:     chenm
+ * UpdateDate:     2026-10-16 16:00
+ * UpdateRemark:   无
+ * Version:        1.0
+ */
+
+final class BleGattScheduler {
+    private static final int POOL_SIZE = 2; // 线程池大小
+    private static final int KEEP_ALIVE_TIME = 30; // 空闲线程的存活时间，单位：秒
+    private static final int PRIORITY_NUM = BleGattCmdPriority.values().length; // 优先级数
+    private static final int MSG_TIMEOUT = 1; // 命令超时，obj为命令，arg1为定时令牌
+    private static final int MSG_RETRY = 2; // 命令重试，obj为命令，arg1为定时令牌
+
+    private static final ThreadPoolExecutor pool;
+    private static final Handler timer; // 共享定时器，执行命令超时和重试
+
+    static {
+        final AtomicInteger threadNum = new AtomicInteger(0);
+        pool = new ThreadPoolExecutor(POOL_SIZE, POOL_SIZE, KEEP_ALIVE_TIME, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                return new SchedulerThread(runnable, "MT_Gatt_Scheduler_" + threadNum.incrementAndGet());
+            }
+        });
+        pool.allowCoreThreadTimeOut(true);
+
+        HandlerThread timerThread = new HandlerThread("MT_Gatt_Timer", Process.THREAD_PRIORITY_FOREGROUND);
+        timerThread.start();
+        timer = new Handler(timerThread.getLooper()) {
+            @Override
+            public void handleMessage(Message msg) {
+                BleSerialGattCommand command = (BleSerialGattCommand) msg.obj;
+                if(msg.what == MSG_TIMEOUT) {
+                    command.onTimeout(msg.arg1);
+                } else if(msg.what == MSG_RETRY) {
+                    command.onRetry(msg.arg1);
+                }
+            }
+        };
+    }
+
+    private BleGattScheduler() {
+    }
+
+    // 调度线程，用于识别当前线程是否为调度线程
+    private static final class SchedulerThread extends Thread {
+        SchedulerThread(Runnable runnable, String name) {
+            super(runnable, name);
+        }
+    }
+
+    // 当前线程是否为Gatt命令的处理线程。这些线程负责让命令队列前进，不能阻塞等待队列空位
+    private static boolean isInternalThread() {
+        Looper looper = Looper.myLooper();
+        return Thread.currentThread() instanceof SchedulerThread
+                || (looper != null && (looper == timer.getLooper() || looper == BleCallbackThread.getLooper()));
+    }
+
+    // 为一个设备创建命令通道
+    static Lane newLane(int windowSize) {
+        return new Lane(windowSize);
+    }
+
+    // 命令超时定时，token为命令当前的定时令牌
+    static void scheduleTimeout(BleSerialGattCommand command, int token, long delayMillis) {
+        timer.sendMessageDelayed(timer.obtainMessage(MSG_TIMEOUT, token, 0, command), delayMillis);
+    }
+
+    // 命令重试定时，token为命令当前的定时令牌
+    static void scheduleRetry(BleSerialGattCommand command, int token, long delayMillis) {
+        timer.sendMessageDelayed(timer.obtainMessage(MSG_RETRY, token, 0, command), delayMillis);
+    }
+
+    // 从定时器队列中移除命令的所有定时消息。已经在处理中的消息由令牌判断是否过期
+    static void cancelTimers(BleSerialGattCommand command) {
+        timer.removeMessages(MSG_TIMEOUT, command);
+        timer.removeMessages(MSG_RETRY, command);
+    }
+
+    // 当前存活的调度线程数
+    static int getThreadCount() {
+        return pool.getPoolSize();
+    }
+
+    /**
+     * 一个设备的命令通道。命令先按优先级、再按提交顺序发出；可流水线执行的命令最多有windowSize条同时在途，
+     * 其他命令要等所有在途命令完成后才发出，且发出后独占通道直到完成。
+     * 同一批处理的命令一条结束后下一条立即发出，只有更高优先级的命令可以插入
+     */
+    static final class Lane {
+        private final int windowSize; // 在途命令窗口大小
+        private final ArrayDeque<BleSerialGattCommand>[] pending; // 各优先级等待发出的命令，下标为优先级序号
+        private final long[] waitTotal = new long[PRIORITY_NUM]; // 各优先级已发出命令的累计等待时间
+        private final long[] waitMax = new long[PRIORITY_NUM]; // 各优先级已发出命令的最长等待时间
+        private final long[] issuedCount = new long[PRIORITY_NUM]; // 各优先级已发出的命令数
+        private long savedRoundTrips = 0; // 因命令合并而省去的Gatt往返次数
+        private long submittedCount = 0; // 累计提交成功的命令数，包括被合并的命令
+        private int inFlight = 0; // 在途的命令数
+        private boolean scheduled = false; // 是否已经在线程池中排队或正在发出命令
+        private boolean alive = true; // 通道是否有效，关闭后丢弃所有命令
+        private Object lastBatch; // 最后发出的命令所属的批处理
+        private BleSerialGattCommand continuation; // 已经取出、等待调度线程紧接着发出的批处理的下一步
+        private int capacity = 0; // 排队命令的最大数量，不大于0表示不限制
+        private BleGattQueuePolicy queuePolicy = BleGattQueuePolicy.REJECT; // 队列已满时的处理策略
+        private long staleTime = 0; // DROP_STALE策略下命令的陈旧时间，单位：毫秒
+        private int pendingCount = 0; // 排队中的命令数
+        private int peakPendingCount = 0; // 排队中命令数的峰值
+        private long rejectedCount = 0; // 因队列已满被拒绝的命令数
+        private long droppedCount = 0; // 因队列已满被丢弃的命令数
+        private int waiters = 0; // 等待队列空位的提交线程数
+        private ArrayList<BleSerialGattCommand> droppedCommands; // 本次提交中被丢弃、等待在锁外回调失败的命令
+        private final ArrayList<Runnable> deferredTasks = new ArrayList<>(); // 等待在发出下一条命令前执行的任务
+
+        // 发出命令的任务
+        private final Runnable issueTask = new Runnable() {
+            @Override
+            public void run() {
+                issue();
+            }
+        };
+
+        // 命令完成后的动作
+        private final Runnable finishAction = new Runnable() {
+            @Override
+            public void run() {
+                onCommandFinished();
+            }
+        };
+
+        private Lane(int windowSize) {
+            if(windowSize < 1) {
+                throw new IllegalArgumentException("The window size must be positive.");
+            }
+            this.windowSize = windowSize;
+            pending = newQueues();
+        }
+
+        @SuppressWarnings("unchecked")
+        private static ArrayDeque<BleSerialGattCommand>[] newQueues() {
+            ArrayDeque<BleSerialGattCommand>[] queues = new ArrayDeque[PRIORITY_NUM];
+            for(int i = 0; i < PRIORITY_NUM; i++) {
+                queues[i] = new ArrayDeque<>();
+            }
+            return queues;
+        }
+
+        int getWindowSize() {
+            return windowSize;
+        }
+
+        // 设置队列容量和队列已满时的处理策略，capacity不大于0表示不限制
+        synchronized void setQueueLimit(int capacity, BleGattQueuePolicy queuePolicy, long staleTime) {
+            if(queuePolicy == null) {
+                throw new NullPointerException("The queue policy is null.");
+            }
+            this.capacity = capacity;
+            this.queuePolicy = queuePolicy;
+            this.staleTime = staleTime;
+            if(waiters > 0) notifyAll();
+        }
+
+        /**
+         * 提交命令
+         * @return 是否提交成功。通道已经关闭或者队列已满被拒绝时返回false，命令没有进入队列
+         */
+        boolean submit(BleSerialGattCommand command) {
+            boolean admitted;
+            List<BleSerialGattCommand> dropped;
+            synchronized (this) {
+                if(!alive) return false;
+
+                ArrayDeque<BleSerialGattCommand> queue = pending[command.getPriority().ordinal()];
+                if(command.isCoalescable() && coalesce(queue, command)) {
+                    savedRoundTrips++;
+                    submittedCount++;
+                    // 被合并的命令不再使用，回收重用
+                    command.recycle();
+                    return true;
+                }
+                admitted = admit(1, command);
+                dropped = takeDroppedCommands();
+                if(admitted) {
+                    command.setEnqueueTime(SystemClock.elapsedRealtime());
+                    queue.add(command);
+                    submittedCount++;
+                    onEnqueued(1);
+                }
+            }
+            failDropped(dropped);
+            return admitted;
+        }
+
+        /**
+         * 一次提交多条命令，如一个批处理的所有步骤或者一次写入的所有分包。
+         * 这些命令要么全部进入队列，要么全部不进入；它们在队列中连续排列，不参与合并
+         * @return 是否提交成功
+         */
+        boolean submitAll(List<BleSerialGattCommand> commands) {
+            if(commands.isEmpty()) return true;
+
+            boolean admitted;
+            List<BleSerialGattCommand> dropped;
+            synchronized (this) {
+                if(!alive) return false;
+
+                admitted = admit(commands.size(), commands.get(0));
+                dropped = takeDroppedCommands();
+                if(admitted) {
+                    long now = SystemClock.elapsedRealtime();
+                    for(BleSerialGattCommand command : commands) {
+                        command.setEnqueueTime(now);
+                        pending[command.getPriority().ordinal()].add(command);
+                    }
+                    submittedCount += commands.size();
+                    onEnqueued(commands.size());
+                }
+            }
+            failDropped(dropped);
+            return admitted;
+        }
+
+        private void onEnqueued(int count) {
+            pendingCount += count;
+            if(pendingCount > peakPendingCount) peakPendingCount = pendingCount;
+            scheduleIfReady();
+        }
+
+        /**
+         * 按队列策略为count条新命令腾出空位，在通道的锁内调用
+         * @param first 新命令中的第一条，新命令的优先级相同
+         * @return 是否可以进入队列
+         */
+        private boolean admit(int count, BleSerialGattCommand first) {
+            if(capacity <= 0 || pendingCount + count <= capacity) return true;
+
+            if(count <= capacity) {
+                switch (queuePolicy) {
+                    case BLOCK:
+                        waitForRoom(count);
+                        break;
+                    case DROP_OLDEST:
+                        while(pendingCount + count > capacity && dropOldest(first.getPriority())) ;
+                        break;
+                    case DROP_STALE:
+                        dropStale();
+                        while(pendingCount + count > capacity && dropSuperseded(first)) ;
+                        break;
+                    default:
+                        break;
+                }
+            }
+            if(alive && (capacity <= 0 || pendingCount + count <= capacity)) return true;
+
+            rejectedCount += count;
+            BleLog.w("The gatt command queue is full, " + count + " command(s) rejected. Queue size: " + pendingCount);
+            return false;
+        }
+
+        // 等待队列空位，最长等待一个数据操作超时时间。处理线程中提交时不等待，避免队列永远无法前进
+        private void waitForRoom(int count) {
+            if(isInternalThread()) return;
+
+            long deadline = SystemClock.elapsedRealtime() + BleConfig.getInstance().getDataOperateTimeout();
+            waiters++;
+            try {
+                while(alive && capacity > 0 && pendingCount + count > capacity) {
+                    long remain = deadline - SystemClock.elapsedRealtime();
+                    if(remain <= 0) break;
+                    wait(remain);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                waiters--;
+            }
+        }
+
+        // 丢弃优先级不高于priority的最早排队的命令
+        private boolean dropOldest(BleGattCmdPriority priority) {
+            for(int i = PRIORITY_NUM - 1; i >= priority.ordinal(); i--) {
+                BleSerialGattCommand command = pending[i].poll();
+                if(command != null) {
+                    drop(command);
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        // 丢弃所有排队超过陈旧时间的命令
+        private void dropStale() {
+            long now = SystemClock.elapsedRealtime();
+            for(ArrayDeque<BleSerialGattCommand> queue : pending) {
+                Iterator<BleSerialGattCommand> iterator = queue.iterator();
+                while(iterator.hasNext()) {
+                    BleSerialGattCommand command = iterator.next();
+                    if(now - command.getEnqueueTime() >= staleTime) {
+                        iterator.remove();
+                        drop(command);
+                    }
+                }
+            }
+        }
+
+        // 丢弃最早排队的与新命令操作同一element的同类命令，它的结果已经被新命令取代
+        private boolean dropSuperseded(BleSerialGattCommand first) {
+            Iterator<BleSerialGattCommand> iterator = pending[first.getPriority().ordinal()].iterator();
+            while(iterator.hasNext()) {
+                BleSerialGattCommand command = iterator.next();
+                if(command.getBleGattCmdType() == first.getBleGattCmdType() && command.isSameTarget(first)) {
+                    iterator.remove();
+                    drop(command);
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        private void drop(BleSerialGattCommand command) {
+            pendingCount--;
+            droppedCount++;
+            if(droppedCommands == null) {
+                droppedCommands = new ArrayList<>();
+            }
+            droppedCommands.add(command);
+        }
+
+        // 取出本次提交中被丢弃的命令，没有时返回null
+        private List<BleSerialGattCommand> takeDroppedCommands() {
+            if(droppedCommands == null || droppedCommands.isEmpty()) return null;
+            List<BleSerialGattCommand> dropped = new ArrayList<>(droppedCommands);
+            droppedCommands.clear();
+            return dropped;
+        }
+
+        // 在锁外回调被丢弃的命令失败，并回收命令对象
+        private static void failDropped(List<BleSerialGattCommand> dropped) {
+            if(dropped == null) return;
+            for(BleSerialGattCommand command : dropped) {
+                command.abort(new OtherException("The command is dropped from the full gatt command queue."));
+                command.recycle();
+            }
+        }
+
+        // 从队尾向前找操作同一Gatt对象的最近一条命令，能合并则合并。
+        // 遇到不能合并的同对象命令就停止，避免新命令越过它改变操作顺序
+        private static boolean coalesce(ArrayDeque<BleSerialGattCommand> queue, BleSerialGattCommand command) {
+            Iterator<BleSerialGattCommand> iterator = queue.descendingIterator();
+            while(iterator.hasNext()) {
+                BleSerialGattCommand queued = iterator.next();
+                if(queued.isSameTarget(command)) {
+                    return queued.coalesce(command);
+                }
+            }
+            return false;
+        }
+
+        /**
+         * 取消一个调用者的命令。所有调用者都已取消且还在队列中的命令从队列中移除并回收，
+         * 已经发出的命令等待响应后让出通道。
+         * 锁的顺序：通道的锁内只会取得排队中命令的锁（合并时），而排队中的命令在持有自己的锁时不回调、也不取得通道的锁；
+         * 命令结束时在命令的锁内执行finishAction取得通道的锁，这时命令已经不在队列中
+         * @return 是否取消成功
+         */
+        boolean cancel(BleSerialGattCommand command, int generation, IBleDataCallback callback, BleException exception) {
+            int result = command.cancel(generation, callback, exception);
+            if(result != BleSerialGattCommand.CANCEL_WITHDRAWN) {
+                return result == BleSerialGattCommand.CANCEL_DONE;
+            }
+
+            boolean removed;
+            synchronized (this) {
+                // 命令可能已经被取出发出，或者已经回收重用，此时由发出过程让出通道。
+                // 排队中的命令不会被回收，在通道的锁内检查代数后移除是安全的
+                removed = false;
+                if(command.getGeneration() == generation) {
+                    for(ArrayDeque<BleSerialGattCommand> queue : pending) {
+                        if(queue.remove(command)) {
+                            removed = true;
+                            break;
+                        }
+                    }
+                }
+                if(removed) {
+                    pendingCount--;
+                    if(waiters > 0) notifyAll();
+                }
+            }
+            if(removed) {
+                command.recycle();
+            }
+            return true;
+        }
+
+        /**
+         * 在调度线程中、不持有任何锁时执行一个任务，任务在通道发出下一条命令之前执行。
+         * 命令的回调在该命令的锁内执行，回调中要终止同一组的其他命令时用它推迟到锁外
+         */
+        void post(Runnable task) {
+            synchronized (this) {
+                if(alive) {
+                    deferredTasks.add(task);
+                    scheduleIfReady();
+                    return;
+                }
+            }
+            pool.execute(task);
+        }
+
+        // 因命令合并而省去的Gatt往返次数
+        synchronized long getSavedRoundTrips() {
+            return savedRoundTrips;
+        }
+
+        // 累计提交成功的命令数，包括被合并的命令
+        synchronized long getSubmittedCount() {
+            return submittedCount;
+        }
+
+        // 关闭通道，还没发出的命令以失败结束。在途命令的响应到达后不再调度
+        void close() {
+            List<BleSerialGattCommand> dropped = new ArrayList<>();
+            synchronized (this) {
+                if(!alive) return;
+                alive = false;
+                for(ArrayDeque<BleSerialGattCommand> queue : pending) {
+                    dropped.addAll(queue);
+                    queue.clear();
+                }
+                if(continuation != null) {
+                    dropped.add(continuation);
+                    continuation = null;
+                }
+                pendingCount = 0;
+                inFlight = 0;
+                lastBatch = null;
+                if(waiters > 0) notifyAll();
+            }
+
+            // 在锁外回调，调用者可能在回调中提交新的命令
+            for(BleSerialGattCommand command : dropped) {
+                command.abort(new OtherException("The gatt command executor is stopped."));
+                command.recycle();
+            }
+        }
+
+        synchronized boolean isAlive() {
+            return alive;
+        }
+
+        // 排队中和在途的命令数
+        synchronized int size() {
+            return inFlight + pendingCount;
+        }
+
+        // 排队中的命令数
+        synchronized int getPendingCount() {
+            return pendingCount;
+        }
+
+        // 本次连接中排队命令数的峰值
+        synchronized int getPeakPendingCount() {
+            return peakPendingCount;
+        }
+
+        // 本次连接中因队列已满被拒绝的命令数
+        synchronized long getRejectedCount() {
+            return rejectedCount;
+        }
+
+        // 本次连接中因队列已满被丢弃的命令数
+        synchronized long getDroppedCount() {
+            return droppedCount;
+        }
+
+        // 某一优先级排队中的命令数
+        synchronized int getQueueDepth(BleGattCmdPriority priority) {
+            return pending[priority.ordinal()].size();
+        }
+
+        // 某一优先级已发出命令的平均等待时间，单位：毫秒
+        synchronized long getAverageWaitTime(BleGattCmdPriority priority) {
+            int i = priority.ordinal();
+            return (issuedCount[i] == 0) ? 0 : waitTotal[i] / issuedCount[i];
+        }
+
+        // 某一优先级已发出命令的最长等待时间，单位：毫秒。包括还在排队的命令已经等待的时间
+        synchronized long getMaxWaitTime(BleGattCmdPriority priority) {
+            int i = priority.ordinal();
+            BleSerialGattCommand head = pending[i].peek();
+            long headWait = (head == null) ? 0 : SystemClock.elapsedRealtime() - head.getEnqueueTime();
+            return Math.max(waitMax[i], headWait);
+        }
+
+        // 在途的命令数
+        synchronized int getInFlightCount() {
+            return inFlight;
+        }
+
+        // 优先级最高的非空队列的队首命令
+        private BleSerialGattCommand peekHighest() {
+            for(ArrayDeque<BleSerialGattCommand> queue : pending) {
+                BleSerialGattCommand command = queue.peek();
+                if(command != null) return command;
+            }
+            return null;
+        }
+
+        private boolean canIssue() {
+            BleSerialGattCommand head = peekHighest();
+            if(!alive || head == null) return false;
+            if(head.getBleGattCmdType().isPipelinable()) {
+                return inFlight < windowSize;
+            }
+            // 请求/响应类命令要等待所有在途命令完成，保证顺序
+            return inFlight == 0;
+        }
+
+        private void scheduleIfReady() {
+            if(!scheduled && (!deferredTasks.isEmpty() || canIssue())) {
+                scheduled = true;
+                pool.execute(issueTask);
+            }
+        }
+
+        // 在调度线程中发出命令，每次最多发出一个窗口的命令后让出线程，给其他设备的通道执行的机会。
+        // 推迟执行的任务总是在下一条命令发出前执行
+        private void issue() {
+            int issued = 0;
+            while(issued < windowSize) {
+                BleSerialGattCommand command = null;
+                Runnable[] tasks = null;
+                synchronized (this) {
+                    if(continuation != null) {
+                        command = continuation;
+                        continuation = null;
+                    } else if(!deferredTasks.isEmpty()) {
+                        tasks = deferredTasks.toArray(new Runnable[0]);
+                        deferredTasks.clear();
+                    } else if(canIssue()) {
+                        command = pollForIssue();
+                    } else {
+                        scheduled = false;
+                        return;
+                    }
+                }
+                if(tasks != null) {
+                    for(Runnable task : tasks) {
+                        task.run();
+                    }
+                } else {
+                    issueCommand(command);
+                    issued++;
+                }
+            }
+
+            synchronized (this) {
+                scheduled = false;
+                scheduleIfReady();
+            }
+        }
+
+        // 取出优先级最高的就绪命令，计入在途命令
+        private BleSerialGattCommand pollForIssue() {
+            BleSerialGattCommand command = pending[peekHighest().getPriority().ordinal()].poll();
+            pendingCount--;
+            if(waiters > 0) notifyAll();
+            inFlight++;
+            recordWaitTime(command);
+            lastBatch = command.getBatch();
+            return command;
+        }
+
+        // 在锁外发出命令，命令可能在发出过程中就已完成并回调finishAction
+        private void issueCommand(BleSerialGattCommand command) {
+            try {
+                command.executeWithoutWaiting(finishAction);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                onCommandFinished();
+            } catch (RuntimeException e) {
+                BleLog.e("Command issue failure: " + command + " " + e);
+                onCommandFinished();
+            }
+        }
+
+        private void recordWaitTime(BleSerialGattCommand command) {
+            int i = command.getPriority().ordinal();
+            long wait = SystemClock.elapsedRealtime() - command.getEnqueueTime();
+            waitTotal[i] += wait;
+            issuedCount[i]++;
+            if(wait > waitMax[i]) waitMax[i] = wait;
+        }
+
+        // 命令结束。正在执行的批处理的下一步已经就绪时先取出，保证紧接着发出。
+        // 发出交给调度线程：当前线程还持有结束命令的锁，在这里发出会嵌套命令的锁，下一步同步失败时还会递归
+        private void onCommandFinished() {
+            synchronized (this) {
+                if(!alive) return;
+
+                if(inFlight > 0) inFlight--;
+                continuation = pollBatchContinuation();
+                if(continuation != null) {
+                    scheduled = true;
+                    pool.execute(issueTask);
+                } else {
+                    scheduleIfReady();
+                }
+            }
+        }
+
+        private BleSerialGattCommand pollBatchContinuation() {
+            if(scheduled || lastBatch == null || !deferredTasks.isEmpty() || !canIssue() || peekHighest().getBatch() != lastBatch) {
+                return null;
+            }
+            return pollForIssue();
+        }
+    }
+}
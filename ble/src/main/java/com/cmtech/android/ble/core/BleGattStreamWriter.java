@@ -0,0 +1,144 @@
+package com.cmtech.android.ble.core;
+
+import android.os.SystemClock;
+
+import com.cmtech.android.ble.callback.IBleDataCallback;
+import com.cmtech.android.ble.callback.IBleStreamCallback;
+import com.cmtech.android.ble.exception.BleException;
+import com.cmtech.android.ble.exception.OtherException;
+import com.cmtech.android.ble.utils.BleLog;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+
+/**
+ *
+ * ClassName:      BleGattStreamWriter
+ * Description:    流式写数据器。将大块数据切分为单包，用无响应写发送，并用信用值做流量控制：
+ *                 每发出一包消耗一个信用，每收到一次onCharacteristicWrite确认归还一个信用。
+ *                 数据包以BULK优先级发出，不会阻塞控制命令。任一包失败后取消已经排队的后续数据包，不再发出新的数据包
+ * Author:         chenm
+ * CreateDate:     2026-10-16 09:10
+ * UpdateUser:     chenm
+ * UpdateDate:     2026-10-16 09:10
+ * UpdateRemark:   无
+ * Version:        1.0
+ */
+
+class BleGattStreamWriter {
+    static final int DEFAULT_CREDITS = 8; // 缺省信用值
+
+    private final BleSerialGattCommandExecutor executor; // 命令执行器
+    private final BleGattElement element; // 写入的element
+    private final byte[] data; // 待写数据
+    private final int chunkSize; // 单包长度
+    private final IBleStreamCallback streamCallback; // 流回调
+    private int credits; // 剩余信用值
+    private int sentBytes; // 已发出的字节数
+    private int ackedBytes; // 已确认的字节数
+    private long startTime; // 开始时间
+    private boolean finished; // 是否已经结束
+    private final ArrayDeque<BleGattHandle> outstanding = new ArrayDeque<>(); // 已发出还没确认的数据包的句柄，按发出顺序排列
+
+    // 单包写回调，归还信用并发出后续数据包
+    private final IBleDataCallback chunkCallback = new IBleDataCallback() {
+        @Override
+        public void onSuccess(byte[] data, BleGattElement element) {
+            onChunkWritten(data.length);
+        }
+
+        @Override
+        public void onFailure(BleException exception) {
+            onChunkFailure(exception);
+        }
+    };
+
+    BleGattStreamWriter(BleSerialGattCommandExecutor executor, BleGattElement element, byte[] data,
+                        int chunkSize, int credits, IBleStreamCallback streamCallback) {
+        if(executor == null || element == null || data == null || streamCallback == null) {
+            throw new IllegalArgumentException("The executor, element, data or callback is null.");
+        }
+        if(chunkSize < 1 || credits < 1) {
+            throw new IllegalArgumentException("The chunk size and credits must be positive.");
+        }
+
+        this.executor = executor;
+        this.element = element;
+        this.data = data;
+        this.chunkSize = chunkSize;
+        this.credits = credits;
+        this.streamCallback = streamCallback;
+    }
+
+    // 开始写
+    synchronized void start() {
+        if(!executor.isAlive()) {
+            finished = true;
+            streamCallback.onFailure(new OtherException("The gatt command executor is stopped."));
+            return;
+        }
+
+        startTime = SystemClock.elapsedRealtime();
+        if(data.length == 0) {
+            finish();
+            return;
+        }
+        pump();
+    }
+
+    // 在信用允许的范围内发出数据包
+    private void pump() {
+        // 提交失败时会在本线程中回调失败，之后不再发出
+        while(!finished && credits > 0 && sentBytes < data.length) {
+            int end = Math.min(sentBytes + chunkSize, data.length);
+            byte[] chunk = Arrays.copyOfRange(data, sentBytes, end);
+            credits--;
+            sentBytes = end;
+            BleGattHandle handle = executor.writeNoResponse(element, chunk, BleGattCmdPriority.BULK, chunkCallback);
+            if(!finished) {
+                outstanding.add(handle);
+            }
+        }
+    }
+
+    private synchronized void onChunkWritten(int length) {
+        if(finished) return;
+
+        // 通道按顺序发出数据包，确认也按顺序到达
+        outstanding.poll();
+        credits++;
+        ackedBytes += length;
+        streamCallback.onProgress(ackedBytes, data.length);
+        if(ackedBytes >= data.length) {
+            finish();
+        } else {
+            pump();
+        }
+    }
+
+    private void onChunkFailure(BleException exception) {
+        BleGattHandle[] handles;
+        synchronized (this) {
+            if(finished) return;
+
+            finished = true;
+            handles = outstanding.toArray(new BleGattHandle[0]);
+            outstanding.clear();
+            BleLog.e("Stream write failure after " + ackedBytes + " bytes: " + exception);
+            streamCallback.onFailure(exception);
+        }
+
+        // 在锁外取消排在失败数据包后面的数据包，取消的回调因流已经结束被忽略
+        for(BleGattHandle handle : handles) {
+            handle.cancel();
+        }
+    }
+
+    private void finish() {
+        finished = true;
+        long elapsed = SystemClock.elapsedRealtime() - startTime;
+        double bytesPerSecond = (elapsed > 0) ? data.length * 1000.0 / elapsed : data.length * 1000.0;
+        BleLog.i("Stream write complete: " + data.length + " bytes in " + elapsed + "ms, " + bytesPerSecond + "B/s");
+        streamCallback.onComplete(data.length, elapsed, bytesPerSecond);
+    }
+}
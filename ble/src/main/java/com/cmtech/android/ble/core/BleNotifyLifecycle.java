@@ -0,0 +1,19 @@
+package com.cmtech.android.ble.core;
+
+/**
+ *
+ * ClassName:      BleNotifyLifecycle
+ * Description:    需要在Notify/Indicate使能时启动、禁止时停止的接收回调，如带消费线程的环形缓冲区。
+ *                 包装其他接收回调的回调（如多包重组器）把启动和停止转给被包装的回调
+ * Author:         chenm
+ * CreateDate:     2026-10-16 23:10
+ * UpdateUser:     chenm
+ * UpdateDate:     2026-10-16 23:10
+ * UpdateRemark:   无
+ * Version:        1.0
+ */
+
+interface BleNotifyLifecycle {
+    void start(); // 使能时由BleGatt调用，每次启动都对应一次停止
+    void stop(); // 禁止或断开时由BleGatt调用
+}
@@ -0,0 +1,187 @@
+package com.cmtech.android.ble.core;
+
+import com.cmtech.android.ble.callback.IBleDataCallback;
+import com.cmtech.android.ble.exception.BleException;
+import com.cmtech.android.ble.utils.BleLog;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ *
+ * ClassName:      BleNotifyRingBuffer
+ * Description:    Notify/Indicate数据环形缓冲区。binder线程中的onCharacteristicChanged只把数据放入缓冲区，
+ *                 由专用的消费线程批量取出后回调，慢速的接收回调不会阻塞蓝牙协议栈。
+ *                 缓冲区为空时消费线程一直挂起，由生产者放入数据时唤醒，空闲时不会周期性地醒来。
+ *                 单生产者单消费者，无锁实现；缓冲区满时按溢出策略丢弃数据并计数
+ * Author:         chenm
+ * CreateDate:     2026-10-16 13:40
+ * UpdateUser:     chenm
+ * UpdateDate:     2026-10-16 13:40
+ * UpdateRemark:   无
+ * Version:        1.0
+ */
+
+public class BleNotifyRingBuffer implements IBleDataCallback, BleNotifyLifecycle {
+    public static final int DEFAULT_CAPACITY = 256; // 缺省容量
+    public static final int DEFAULT_BATCH_SIZE = 32; // 缺省每批取出的最大包数
+
+    // 溢出策略
+    public enum OverflowPolicy {
+        DROP_NEWEST, // 丢弃新到的数据
+        DROP_OLDEST // 丢弃最早的数据
+    }
+
+    private final IBleDataCallback receiveCallback; // 接收回调，在消费线程中执行
+    private final OverflowPolicy overflowPolicy; // 溢出策略
+    private final int batchSize; // 每批取出的最大包数
+    private final byte[][] slots; // 数据槽
+    private final int mask; // 下标掩码，容量为2的幂
+    private final AtomicLong head = new AtomicLong(0); // 消费位置。DROP_OLDEST时生产者也会推进它，所以用CAS
+    private volatile long tail = 0; // 生产位置，只由生产者修改
+    private final AtomicLong droppedCount = new AtomicLong(0); // 丢弃的包数
+    private volatile long deliveredCount = 0; // 已回调的包数，只由消费线程修改
+    private volatile BleGattElement element; // 数据所属的element
+    private volatile Thread consumer; // 消费线程，为null表示已停止
+    private volatile boolean waiting = false; // 消费线程是否因缓冲区为空准备挂起，生产者据此唤醒它
+    private int startCount = 0; // 启动次数减去停止次数。同一个缓冲区可能同时被多个分发表项使用，减到0时才停止
+
+    public BleNotifyRingBuffer(IBleDataCallback receiveCallback) {
+        this(receiveCallback, DEFAULT_CAPACITY, OverflowPolicy.DROP_OLDEST, DEFAULT_BATCH_SIZE);
+    }
+
+    public BleNotifyRingBuffer(IBleDataCallback receiveCallback, int capacity, OverflowPolicy overflowPolicy, int batchSize) {
+        if(receiveCallback == null || overflowPolicy == null) {
+            throw new IllegalArgumentException("The receive callback or overflow policy is null.");
+        }
+        if(capacity < 1 || batchSize < 1) {
+            throw new IllegalArgumentException("The capacity and batch size must be positive.");
+        }
+
+        int size = Integer.highestOneBit(capacity);
+        if(size < capacity) size <<= 1;
+        this.receiveCallback = receiveCallback;
+        this.overflowPolicy = overflowPolicy;
+        this.batchSize = batchSize;
+        this.slots = new byte[size][];
+        this.mask = size - 1;
+    }
+
+    // 生产者：在binder线程中放入数据
+    @Override
+    public void onSuccess(byte[] data, BleGattElement element) {
+        if(this.element != element) {
+            this.element = element;
+        }
+        long t = tail;
+        long h = head.get();
+        if(t - h >= slots.length) {
+            if(overflowPolicy == OverflowPolicy.DROP_NEWEST) {
+                droppedCount.incrementAndGet();
+                return;
+            }
+            // 推进消费位置丢弃最早的数据。CAS失败说明消费者刚取走了一包，已经有空位
+            if(head.compareAndSet(h, h + 1)) {
+                droppedCount.incrementAndGet();
+            }
+        }
+        slots[(int) (t & mask)] = data;
+        tail = t + 1;
+
+        // 只有消费线程取空了缓冲区、准备挂起时才唤醒，数据持续到达时不需要唤醒
+        if(waiting) {
+            Thread thread = consumer;
+            if(thread != null) {
+                LockSupport.unpark(thread);
+            }
+        }
+    }
+
+    @Override
+    public void onFailure(BleException exception) {
+        receiveCallback.onFailure(exception);
+    }
+
+    // 启动消费线程。由BleGatt在使能时调用，每次启动都要对应一次停止
+    @Override
+    public synchronized void start() {
+        startCount++;
+        if(consumer != null) return;
+
+        consumer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                consume();
+            }
+        }, "MT_Notify_Consumer");
+        consumer.start();
+    }
+
+    // 停止消费线程，未取出的数据被丢弃。所有启动都已停止时消费线程才退出
+    @Override
+    public synchronized void stop() {
+        if(startCount > 0 && --startCount > 0) return;
+        Thread thread = consumer;
+        consumer = null;
+        if(thread != null) {
+            LockSupport.unpark(thread);
+        }
+    }
+
+    // 消费线程：批量取出数据并回调
+    private void consume() {
+        // 停止后再次启动会创建新的消费线程，旧线程发现自己不再是消费线程后退出
+        while(consumer == Thread.currentThread()) {
+            int count = 0;
+            long h;
+            while(count < batchSize && (h = head.get()) < tail) {
+                byte[] data = slots[(int) (h & mask)];
+                // CAS失败说明这一包已被生产者按DROP_OLDEST丢弃，重新读取
+                if(head.compareAndSet(h, h + 1)) {
+                    count++;
+                    try {
+                        receiveCallback.onSuccess(data, element);
+                    } catch (RuntimeException e) {
+                        BleLog.e("The notify receive callback throws: " + e);
+                    }
+                }
+            }
+            deliveredCount += count;
+            if(count == 0) {
+                // 先声明将要挂起再检查一次缓冲区：生产者要么在这之前放入数据而被这次检查看到，
+                // 要么在这之后放入数据并看到waiting而唤醒消费线程，因此可以不设超时地挂起
+                waiting = true;
+                if(head.get() >= tail && consumer == Thread.currentThread()) {
+                    LockSupport.park(this);
+                }
+                waiting = false;
+            }
+        }
+    }
+
+    public int getCapacity() {
+        return slots.length;
+    }
+
+    public OverflowPolicy getOverflowPolicy() {
+        return overflowPolicy;
+    }
+
+    // 缓冲区中待取出的包数
+    public int size() {
+        return (int) Math.max(0, tail - head.get());
+    }
+
+    public long getDroppedCount() {
+        return droppedCount.get();
+    }
+
+    public long getDeliveredCount() {
+        return deliveredCount;
+    }
+
+    // 消费线程是否在运行
+    synchronized boolean isStarted() {
+        return consumer != null;
+    }
+}
@@ -0,0 +1,101 @@
+package com.cmtech.android.ble.core;
+
+/**
+ *
+ * ClassName:      BleScanRateLimiter
+ * Description:    扫描启动的令牌桶。系统在30秒内启动扫描超过5次时会静默阻止应用扫描，
+ *                 因此桶中有5个令牌，每次启动物理扫描用掉一个，用掉的令牌在一个周期之后才补回，
+ *                 保证任意一个周期内的启动次数不超过限额。同时统计被推迟的启动次数和推迟时长
+ * Author:         chenm
+ * CreateDate:     2026-10-16 23:00
+ * UpdateUser:     chenm
+ * UpdateDate:     2026-10-16 23:00
+ * UpdateRemark:   无
+ * Version:        1.0
+ */
+
+public class BleScanRateLimiter {
+    private final int quota; // 一个周期内允许的启动次数
+    private final long period; // 周期，单位：毫秒
+    private final long[] startTimes; // 最近quota次启动的时间，0表示令牌未用过
+    private int next = 0; // 下一个要用的令牌，也是最早用掉的令牌
+    // 统计
+    private long startCount = 0; // 启动次数
+    private long deferredCount = 0; // 被推迟的启动次数
+    private long totalDeferredTime = 0; // 累计推迟时长，单位：毫秒
+    private long maxDeferredTime = 0; // 最长推迟时长，单位：毫秒
+
+    BleScanRateLimiter(int quota, long period) {
+        if(quota <= 0 || period <= 0) {
+            throw new IllegalArgumentException("The quota and period must be positive.");
+        }
+        this.quota = quota;
+        this.period = period;
+        this.startTimes = new long[quota];
+    }
+
+    /**
+     * 申请一次启动
+     * @param now 当前时间，取自SystemClock.elapsedRealtime()
+     * @return 0表示可以立即启动，并已用掉一个令牌；否则为还要等待的时间，单位：毫秒
+     */
+    synchronized long tryAcquire(long now) {
+        long oldest = startTimes[next];
+        if(oldest != 0 && now - oldest < period) {
+            return period - (now - oldest);
+        }
+        startTimes[next] = now;
+        next = (next + 1) % quota;
+        startCount++;
+        return 0;
+    }
+
+    // 记录一次被推迟的启动最终推迟了多久
+    synchronized void recordDeferred(long deferredTime) {
+        deferredCount++;
+        totalDeferredTime += deferredTime;
+        if(deferredTime > maxDeferredTime) maxDeferredTime = deferredTime;
+    }
+
+    public int getQuota() {
+        return quota;
+    }
+
+    public long getPeriod() {
+        return period;
+    }
+
+    // 物理扫描的启动次数
+    public synchronized long getStartCount() {
+        return startCount;
+    }
+
+    // 被推迟的启动次数
+    public synchronized long getDeferredCount() {
+        return deferredCount;
+    }
+
+    // 累计推迟时长，单位：毫秒
+    public synchronized long getTotalDeferredTime() {
+        return totalDeferredTime;
+    }
+
+    // 最长推迟时长，单位：毫秒
+    public synchronized long getMaxDeferredTime() {
+        return maxDeferredTime;
+    }
+
+    // 清除统计，不影响令牌
+    public synchronized void resetStats() {
+        startCount = 0;
+        deferredCount = 0;
+        totalDeferredTime = 0;
+        maxDeferredTime = 0;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "BleScanRateLimiter{starts=" + startCount + ", deferred=" + deferredCount
+                + ", deferredTime=" + totalDeferredTime + "ms, maxDeferredTime=" + maxDeferredTime + "ms}";
+    }
+}
@@ -0,0 +1,241 @@
+package com.cmtech.android.ble.core;
+
+import android.os.SystemClock;
+
+import static android.bluetooth.le.ScanSettings.SCAN_MODE_BALANCED;
+import static android.bluetooth.le.ScanSettings.SCAN_MODE_LOW_LATENCY;
+import static android.bluetooth.le.ScanSettings.SCAN_MODE_LOW_POWER;
+
+/**
+ *
+ * ClassName:      BleScanScheduler
+ * Description:    自动扫描的占空比调度。刚断开或者用户要求时以低时延模式持续扫描一个积极窗口；
+ *                 积极窗口内没有发现设备时转为间歇扫描，每个空窗口后把停扫间隔加倍直到上限，
+ *                 停扫间隔较长后扫描模式由平衡降为低功耗；发现设备后回到初始状态。
+ *                 同时统计扫描窗口数、命中数和扫描时长。窗口从物理扫描真正开始时计时，
+ *                 扫描启动被限额推迟期间不计入窗口
+ * Author:         chenm
+ * CreateDate:     2026-10-16 22:30
+ * UpdateUser:     chenm
+ * UpdateDate:     2026-10-16 22:30
+ * UpdateRemark:   无
+ * Version:        1.0
+ */
+
+public class BleScanScheduler {
+    private static final int DEFAULT_AGGRESSIVE_WINDOW = 30000; // 缺省的积极扫描窗口，单位：毫秒
+    private static final int DEFAULT_BACKOFF_WINDOW = 10000; // 缺省的间歇扫描窗口，单位：毫秒
+    private static final int DEFAULT_MAX_OFF_TIME = 300000; // 缺省的最长停扫间隔，单位：毫秒
+    private static final int DEFAULT_LOW_POWER_OFF_TIME = 60000; // 缺省的停扫间隔达到多少后改用低功耗模式，单位：毫秒
+
+    private int aggressiveWindow = DEFAULT_AGGRESSIVE_WINDOW;
+    private int backoffWindow = DEFAULT_BACKOFF_WINDOW;
+    private int maxOffTime = DEFAULT_MAX_OFF_TIME;
+    private int lowPowerOffTime = DEFAULT_LOW_POWER_OFF_TIME;
+
+    private boolean aggressive = true; // 下一个窗口是否为积极窗口
+    private long offTime = 0; // 当前停扫间隔，单位：毫秒，为0表示还没有进入间歇扫描
+    private int windowMode = SCAN_MODE_LOW_LATENCY; // 当前窗口的扫描模式
+    private long windowStartTime = 0; // 当前窗口的开始时间，为0表示没有在扫描
+    private long pendingWindow = 0; // 已经请求扫描、等待物理扫描开始的窗口时长，单位：毫秒，为0表示没有等待的窗口
+    // 统计
+    private long windowCount = 0; // 扫描窗口数
+    private long hitCount = 0; // 发现设备的窗口数
+    private long aggressiveHitCount = 0; // 在积极窗口中发现设备的次数
+    private long totalScanTime = 0; // 累计扫描时长，单位：毫秒
+    private long totalHitLatency = 0; // 从开始调度到发现设备的累计时间，单位：毫秒
+    private long scheduleStartTime = 0; // 本轮调度的开始时间，发现设备后重新开始
+
+    public BleScanScheduler() {
+    }
+
+    public synchronized int getAggressiveWindow() {
+        return aggressiveWindow;
+    }
+
+    public synchronized BleScanScheduler setAggressiveWindow(int aggressiveWindow) {
+        this.aggressiveWindow = aggressiveWindow;
+        return this;
+    }
+
+    public synchronized int getBackoffWindow() {
+        return backoffWindow;
+    }
+
+    public synchronized BleScanScheduler setBackoffWindow(int backoffWindow) {
+        this.backoffWindow = backoffWindow;
+        return this;
+    }
+
+    public synchronized int getMaxOffTime() {
+        return maxOffTime;
+    }
+
+    public synchronized BleScanScheduler setMaxOffTime(int maxOffTime) {
+        this.maxOffTime = maxOffTime;
+        return this;
+    }
+
+    public synchronized int getLowPowerOffTime() {
+        return lowPowerOffTime;
+    }
+
+    public synchronized BleScanScheduler setLowPowerOffTime(int lowPowerOffTime) {
+        this.lowPowerOffTime = lowPowerOffTime;
+        return this;
+    }
+
+    // 回到积极扫描，在刚断开或者用户要求时调用
+    synchronized void boost() {
+        aggressive = true;
+        offTime = 0;
+        if(scheduleStartTime == 0) {
+            scheduleStartTime = SystemClock.elapsedRealtime();
+        }
+    }
+
+    // 当前窗口（包括等待开始的窗口）是否为积极窗口
+    synchronized boolean isAggressive() {
+        return (windowStartTime != 0 || pendingWindow != 0) && windowMode == SCAN_MODE_LOW_LATENCY;
+    }
+
+    /**
+     * 准备一个扫描窗口，决定窗口的模式和时长。窗口在物理扫描开始时调用onScanStarted()才开始计时
+     * @return 窗口的扫描模式
+     */
+    synchronized int prepareWindow() {
+        endWindow();
+        if(scheduleStartTime == 0) {
+            scheduleStartTime = SystemClock.elapsedRealtime();
+        }
+        if(aggressive) {
+            windowMode = SCAN_MODE_LOW_LATENCY;
+            pendingWindow = aggressiveWindow;
+        } else {
+            windowMode = (offTime >= lowPowerOffTime) ? SCAN_MODE_LOW_POWER : SCAN_MODE_BALANCED;
+            pendingWindow = backoffWindow;
+        }
+        return windowMode;
+    }
+
+    /**
+     * 物理扫描开始，准备好的窗口开始计时
+     * @return 窗口时长，单位：毫秒，为0表示没有准备好的窗口
+     */
+    synchronized long onScanStarted() {
+        long window = pendingWindow;
+        if(window == 0) return 0;
+        pendingWindow = 0;
+        windowStartTime = SystemClock.elapsedRealtime();
+        windowCount++;
+        return window;
+    }
+
+    // 是否有准备好、等待物理扫描开始的窗口
+    synchronized boolean isWindowPending() {
+        return pendingWindow != 0;
+    }
+
+    // 当前窗口的扫描模式
+    synchronized int getWindowMode() {
+        return windowMode;
+    }
+
+    /**
+     * 窗口结束，没有发现设备。之后转为间歇扫描，停扫间隔加倍
+     * @param baseOffTime 初始的停扫间隔，单位：毫秒
+     * @return 到下一个窗口的停扫间隔，单位：毫秒
+     */
+    synchronized long onWindowMissed(long baseOffTime) {
+        endWindow();
+        aggressive = false;
+        offTime = (offTime == 0) ? baseOffTime : Math.min(offTime * 2, Math.max(baseOffTime, maxOffTime));
+        return offTime;
+    }
+
+    // 窗口中发现设备，回到初始状态
+    synchronized void onHit() {
+        if(windowStartTime == 0) return;
+        long now = SystemClock.elapsedRealtime();
+        if(windowMode == SCAN_MODE_LOW_LATENCY) {
+            aggressiveHitCount++;
+        }
+        hitCount++;
+        totalHitLatency += now - scheduleStartTime;
+        endWindow();
+        aggressive = true;
+        offTime = 0;
+        scheduleStartTime = 0;
+    }
+
+    // 扫描被停止，不计入命中也不改变停扫间隔
+    synchronized void onStopped() {
+        endWindow();
+    }
+
+    // 停止调度
+    synchronized void reset() {
+        endWindow();
+        aggressive = true;
+        offTime = 0;
+        scheduleStartTime = 0;
+    }
+
+    private void endWindow() {
+        pendingWindow = 0;
+        if(windowStartTime != 0) {
+            totalScanTime += SystemClock.elapsedRealtime() - windowStartTime;
+            windowStartTime = 0;
+        }
+    }
+
+    // 扫描窗口数
+    public synchronized long getWindowCount() {
+        return windowCount;
+    }
+
+    // 发现设备的窗口数
+    public synchronized long getHitCount() {
+        return hitCount;
+    }
+
+    // 在积极窗口中发现设备的次数
+    public synchronized long getAggressiveHitCount() {
+        return aggressiveHitCount;
+    }
+
+    // 命中率，发现设备的窗口数与扫描窗口数之比
+    public synchronized double getHitRate() {
+        return (windowCount == 0) ? 0 : (double) hitCount / windowCount;
+    }
+
+    // 累计扫描时长，包括正在进行的窗口，单位：毫秒
+    public synchronized long getTotalScanTime() {
+        long time = totalScanTime;
+        if(windowStartTime != 0) {
+            time += SystemClock.elapsedRealtime() - windowStartTime;
+        }
+        return time;
+    }
+
+    // 从开始调度到发现设备的平均时间，单位：毫秒
+    public synchronized long getAverageHitLatency() {
+        return (hitCount == 0) ? 0 : totalHitLatency / hitCount;
+    }
+
+    // 当前停扫间隔，单位：毫秒，为0表示处于积极扫描
+    public synchronized long getOffTime() {
+        return offTime;
+    }
+
+    // 是否正在扫描窗口中
+    public synchronized boolean isInWindow() {
+        return windowStartTime != 0;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "BleScanScheduler{windows=" + windowCount + ", hits=" + hitCount + ", hitRate=" + getHitRate()
+                + ", scanTime=" + getTotalScanTime() + "ms, offTime=" + offTime + "ms, mode=" + windowMode + "}";
+    }
+}
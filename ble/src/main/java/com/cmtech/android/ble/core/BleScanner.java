@@ -6,15 +6,23 @@ import android.bluetooth.le.ScanCallback;
 import android.bluetooth.le.ScanFilter;
 import android.bluetooth.le.ScanResult;
 import android.bluetooth.le.ScanSettings;
+import android.os.Handler;
+import android.os.Message;
+import android.os.SystemClock;
 
+import com.cmtech.android.ble.callback.IBleBatchScanCallback;
 import com.cmtech.android.ble.callback.IBleScanCallback;
-import com.vise.log.ViseLog;
+import com.cmtech.android.ble.utils.BleLog;
 
 import java.util.ArrayList;
-import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 import static android.bluetooth.le.ScanSettings.SCAN_MODE_LOW_LATENCY;
+import static android.bluetooth.le.ScanSettings.SCAN_MODE_LOW_POWER;
 import static com.cmtech.android.ble.callback.IBleScanCallback.CODE_BLE_CLOSED;
 import static com.cmtech.android.ble.callback.IBleScanCallback.CODE_BLE_INNER_ERROR;
 
@@ -28,20 +36,144 @@ import static com.cmtech.android.ble.callback.IBleScanCallback.CODE_BLE_INNER_ER
  * UpdateDate:     2019-09-19 07:02
  * UpdateRemark:   更新说明
  * Version:        1.0
+ * UpdateUser:     chenm
+ * UpdateDate:     2026-10-16 21:30
+ * UpdateRemark:   所有订阅者共享一次物理扫描，过滤条件为所有订阅者过滤条件的并集，扫描结果按地址分发给各订阅者。
+ *                 订阅者加入时只有过滤条件没有覆盖它才重启扫描，同时加入的订阅者只重启一次；
+ *                 订阅者离开时不立即重启，延时后再收窄过滤条件
+ * Version:        1.1
+ * UpdateUser:     chenm
+ * UpdateDate:     2026-10-16 22:00
+ * UpdateRemark:   增加批量扫描模式：订阅者可以指定报告延时，扫描结果在蓝牙芯片中缓存，到时一次成批上报，
+ *                 减少进程唤醒次数。共享扫描的报告延时取所有订阅者中的最小值，芯片不支持批量扫描时按实时扫描
+ * Version:        1.2
+ * UpdateUser:     chenm
+ * UpdateDate:     2026-10-16 22:30
+ * UpdateRemark:   订阅者可以指定扫描模式，共享扫描取所有订阅者中最积极的模式
+ * Version:        1.3
+ * UpdateUser:     chenm
+ * UpdateDate:     2026-10-16 23:00
+ * UpdateRemark:   物理扫描的启动经过令牌桶，不超过系统30秒5次的限额。没有令牌时保持正在进行的扫描，
+ *                 到有令牌时再按当时所有订阅者的过滤条件启动一次，期间的多次请求合并为一次启动
+ * Version:        1.4
+ * UpdateUser:     chenm
+ * UpdateDate:     2026-10-16 23:30
+ * UpdateRemark:   按地址缓存设备详细信息，同一设备的广播只就地更新RSSI和时间戳，广播数据变化时才重新解析。
+ *                 缓存有容量上限，长时间没有收到广播的设备过期后重新创建
+ * Version:        1.5
  */
 
 public class BleScanner {
-    private static final List<ScanCallbackAdapter> callbackList = new ArrayList<>(); // 所有扫描的回调
+    private static final int MSG_UPDATE_FILTERS = 0; // 更新扫描过滤条件消息
+    private static final long WIDEN_DELAY = 100; // 订阅者加入后放宽过滤条件的延时，单位：毫秒
+    private static final long NARROW_DELAY = 10000; // 订阅者离开后收窄过滤条件的延时，单位：毫秒
+    private static final int SCAN_START_QUOTA = 5; // 系统限制的一个周期内的扫描启动次数
+    private static final long SCAN_QUOTA_PERIOD = 30000 + 1000; // 系统限制的周期，加上1秒余量，单位：毫秒
+    private static final int MAX_DETAIL_INFO_CACHE_SIZE = 256; // 设备详细信息缓存的容量
+    private static final long DETAIL_INFO_EXPIRE_NANOS = 60 * 1000000000L; // 设备详细信息多久没有更新后过期，单位：纳秒
+
+    private static final List<Subscriber> subscribers = new ArrayList<>(); // 所有扫描订阅者
+    private static volatile Subscriber[] subscriberSnapshot = new Subscriber[0]; // 订阅者的快照，订阅者变化时整体替换，分发扫描结果时不加锁读取
+    private static final SharedScanCallback scanCallback = new SharedScanCallback(); // 共享扫描的回调
+    private static boolean scanning = false; // 物理扫描是否正在进行
+    private static boolean scanAll = false; // 正在进行的扫描是否不过滤
+    private static final Set<String> scanAddresses = new HashSet<>(); // 正在进行的扫描过滤的设备地址
+    private static final List<ScanFilter> scanOtherFilters = new ArrayList<>(); // 正在进行的扫描中不是按地址过滤的条件
+    private static long scanReportDelay = 0; // 正在进行的扫描的报告延时，为0表示实时扫描
+    private static int scanMode = SCAN_MODE_LOW_POWER; // 正在进行的扫描的模式
+    private static long updateTime = 0; // 已经安排的过滤条件更新的时间，为0表示没有安排
+    private static Handler handler; // 延时更新过滤条件的Handler，在回调线程中执行
     private static volatile boolean bleInnerError = false; // 是否发生蓝牙内部错误，比如由于频繁扫描引起的错误
-    private static int scanTimes = 0; // 累计扫描次数
+    private static final BleScanRateLimiter rateLimiter = new BleScanRateLimiter(SCAN_START_QUOTA, SCAN_QUOTA_PERIOD); // 扫描启动的令牌桶
+    private static long deferStartTime = 0; // 扫描启动开始被推迟的时间，为0表示没有被推迟
+    private static long latestTimestamp = 0; // 最近一次扫描结果的时间戳，单位：纳秒
+    // 按地址缓存的设备详细信息，按访问顺序排列，超过容量或者最久未访问的已过期时移除
+    private static final Map<String, BleDeviceDetailInfo> detailInfoCache = new LinkedHashMap<String, BleDeviceDetailInfo>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, BleDeviceDetailInfo> eldest) {
+            return size() > MAX_DETAIL_INFO_CACHE_SIZE
+                    || latestTimestamp - eldest.getValue().getTimestamp() > DETAIL_INFO_EXPIRE_NANOS;
+        }
+    };
+
+    // 扫描订阅者
+    private static class Subscriber {
+        private final IBleScanCallback bleScanCallback;
+        private final ScanFilter scanFilter; // 为null表示接收所有扫描结果
+        private final String address; // 按地址过滤时的地址
+        private final long reportDelay; // 报告延时，大于0表示批量扫描
+        private final IBleBatchScanCallback batchScanCallback; // 以批量方式接收扫描结果的回调，为null时逐个回调
+        private final int scanMode; // 扫描模式，ScanSettings.SCAN_MODE_*
+        private final Runnable startListener; // 覆盖本订阅者的物理扫描开始时执行，可以为null
+        private boolean started = false; // 是否已经有覆盖本订阅者的物理扫描
+
+        Subscriber(IBleScanCallback bleScanCallback, ScanFilter scanFilter, int scanMode, long reportDelay, Runnable startListener) {
+            this.bleScanCallback = bleScanCallback;
+            this.scanFilter = scanFilter;
+            this.address = (scanFilter == null) ? null : scanFilter.getDeviceAddress();
+            this.scanMode = scanMode;
+            this.reportDelay = reportDelay;
+            this.batchScanCallback = (reportDelay > 0 && bleScanCallback instanceof IBleBatchScanCallback)
+                    ? (IBleBatchScanCallback) bleScanCallback : null;
+            this.startListener = startListener;
+        }
+
+        // 覆盖本订阅者的物理扫描已经开始，第一次时通知监听者
+        void onStarted() {
+            if(started) return;
+            started = true;
+            if(startListener != null) {
+                startListener.run();
+            }
+        }
+
+        // 扫描结果是否属于本订阅者
+        boolean accept(String resultAddress, ScanResult result) {
+            if(scanFilter == null) return true;
+            if(address != null && !address.equalsIgnoreCase(resultAddress)) return false;
+            return scanFilter.matches(result);
+        }
+    }
 
     // 开始扫描
     public static void startScan(ScanFilter scanFilter, final IBleScanCallback bleScanCallback) {
+        startScan(scanFilter, 0, bleScanCallback);
+    }
+
+    /**
+     * 开始扫描
+     * @param reportDelay 报告延时，单位：毫秒。为0时每发现一次设备就回调onDeviceFound；
+     *                    大于0时为批量扫描，bleScanCallback实现了IBleBatchScanCallback时扫描结果成批回调onDevicesFound，
+     *                    适用于后台的存在性监测。有实时订阅者或者芯片不支持批量扫描时，批量订阅者也逐个回调onDeviceFound
+     */
+    public static void startScan(ScanFilter scanFilter, long reportDelay, final IBleScanCallback bleScanCallback) {
+        // 不过滤的实时扫描沿用系统缺省的低功耗模式，过滤的实时扫描用低时延模式，批量扫描用于后台监测，用低功耗模式
+        int mode = (scanFilter != null && reportDelay == 0) ? SCAN_MODE_LOW_LATENCY : SCAN_MODE_LOW_POWER;
+        startScan(scanFilter, mode, reportDelay, bleScanCallback);
+    }
+
+    /**
+     * 开始扫描
+     * @param scanMode 扫描模式，ScanSettings.SCAN_MODE_*。共享扫描使用所有订阅者中最积极的模式
+     * @param reportDelay 报告延时，单位：毫秒，见startScan(ScanFilter, long, IBleScanCallback)
+     */
+    public static void startScan(ScanFilter scanFilter, int scanMode, long reportDelay, final IBleScanCallback bleScanCallback) {
+        startScan(scanFilter, scanMode, reportDelay, bleScanCallback, null);
+    }
+
+    /**
+     * 开始扫描
+     * @param startListener 覆盖该订阅者的物理扫描真正开始时执行一次，扫描启动被限额推迟时在推迟结束后执行。
+     *                      在扫描仪的锁内执行，不能阻塞
+     */
+    static void startScan(ScanFilter scanFilter, int scanMode, long reportDelay, final IBleScanCallback bleScanCallback, Runnable startListener) {
         if(bleScanCallback == null) {
             throw new NullPointerException("The IBleScanCallback is null");
         }
+        if(reportDelay < 0) {
+            throw new IllegalArgumentException("The report delay is negative.");
+        }
 
-        ScanCallbackAdapter scanCallback = null;
         synchronized (BleScanner.class) {
             if (BleScanner.isBleDisabled()) {
                 bleScanCallback.onScanFailed(CODE_BLE_CLOSED);
@@ -51,33 +183,24 @@ public class BleScanner {
                 bleScanCallback.onScanFailed(CODE_BLE_INNER_ERROR);
                 return;
             }
-
-            for (ScanCallbackAdapter callback : callbackList) {
-                if (callback.bleScanCallback == bleScanCallback) {
-                    scanCallback = callback;
-                    break;
-                }
+            if (findSubscriber(bleScanCallback) != null) {
+                bleScanCallback.onScanFailed(IBleScanCallback.CODE_ALREADY_STARTED);
+                return;
             }
 
-            if (scanCallback == null) {
-                scanCallback = new ScanCallbackAdapter(bleScanCallback);
-                callbackList.add(scanCallback);
+            Subscriber subscriber = new Subscriber(bleScanCallback, scanFilter, scanMode, reportDelay, startListener);
+            subscribers.add(subscriber);
+            subscriberSnapshot = subscribers.toArray(new Subscriber[0]);
+
+            if(!scanning) {
+                // 第一个订阅者立即开始扫描
+                updateFilters();
+            } else if(isCovered(subscriber)) {
+                subscriber.onStarted();
             } else {
-                bleScanCallback.onScanFailed(IBleScanCallback.CODE_ALREADY_STARTED);
-                return;
+                scheduleUpdate(WIDEN_DELAY);
             }
         }
-        BluetoothLeScanner scanner;
-        scanner = BluetoothAdapter.getDefaultAdapter().getBluetoothLeScanner();
-        if(scanFilter == null) {
-            scanner.startScan(scanCallback);
-        } else {
-            ScanSettings.Builder settingsBuilder = new ScanSettings.Builder().setScanMode(SCAN_MODE_LOW_LATENCY);
-            scanner.startScan(Collections.singletonList(scanFilter), settingsBuilder.build(), scanCallback);
-        }
-        scanTimes++;
-
-        ViseLog.e("Start scanning, scanTimes = " + scanTimes);
     }
 
     // 停止扫描
@@ -86,28 +209,191 @@ public class BleScanner {
             throw new NullPointerException("The IBleScanCallback is null.");
         }
 
-        ScanCallbackAdapter scanCallback = null;
         synchronized (BleScanner.class) {
-            if(isBleDisabled()) {
+            Subscriber subscriber = findSubscriber(bleScanCallback);
+            if(subscriber == null) {
                 return;
             }
-            for(ScanCallbackAdapter callback : callbackList) {
-                if(callback.bleScanCallback == bleScanCallback) {
-                    scanCallback = callback;
-                    break;
+            subscribers.remove(subscriber);
+            subscriberSnapshot = subscribers.toArray(new Subscriber[0]);
+
+            if(subscribers.isEmpty()) {
+                // 最后一个订阅者离开，立即停止扫描
+                updateFilters();
+            } else {
+                scheduleUpdate(NARROW_DELAY);
+            }
+        }
+    }
+
+    private static Subscriber findSubscriber(IBleScanCallback bleScanCallback) {
+        for (Subscriber subscriber : subscribers) {
+            if (subscriber.bleScanCallback == bleScanCallback) {
+                return subscriber;
+            }
+        }
+        return null;
+    }
+
+    // 正在进行的扫描是否已经覆盖该订阅者
+    private static boolean isCovered(Subscriber subscriber) {
+        if(!scanning || scanReportDelay > getReportDelay(subscriber.reportDelay) || scanMode < subscriber.scanMode) return false;
+        if(scanAll) return true;
+        if(subscriber.scanFilter == null) return false;
+        if(subscriber.address != null && scanAddresses.contains(subscriber.address)) return true;
+        return scanOtherFilters.contains(subscriber.scanFilter);
+    }
+
+    // 安排过滤条件的更新，已经安排了更早的更新时不再安排
+    private static void scheduleUpdate(long delay) {
+        long time = SystemClock.uptimeMillis() + delay;
+        if(updateTime != 0 && updateTime <= time) {
+            return;
+        }
+        Handler handler = getHandler();
+        handler.removeMessages(MSG_UPDATE_FILTERS);
+        handler.sendEmptyMessageAtTime(MSG_UPDATE_FILTERS, time);
+        updateTime = time;
+    }
+
+    private static Handler getHandler() {
+        if(handler == null) {
+            handler = new Handler(BleCallbackThread.getLooper()) {
+                @Override
+                public void handleMessage(Message msg) {
+                    if(msg.what == MSG_UPDATE_FILTERS) {
+                        synchronized (BleScanner.class) {
+                            updateTime = 0;
+                            updateFilters();
+                        }
+                    }
+                }
+            };
+        }
+        return handler;
+    }
+
+    // 按当前订阅者计算过滤条件的并集，与正在进行的扫描不同时重启扫描，没有订阅者时停止扫描
+    private static void updateFilters() {
+        if(updateTime != 0) {
+            getHandler().removeMessages(MSG_UPDATE_FILTERS);
+            updateTime = 0;
+        }
+
+        boolean all = false;
+        long reportDelay = Long.MAX_VALUE;
+        int mode = ScanSettings.SCAN_MODE_OPPORTUNISTIC;
+        Set<String> addresses = new HashSet<>();
+        List<ScanFilter> otherFilters = new ArrayList<>();
+        for(Subscriber subscriber : subscribers) {
+            reportDelay = Math.min(reportDelay, subscriber.reportDelay);
+            mode = Math.max(mode, subscriber.scanMode);
+            if(subscriber.scanFilter == null) {
+                all = true;
+            } else if(subscriber.address != null) {
+                addresses.add(subscriber.address);
+            } else if(!otherFilters.contains(subscriber.scanFilter)) {
+                otherFilters.add(subscriber.scanFilter);
+            }
+        }
+
+        reportDelay = getReportDelay(reportDelay);
+
+        if(scanning && !subscribers.isEmpty() && all == scanAll && reportDelay == scanReportDelay && mode == scanMode
+                && (all || (addresses.equals(scanAddresses) && otherFilters.equals(scanOtherFilters)))) {
+            return;
+        }
+
+        if(isBleDisabled()) {
+            scanning = false;
+            return;
+        }
+        if(subscribers.isEmpty()) {
+            deferStartTime = 0;
+        } else {
+            // 没有令牌时保持正在进行的扫描，到时再按当时的订阅者启动
+            long now = SystemClock.elapsedRealtime();
+            long wait = rateLimiter.tryAcquire(now);
+            if(wait > 0) {
+                if(deferStartTime == 0) {
+                    deferStartTime = now;
                 }
+                BleLog.d("Scan start deferred " + wait + "ms by the scan quota, subscribers = " + subscribers.size());
+                scheduleUpdate(wait);
+                return;
             }
-            if(scanCallback != null) {
-                callbackList.remove(scanCallback);
+            if(deferStartTime != 0) {
+                long deferredTime = now - deferStartTime;
+                deferStartTime = 0;
+                rateLimiter.recordDeferred(deferredTime);
+                BleLog.d("Scan start was deferred for " + deferredTime + "ms");
             }
         }
-        if(scanCallback != null) {
-            BluetoothLeScanner scanner;
-            scanner = BluetoothAdapter.getDefaultAdapter().getBluetoothLeScanner();
+
+        BluetoothLeScanner scanner = BluetoothAdapter.getDefaultAdapter().getBluetoothLeScanner();
+        if(scanning) {
+            // 先取出芯片中缓存的批量结果，避免停止时丢失
+            if(scanReportDelay > 0) {
+                scanner.flushPendingScanResults(scanCallback);
+            }
             scanner.stopScan(scanCallback);
+            scanning = false;
+            BleLog.i("Scan stopped");
+        }
+        if(subscribers.isEmpty()) {
+            return;
+        }
+
+        if(all && reportDelay == 0 && mode == SCAN_MODE_LOW_POWER) {
+            scanner.startScan(scanCallback);
+        } else if(all) {
+            scanner.startScan(null, newScanSettings(mode, reportDelay), scanCallback);
+        } else {
+            List<ScanFilter> filters = new ArrayList<>(addresses.size() + otherFilters.size());
+            for(Subscriber subscriber : subscribers) {
+                // 每个地址只加入一个过滤条件
+                if(subscriber.address != null && addresses.remove(subscriber.address)) {
+                    filters.add(subscriber.scanFilter);
+                }
+            }
+            filters.addAll(otherFilters);
+            scanner.startScan(filters, newScanSettings(mode, reportDelay), scanCallback);
         }
+        scanning = true;
+        scanAll = all;
+        scanReportDelay = reportDelay;
+        scanMode = mode;
+        scanAddresses.clear();
+        scanOtherFilters.clear();
+        for(Subscriber subscriber : subscribers) {
+            if(subscriber.address != null) scanAddresses.add(subscriber.address);
+        }
+        scanOtherFilters.addAll(otherFilters);
+        for(Subscriber subscriber : subscribers) {
+            subscriber.onStarted();
+        }
+
+        BleLog.i("Start scanning, subscribers = " + subscribers.size() + ", mode = " + mode + ", reportDelay = " + reportDelay + ", " + rateLimiter);
+    }
 
-        ViseLog.e("Scan stopped");
+    private static ScanSettings newScanSettings(int mode, long reportDelay) {
+        ScanSettings.Builder settingsBuilder = new ScanSettings.Builder().setScanMode(mode);
+        if(reportDelay > 0) {
+            settingsBuilder.setReportDelay(reportDelay);
+        }
+        return settingsBuilder.build();
+    }
+
+    // 实际使用的报告延时，芯片不支持批量扫描时为0
+    private static long getReportDelay(long reportDelay) {
+        if(reportDelay <= 0) return 0;
+        BluetoothAdapter adapter = BluetoothAdapter.getDefaultAdapter();
+        return (adapter != null && adapter.isOffloadedScanBatchingSupported()) ? reportDelay : 0;
+    }
+
+    // 是否支持批量扫描
+    public static boolean isBatchScanSupported() {
+        return getReportDelay(1) > 0;
     }
 
     // 蓝牙是否关闭
@@ -121,46 +407,137 @@ public class BleScanner {
         bleInnerError = false;
     }
 
-    // 重置扫描次数
+    // 重置扫描次数以及推迟的统计
     public static void resetScanTimes() {
-        scanTimes = 0;
+        rateLimiter.resetStats();
     }
 
-    private static class ScanCallbackAdapter extends ScanCallback {
-        private IBleScanCallback bleScanCallback;
+    // 扫描启动的令牌桶，可以查询启动次数以及被推迟的次数和时长
+    public static BleScanRateLimiter getRateLimiter() {
+        return rateLimiter;
+    }
 
-        ScanCallbackAdapter(IBleScanCallback bleScanCallback) {
-            if(bleScanCallback == null) {
-                throw new IllegalArgumentException("The IBleScanCallback is null.");
-            }
-            this.bleScanCallback = bleScanCallback;
+    // 当前扫描启动已经被推迟的时长，单位：毫秒，为0表示没有被推迟
+    public static synchronized long getCurrentDeferredTime() {
+        return (deferStartTime == 0) ? 0 : SystemClock.elapsedRealtime() - deferStartTime;
+    }
+
+    // 清除设备详细信息的缓存，之后扫描到的设备都重新创建详细信息
+    public static void clearDetailInfoCache() {
+        synchronized (detailInfoCache) {
+            detailInfoCache.clear();
         }
+    }
+
+    // 当前扫描订阅者数
+    public static synchronized int getSubscriberCount() {
+        return subscribers.size();
+    }
 
+    // 共享扫描的回调，按地址把扫描结果分发给订阅者
+    private static class SharedScanCallback extends ScanCallback {
+        // 实时扫描结果。从订阅者的快照中逐个匹配，同一设备的详细信息从缓存中取得，每个广播不再新建对象
         @Override
         public void onScanResult(int callbackType, ScanResult result) {
             super.onScanResult(callbackType, result);
 
-            if(bleScanCallback != null) {
-                byte[] recordBytes = (result.getScanRecord() == null) ? null : result.getScanRecord().getBytes();
-                BleDeviceDetailInfo bleDeviceDetailInfo = new BleDeviceDetailInfo(result.getDevice(), result.getRssi(), recordBytes, result.getTimestampNanos());
-                bleScanCallback.onDeviceFound(bleDeviceDetailInfo);
+            String address = (result.getDevice() == null) ? null : result.getDevice().getAddress();
+            Subscriber[] targets = subscriberSnapshot;
+            BleDeviceDetailInfo bleDeviceDetailInfo = null;
+            for(Subscriber target : targets) {
+                if(!target.accept(address, result)) continue;
+                if(bleDeviceDetailInfo == null) {
+                    bleDeviceDetailInfo = toDetailInfo(result);
+                }
+                target.bleScanCallback.onDeviceFound(bleDeviceDetailInfo);
             }
         }
 
+        // 批量扫描结果，一次唤醒处理一批，按订阅者分组后每个批量订阅者只回调一次
         @Override
-        public void onScanFailed(int errorCode) {
-            super.onScanFailed(errorCode);
+        public void onBatchScanResults(List<ScanResult> results) {
+            super.onBatchScanResults(results);
 
-            bleInnerError = true;
-            if(bleScanCallback != null)
-                bleScanCallback.onScanFailed(CODE_BLE_INNER_ERROR);
+            if(results == null || results.isEmpty()) return;
+            Subscriber[] targets = subscriberSnapshot;
+            if(targets.length == 0) return;
+
+            List<List<BleDeviceDetailInfo>> batches = new ArrayList<>(targets.length);
+            for(int i = 0; i < targets.length; i++) {
+                batches.add(null);
+            }
+            for(ScanResult result : results) {
+                String address = (result.getDevice() == null) ? null : result.getDevice().getAddress();
+                BleDeviceDetailInfo bleDeviceDetailInfo = null;
+                for(int i = 0; i < targets.length; i++) {
+                    if(!targets[i].accept(address, result)) continue;
+                    if(bleDeviceDetailInfo == null) {
+                        bleDeviceDetailInfo = toDetailInfo(result);
+                    }
+                    if(batches.get(i) == null) {
+                        batches.set(i, new ArrayList<BleDeviceDetailInfo>());
+                    }
+                    batches.get(i).add(bleDeviceDetailInfo);
+                }
+            }
+
+            for(int i = 0; i < targets.length; i++) {
+                List<BleDeviceDetailInfo> batch = batches.get(i);
+                if(batch == null) continue;
+                Subscriber target = targets[i];
+                if(target.batchScanCallback != null) {
+                    target.batchScanCallback.onDevicesFound(batch);
+                } else {
+                    for(BleDeviceDetailInfo bleDeviceDetailInfo : batch) {
+                        target.bleScanCallback.onDeviceFound(bleDeviceDetailInfo);
+                    }
+                }
+            }
+        }
+
+        // 取缓存的设备详细信息并就地更新，没有缓存或者已过期时新建
+        private static BleDeviceDetailInfo toDetailInfo(ScanResult result) {
+            byte[] recordBytes = (result.getScanRecord() == null) ? null : result.getScanRecord().getBytes();
+            long timestamp = result.getTimestampNanos();
+            String address = (result.getDevice() == null) ? null : result.getDevice().getAddress();
+            if(address == null) {
+                return new BleDeviceDetailInfo(result.getDevice(), result.getRssi(), recordBytes, timestamp);
+            }
+
+            synchronized (detailInfoCache) {
+                if(timestamp > latestTimestamp) {
+                    latestTimestamp = timestamp;
+                }
+                BleDeviceDetailInfo bleDeviceDetailInfo = detailInfoCache.get(address);
+                if(bleDeviceDetailInfo != null && timestamp - bleDeviceDetailInfo.getTimestamp() <= DETAIL_INFO_EXPIRE_NANOS) {
+                    // 批量结果中可能有比已缓存的更早的结果，只用更新的结果更新
+                    if(timestamp >= bleDeviceDetailInfo.getTimestamp()) {
+                        bleDeviceDetailInfo.updateScanRecord(recordBytes);
+                        bleDeviceDetailInfo.updateRssiReading(timestamp, result.getRssi());
+                    }
+                    return bleDeviceDetailInfo;
+                }
+                bleDeviceDetailInfo = new BleDeviceDetailInfo(result.getDevice(), result.getRssi(), recordBytes, timestamp);
+                detailInfoCache.put(address, bleDeviceDetailInfo);
+                return bleDeviceDetailInfo;
+            }
         }
 
         @Override
-        public void onBatchScanResults(List<ScanResult> results) {
-            super.onBatchScanResults(results);
+        public void onScanFailed(int errorCode) {
+            super.onScanFailed(errorCode);
 
-            ViseLog.e("Batch scan result. Cannot be here.");
+            List<IBleScanCallback> targets = new ArrayList<>();
+            synchronized (BleScanner.class) {
+                bleInnerError = true;
+                scanning = false;
+                for(Subscriber subscriber : subscribers) {
+                    targets.add(subscriber.bleScanCallback);
+                }
+            }
+            for(IBleScanCallback target : targets) {
+                target.onScanFailed(CODE_BLE_INNER_ERROR);
+            }
         }
     }
 
@@ -1,15 +1,26 @@
 package com.cmtech.android.ble.core;
 
+import android.os.SystemClock;
+
 import com.cmtech.android.ble.callback.IBleDataCallback;
 import com.cmtech.android.ble.exception.BleException;
+import com.cmtech.android.ble.exception.OtherException;
+import com.cmtech.android.ble.exception.TimeoutException;
+import com.cmtech.android.ble.utils.BleLog;
 import com.cmtech.android.ble.utils.HexUtil;
-import com.vise.log.ViseLog;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
 
 /**
  *
  * ClassName:      BleSerialGattCommand
  * Description:    表示串行Gatt命令，所谓串行命令是指当命令发出后，并不立即执行下一条命令。
- *                 而是等待接收到蓝牙设备返回的响应并执行回调后，才会继续执行下一条命令
+ *                 而是等待接收到蓝牙设备返回的响应并执行回调后，才会继续执行下一条命令。
+ *                 命令发出后不阻塞线程等待，响应到达时执行finishAction，由调度器发出下一条命令。
+ *                 超时或可重试的失败按重试策略在共享定时器中重新发出，重试期间命令仍占用通道，保证顺序。
+ *                 命令对象从对象池中取得，结束后回收重用，每次回收代数加一，持有旧代数的引用不能再操作该命令。
+ *                 调用者可以通过BleGattHandle取消命令，已经发出的命令被取消后仍等待响应再让出通道，但不再回调和重试
  * Author:         chenm
  * CreateDate:     2019-06-20 07:02
  * UpdateUser:     chenm
@@ -19,16 +30,37 @@ import com.vise.log.ViseLog;
  */
 
 class BleSerialGattCommand extends BleGattCommand {
-    private volatile boolean finish = true; // 标记命令是否执行完毕
+    static final int CANCEL_FAILED = 0; // 取消失败，命令已经结束或者回调不属于本命令
+    static final int CANCEL_DONE = 1; // 已取消
+    static final int CANCEL_WITHDRAWN = 2; // 已取消，所有调用者都已取消且命令还没发出，需要从队列中移除
+    private static final int POOL_SIZE = 32; // 对象池大小
+    private static final ArrayDeque<BleSerialGattCommand> pool = new ArrayDeque<>(POOL_SIZE); // 回收的命令对象
+    private static long allocatedCount = 0; // 累计新建的命令对象数，由pool的锁保护
+
+    private final BleSerialCommandDataCallbackDecorator decorator = new BleSerialCommandDataCallbackDecorator(); // 回调装饰，随命令对象重用
+    private volatile int generation = 0; // 命令对象的代数，每次回收加一。读取时不加锁，通道在自己的锁内检查代数时不会等待命令的锁
+    private Runnable finishAction; // 命令结束（成功或失败）后执行的动作，调度器用它发出下一条命令
+    private long enqueueTime; // 进入调度队列的时间，用于统计等待时间
+    private boolean issued = false; // 是否已经发出，不用发出时间判断，避免依赖时钟的取值
+    private long issueTime; // 第一次发出的时间
+    private Object batch; // 所属批处理的标识，同一批处理的命令紧接着发出
+    private boolean coalescable = false; // 是否允许与排队中的同类命令合并
+    private ArrayList<IBleDataCallback> mergedCallbacks; // 被合并的命令的回调，命令结束时一起回调，回收时清空重用
+    private boolean finished = false; // 命令是否已经结束，结束后到达的响应被忽略
+    private boolean issuing = false; // 是否正在发出命令，发出过程中结束的命令在发出返回后才回收
+    private boolean recyclable = true; // 是否可以回收。超时的命令可能还有迟到的响应，不回收
+    private int retries = 0; // 已经重试的次数
+    private BleGatt issuedGatt; // 发出命令时的Gatt，连接变化后不再重试，也不再请求断开
+    private int timerToken = 0; // 定时令牌，每次启动或取消定时加一，令牌不符的定时消息已经过期
+    private boolean cancelled = false; // 命令的原调用者是否已经取消，取消后不再回调它
+    private boolean retryPending = false; // 是否正在等待重试
+    private BleGattHandle handle; // 命令的取消句柄，命令被合并时通知句柄改为取消合并后的命令
+    private int handleIndex; // 命令在取消句柄中的序号
 
     // IBleCallback的装饰类，在一般的回调响应任务完成后，执行串行命令所需动作
     private class BleSerialCommandDataCallbackDecorator implements IBleDataCallback {
         private IBleDataCallback bleCallback;
 
-        BleSerialCommandDataCallbackDecorator(IBleDataCallback bleCallback) {
-            this.bleCallback = bleCallback;
-        }
-
         @Override
         public void onSuccess(byte[] data, BleGattElement element) {
             onSerialCommandSuccess(bleCallback, data, element);
@@ -40,60 +72,432 @@ class BleSerialGattCommand extends BleGattCommand {
         }
     }
 
-    private BleSerialGattCommand(BleGattCommand gattCommand) {
-        super(gattCommand);
-        dataCallback = new BleSerialCommandDataCallbackDecorator(dataCallback);
+    private BleSerialGattCommand() {
     }
 
     static BleSerialGattCommand create(BleDeviceConnector device, BleGattElement element, BleGattCmdType bleGattCmdType, byte[] data,
                                        IBleDataCallback dataCallback, IBleDataCallback receiveCallback) {
+        return create(device, element, bleGattCmdType, data, dataCallback, receiveCallback, BleGattCmdPriority.INTERACTIVE);
+    }
+
+    static BleSerialGattCommand create(BleDeviceConnector device, BleGattElement element, BleGattCmdType bleGattCmdType, byte[] data,
+                                       IBleDataCallback dataCallback, IBleDataCallback receiveCallback, BleGattCmdPriority priority) {
+        return create(device, element, bleGattCmdType, data, dataCallback, receiveCallback, priority, null);
+    }
+
+    static BleSerialGattCommand create(BleDeviceConnector device, BleGattElement element, BleGattCmdType bleGattCmdType, byte[] data,
+                                       IBleDataCallback dataCallback, IBleDataCallback receiveCallback, BleGattCmdPriority priority,
+                                       BleGattRetryPolicy retryPolicy) {
         if(device.getBleGatt() == null) return null;
 
-        BleGattCommand.Builder builder = new BleGattCommand.Builder();
-        BleGattCommand command = builder.setDevice(device)
-                .setBluetoothElement(element)
-                .setBleGattCmdType(bleGattCmdType)
-                .setData(data)
-                .setDataCallback(dataCallback)
-                .setReceiveCallback(receiveCallback).build();
+        BleSerialGattCommand command = obtain();
+        synchronized (command) {
+            if(!command.init(device, element, bleGattCmdType, data, dataCallback, receiveCallback, priority, retryPolicy)) {
+                BleLog.e("Gatt Command is error.");
+                command.recycle();
+                return null;
+            }
+            command.decorator.bleCallback = dataCallback;
+            command.dataCallback = command.decorator;
+        }
+        return command;
+    }
+
+    // 从对象池中取一个命令对象，池为空时新建
+    private static BleSerialGattCommand obtain() {
+        synchronized (pool) {
+            BleSerialGattCommand command = pool.poll();
+            if(command != null) {
+                return command;
+            }
+            allocatedCount++;
+        }
+        return new BleSerialGattCommand();
+    }
+
+    // 累计新建的命令对象数，由单元测试检查稳定读写时不再增长。
+    // 排队命令数超过池大小或命令超时后没有回收时该值仍会增长
+    static long getAllocatedCount() {
+        synchronized (pool) {
+            return allocatedCount;
+        }
+    }
+
+    // 回收命令对象，清除所有引用后放回对象池。调用者保证之后不再使用该命令
+    synchronized void recycle() {
+        clear();
+        decorator.bleCallback = null;
+        generation++;
+        finishAction = null;
+        enqueueTime = 0;
+        issued = false;
+        issueTime = 0;
+        batch = null;
+        coalescable = false;
+        if(mergedCallbacks != null) {
+            mergedCallbacks.clear();
+        }
+        finished = false;
+        issuing = false;
+        recyclable = true;
+        retries = 0;
+        issuedGatt = null;
+        cancelled = false;
+        retryPending = false;
+        handle = null;
+        disarmTimer();
+
+        synchronized (pool) {
+            if(pool.size() < POOL_SIZE) {
+                pool.push(this);
+            }
+        }
+    }
+
+    // 命令结束后，在不再被引用时回收
+    private void recycleIfPossible() {
+        if(finished && !issuing && recyclable) {
+            recycle();
+        }
+    }
+
+    // 命令对象当前的代数，操作命令时用来确认命令还是原来那条
+    int getGeneration() {
+        return generation;
+    }
+
+    long getEnqueueTime() {
+        return enqueueTime;
+    }
+
+    void setEnqueueTime(long enqueueTime) {
+        this.enqueueTime = enqueueTime;
+    }
+
+    synchronized boolean isIssued() {
+        return issued;
+    }
+
+    synchronized long getIssueTime() {
+        return issueTime;
+    }
 
-        if(command == null) ViseLog.e("Gatt Command is error.");
+    Object getBatch() {
+        return batch;
+    }
 
-        return new BleSerialGattCommand(command);
+    void setBatch(Object batch) {
+        this.batch = batch;
     }
 
-    @Override
-    synchronized boolean execute() throws InterruptedException{
-        finish = super.execute();
-        while(!finish) {
-            wait();
+    synchronized void setHandle(BleGattHandle handle, int handleIndex) {
+        this.handle = handle;
+        this.handleIndex = handleIndex;
+    }
+
+    boolean isCoalescable() {
+        return coalescable;
+    }
+
+    void setCoalescable(boolean coalescable) {
+        this.coalescable = coalescable;
+    }
+
+    // 操作同一个Gatt对象
+    boolean isSameTarget(BleSerialGattCommand other) {
+        BleGattElement element = getElement();
+        return element != null && element.isSameTarget(other.getElement());
+    }
+
+    /**
+     * 把一条新提交的命令合并到本命令中，只能在本命令发出前调用。
+     * 读命令合并后只读一次，结果回调给所有调用者；状态写命令合并后只写最后的值，写完后回调所有调用者
+     * @return 是否合并成功
+     */
+    synchronized boolean coalesce(BleSerialGattCommand other) {
+        if(finished || !coalescable || !other.coalescable || getBleGattCmdType() != other.getBleGattCmdType() || !isSameTarget(other)) {
+            return false;
+        }
+        if(getBleGattCmdType() == BleGattCmdType.GATT_CMD_WRITE) {
+            setWrittenData(other.getWrittenData());
+        } else if(getBleGattCmdType() != BleGattCmdType.GATT_CMD_READ) {
+            return false;
+        }
+
+        IBleDataCallback callback = other.decorator.bleCallback;
+        if(callback != null) {
+            if(mergedCallbacks == null) {
+                mergedCallbacks = new ArrayList<>(2);
+            }
+            mergedCallbacks.add(callback);
+        }
+        if(other.handle != null) {
+            other.handle.retarget(other.handleIndex, this, generation);
         }
         return true;
     }
 
+    /**
+     * 取消一个调用者的命令，以exception回调该调用者。命令合并后只取消该调用者，其他调用者不受影响。
+     * 命令的状态在锁内改变，回调和让出通道在锁外进行，调用者可能在回调中提交新的命令
+     * @param generation 提交命令时的代数，命令已经被回收重用时不做任何操作
+     * @param callback 要取消的调用者的回调
+     * @return CANCEL_FAILED, CANCEL_DONE or CANCEL_WITHDRAWN
+     */
+    int cancel(int generation, IBleDataCallback callback, BleException exception) {
+        int result = CANCEL_DONE;
+        Runnable action = null;
+        synchronized (this) {
+            if(this.generation != generation || finished) return CANCEL_FAILED;
+
+            if(!cancelled && callback == decorator.bleCallback) {
+                cancelled = true;
+            } else if(callback == null || mergedCallbacks == null || !mergedCallbacks.remove(callback)) {
+                return CANCEL_FAILED;
+            }
+
+            if(BleLog.isLoggable(BleLog.DEBUG)) {
+                BleLog.d("Command Cancelled: " + this);
+            }
+
+            // 还有调用者没有取消时命令照常执行
+            if(isAllCancelled()) {
+                if(!issued) {
+                    // 还没发出。已经被调度器取出的命令在发出时直接让出通道，还在队列中的由调用者移除
+                    finished = true;
+                    result = CANCEL_WITHDRAWN;
+                } else if(retryPending) {
+                    // 正在等待重试，不再重试，立即让出通道。已经发出的命令等待响应或超时后让出通道
+                    finished = true;
+                    disarmTimer();
+                    action = finishAction;
+                    finishAction = null;
+                }
+            }
+        }
+
+        if(callback != null) {
+            callback.onFailure(exception);
+        }
+        if(action != null) {
+            action.run();
+            synchronized (this) {
+                recycleIfPossible();
+            }
+        }
+        return result;
+    }
+
+    // 所有调用者都已经取消
+    private boolean isAllCancelled() {
+        return cancelled && (mergedCallbacks == null || mergedCallbacks.isEmpty());
+    }
+
+    // 发出命令但不等待响应，命令结束后执行finishAction
+    synchronized void executeWithoutWaiting(Runnable finishAction) throws InterruptedException{
+        this.finishAction = finishAction;
+        // 发出前已经被终止，直接让出通道
+        if(finished) {
+            runFinishAction();
+            recycleIfPossible();
+            return;
+        }
+        issued = true;
+        issueTime = SystemClock.elapsedRealtime();
+        issue();
+    }
+
+    // 终止一条还没发出的命令，由命令的持有者调用
+    boolean abort(BleException exception) {
+        return abort(getGeneration(), exception);
+    }
+
+    /**
+     * 终止一条还没发出的命令，以exception回调失败。已经发出的命令不能终止，仍等待其响应。
+     * 命令的状态在锁内改变，回调在锁外进行
+     * @param generation 持有命令时的代数，命令已经被回收重用时不做任何操作
+     * @return 是否终止成功
+     */
+    boolean abort(int generation, BleException exception) {
+        IBleDataCallback callback;
+        IBleDataCallback[] merged = null;
+        synchronized (this) {
+            if(this.generation != generation || finished || issued) return false;
+            finished = true;
+
+            if(BleLog.isLoggable(BleLog.DEBUG)) {
+                BleLog.d("Command Aborted: " + this + " Exception: " + exception);
+            }
+            callback = cancelled ? null : decorator.bleCallback;
+            // 终止后命令可能被调度器取出回收，合并的回调先取出
+            if(mergedCallbacks != null && !mergedCallbacks.isEmpty()) {
+                merged = mergedCallbacks.toArray(new IBleDataCallback[0]);
+                mergedCallbacks.clear();
+            }
+        }
+
+        if(callback != null) {
+            callback.onFailure(exception);
+        }
+        if(merged != null) {
+            for(IBleDataCallback mergedCallback : merged) {
+                mergedCallback.onFailure(exception);
+            }
+        }
+        return true;
+    }
+
+    // 发出一次命令。超时定时在发出前启动，命令发不出去时失败处理会立即取消它。
+    // 发出过程中命令可能已经结束，结束的命令在这里回收，保证回收后不再访问
+    private synchronized void issue() {
+        if(finished) return;
+
+        issuing = true;
+        issuedGatt = (getDevice() == null) ? null : getDevice().getBleGatt();
+        if(getBleGattCmdType() != BleGattCmdType.GATT_CMD_INSTANT_RUN) {
+            BleGattScheduler.scheduleTimeout(this, armTimer(), getRetryPolicy().getTimeout());
+        }
+        try {
+            if(super.execute() && !finished) {
+                finished = true;
+                disarmTimer();
+                runFinishAction();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            dataCallback.onFailure(new OtherException("The command is interrupted."));
+        } catch (IllegalStateException e) {
+            // 发出前连接已经断开
+            dataCallback.onFailure(new OtherException(e.getMessage()));
+        } finally {
+            issuing = false;
+        }
+        recycleIfPossible();
+    }
+
+    // 启动新的定时，返回定时令牌
+    private int armTimer() {
+        return ++timerToken;
+    }
+
+    // 取消定时，已经发出的定时消息因令牌不符而作废
+    private void disarmTimer() {
+        timerToken++;
+        BleGattScheduler.cancelTimers(this);
+    }
+
+    // 超时处理，由共享定时器调用。放弃Gatt中等待的操作在命令的锁外进行，避免与Gatt的锁形成死锁
+    void onTimeout(int token) {
+        BleGatt bleGatt;
+        int attempt;
+        synchronized (this) {
+            if(finished || token != timerToken) return;
+            // 超时的操作可能还有迟到的响应，本命令对象不再回收
+            recyclable = false;
+            bleGatt = issuedGatt;
+            attempt = retries;
+        }
+
+        // 放弃Gatt中等待的操作，之后到达的响应不会再回调本命令
+        if(bleGatt != null) {
+            bleGatt.cancelOperation(getBleGattCmdType(), dataCallback);
+        }
+
+        synchronized (this) {
+            // 期间命令已经结束或者已经开始重试，本次超时作废
+            if(finished || retries != attempt) return;
+            dataCallback.onFailure(new TimeoutException());
+        }
+    }
+
+    // 重试，由共享定时器调用
+    synchronized void onRetry(int token) {
+        if(token != timerToken) return;
+        retryPending = false;
+        issue();
+    }
+
+    // 记录命令的时延。响应到达时间由Gatt在分发响应时给出，超时等不是由响应结束的命令以当前时间为准
+    private void recordLatency() {
+        BleDeviceConnector device = getDevice();
+        if(device == null || enqueueTime == 0) return;
+        long now = SystemClock.elapsedRealtime();
+        long responseTime = (issuedGatt == null) ? 0 : issuedGatt.getDispatchingResponseTime();
+        if(responseTime < issueTime || responseTime > now) {
+            responseTime = now;
+        }
+        device.getGattLatencyStats().record(getBleGattCmdType(), getElement(), enqueueTime, issueTime, responseTime, now);
+    }
+
+    private void runFinishAction() {
+        if(finishAction != null) {
+            Runnable action = finishAction;
+            finishAction = null;
+            action.run();
+        }
+    }
+
+    // 连接是否还是发出命令时的连接
+    private boolean isSameConnection() {
+        return getDevice() != null && issuedGatt != null && getDevice().getBleGatt() == issuedGatt;
+    }
+
+    // 没有发出的命令收到的响应不属于本命令，忽略
     private synchronized void onSerialCommandSuccess(IBleDataCallback bleCallback, byte[] data, BleGattElement bleGattElement) {
-        if(data == null) {
-            ViseLog.i("Command Success: " + this);
-        } else {
-            ViseLog.i("Command Success: " + this + " Return data: " + HexUtil.encodeHexStr(data));
+        if(finished || !issued) return;
+        finished = true;
+        disarmTimer();
+        recordLatency();
+
+        if(BleLog.isLoggable(BleLog.DEBUG)) {
+            BleLog.d("Command Success: " + this + " Return data: " + HexUtil.encodeHexStr(data));
         }
-        if(bleCallback != null) {
+        if(bleCallback != null && !cancelled) {
             bleCallback.onSuccess(data, bleGattElement);
         }
+        if(mergedCallbacks != null) {
+            for(int i = 0; i < mergedCallbacks.size(); i++) {
+                mergedCallbacks.get(i).onSuccess(data, bleGattElement);
+            }
+        }
 
-        finish = true;
-        notifyAll();
+        runFinishAction();
+        recycleIfPossible();
     }
 
     private synchronized void onSerialCommandFailure(IBleDataCallback bleCallback, BleException exception) {
-        ViseLog.e("Command Failure: " + this + " Exception: " + exception);
+        if(finished || !issued) return;
+        disarmTimer();
+
+        // 暂时性的错误在退避后重试，命令继续占用通道。所有调用者都已取消的命令不再重试
+        BleGattRetryPolicy retryPolicy = getRetryPolicy();
+        if(!isAllCancelled() && isSameConnection() && retryPolicy.shouldRetry(getBleGattCmdType(), retries, exception)) {
+            retries++;
+            retryPending = true;
+            long backoff = retryPolicy.getBackoffTime(retries);
+            BleLog.w("Command Retry " + retries + " after " + backoff + "ms: " + this + " Exception: " + exception);
+            BleGattScheduler.scheduleRetry(this, armTimer(), backoff);
+            return;
+        }
 
-        if(bleCallback != null)
+        finished = true;
+        recordLatency();
+        BleLog.e("Command Failure: " + this + " Exception: " + exception);
+
+        if(bleCallback != null && !cancelled)
             bleCallback.onFailure(exception);
+        if(mergedCallbacks != null) {
+            for(int i = 0; i < mergedCallbacks.size(); i++) {
+                mergedCallbacks.get(i).onFailure(exception);
+            }
+        }
+
+        runFinishAction();
 
-        // 命令执行错误，请求断开连接
-        if(getDevice() != null) {
+        // 命令最终执行错误，按策略请求断开连接。连接已经变化时不影响新的连接
+        if(retryPolicy.isDisconnectOnFailure() && isSameConnection()) {
             getDevice().forceDisconnect(false);
         }
+        recycleIfPossible();
     }
 }
@@ -1,12 +1,16 @@
 package com.cmtech.android.ble.core;
 
+import android.os.SystemClock;
+
+import com.cmtech.android.ble.callback.IBleBatchCallback;
 import com.cmtech.android.ble.callback.IBleDataCallback;
-import com.cmtech.android.ble.utils.ExecutorUtil;
-import com.vise.log.ViseLog;
+import com.cmtech.android.ble.exception.BleException;
+import com.cmtech.android.ble.exception.OtherException;
+import com.cmtech.android.ble.utils.BleLog;
 
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.ThreadFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 
 /**
  *
@@ -18,18 +22,38 @@ import java.util.concurrent.ThreadFactory;
  * UpdateDate:     2019-06-20 07:02
  * UpdateRemark:   采用Executor实现
  * Version:        1.0
+ * UpdateUser:     chenm
+ * UpdateDate:     2026-10-16 16:00
+ * UpdateRemark:   不再为每个设备创建线程，命令提交到共享调度器中本设备的通道，发出后不等待响应
+ * Version:        1.1
  */
 
 class BleSerialGattCommandExecutor {
     private final BleDeviceConnector device; // 设备
-    private ExecutorService gattCmdService; // gatt命令执行Service
+    private final int windowSize; // 可流水线执行的命令的在途窗口大小，1表示所有命令严格串行执行
+    private volatile BleGattScheduler.Lane lane; // 在共享调度器中的命令通道，启动时创建，停止时关闭
+    private volatile boolean coalesceReads = false; // 是否合并排队中对同一element的读命令
+    private int queueCapacity = DEFAULT_QUEUE_CAPACITY; // 排队命令的最大数量，不大于0表示不限制
+    private BleGattQueuePolicy queuePolicy = BleGattQueuePolicy.REJECT; // 队列已满时的处理策略
+    private long queueStaleTime = DEFAULT_QUEUE_STALE_TIME; // DROP_STALE策略下命令的陈旧时间，单位：毫秒
+
+    static final int DEFAULT_QUEUE_CAPACITY = 256; // 缺省的排队命令最大数量
+    static final long DEFAULT_QUEUE_STALE_TIME = 10000; // 缺省的命令陈旧时间，单位：毫秒
 
     BleSerialGattCommandExecutor(BleDeviceConnector device) {
+        this(device, 1);
+    }
+
+    BleSerialGattCommandExecutor(BleDeviceConnector device, int windowSize) {
         if(device == null) {
             throw new IllegalArgumentException("BleDeviceConnector is null");
         }
+        if(windowSize < 1) {
+            throw new IllegalArgumentException("The window size must be positive.");
+        }
 
         this.device = device;
+        this.windowSize = windowSize;
     }
 
     // 启动Gatt命令执行器
@@ -38,95 +62,567 @@ class BleSerialGattCommandExecutor {
             return;
         }
 
-        ViseLog.e("Starting the gattCmdExecutor.");
+        BleLog.e("Starting the gattCmdExecutor.");
 
-        gattCmdService = Executors.newSingleThreadExecutor(new ThreadFactory() {
-            @Override
-            public Thread newThread(Runnable runnable) {
-                return new Thread(runnable, "MT_Gatt_Cmd_Service");
-            }
-        });
+        // 每次启动使用新的通道，上次连接的在途命令的响应不会影响新通道
+        BleGattScheduler.Lane lane = BleGattScheduler.newLane(windowSize);
+        synchronized (this) {
+            lane.setQueueLimit(queueCapacity, queuePolicy, queueStaleTime);
+        }
+        this.lane = lane;
     }
 
     // 停止Gatt命令执行器
     final void stop() {
         if(isAlive()) {
-            ExecutorUtil.shutdownNowAndAwaitTerminate(gattCmdService);
+            lane.close();
 
-            ViseLog.e("Stopping the gattCmdExecutor");
+            BleLog.e("Stopping the gattCmdExecutor");
         }
     }
 
     // 是否还在运行
     boolean isAlive() {
-        return ((gattCmdService != null) && !gattCmdService.isShutdown());
+        BleGattScheduler.Lane lane = this.lane;
+        return (lane != null) && lane.isAlive();
+    }
+
+    int getWindowSize() {
+        return windowSize;
+    }
+
+    // 排队中和正在执行的命令数
+    int getQueueDepth() {
+        BleGattScheduler.Lane lane = this.lane;
+        return (lane == null) ? 0 : lane.size();
+    }
+
+    // 本次连接中累计提交成功的命令数
+    long getSubmittedCount() {
+        BleGattScheduler.Lane lane = this.lane;
+        return (lane == null) ? 0 : lane.getSubmittedCount();
+    }
+
+    // 当前在途的命令数
+    int getInFlightCount() {
+        BleGattScheduler.Lane lane = this.lane;
+        return (lane == null) ? 0 : lane.getInFlightCount();
+    }
+
+    boolean isCoalesceReads() {
+        return coalesceReads;
+    }
+
+    void setCoalesceReads(boolean coalesceReads) {
+        this.coalesceReads = coalesceReads;
+    }
+
+    // 设置队列容量和队列已满时的处理策略，立即对当前通道生效
+    synchronized void setQueueLimit(int capacity, BleGattQueuePolicy policy, long staleTime) {
+        if(policy == null) {
+            throw new NullPointerException("The queue policy is null.");
+        }
+        this.queueCapacity = capacity;
+        this.queuePolicy = policy;
+        this.queueStaleTime = staleTime;
+        BleGattScheduler.Lane lane = this.lane;
+        if(lane != null) {
+            lane.setQueueLimit(capacity, policy, staleTime);
+        }
+    }
+
+    // 排队中的命令数
+    int getPendingCount() {
+        BleGattScheduler.Lane lane = this.lane;
+        return (lane == null) ? 0 : lane.getPendingCount();
+    }
+
+    // 本次连接中排队命令数的峰值
+    int getPeakPendingCount() {
+        BleGattScheduler.Lane lane = this.lane;
+        return (lane == null) ? 0 : lane.getPeakPendingCount();
+    }
+
+    // 本次连接中因队列已满被拒绝的命令数
+    long getRejectedCount() {
+        BleGattScheduler.Lane lane = this.lane;
+        return (lane == null) ? 0 : lane.getRejectedCount();
+    }
+
+    // 本次连接中因队列已满被丢弃的命令数
+    long getDroppedCount() {
+        BleGattScheduler.Lane lane = this.lane;
+        return (lane == null) ? 0 : lane.getDroppedCount();
+    }
+
+    // 本次连接中因命令合并而省去的Gatt往返次数
+    long getSavedRoundTrips() {
+        BleGattScheduler.Lane lane = this.lane;
+        return (lane == null) ? 0 : lane.getSavedRoundTrips();
+    }
+
+    // 某一优先级排队中的命令数
+    int getQueueDepth(BleGattCmdPriority priority) {
+        BleGattScheduler.Lane lane = this.lane;
+        return (lane == null) ? 0 : lane.getQueueDepth(priority);
+    }
+
+    // 某一优先级的命令在本次连接中的平均排队等待时间，单位：毫秒
+    long getAverageWaitTime(BleGattCmdPriority priority) {
+        BleGattScheduler.Lane lane = this.lane;
+        return (lane == null) ? 0 : lane.getAverageWaitTime(priority);
+    }
+
+    // 某一优先级的命令在本次连接中的最长排队等待时间，单位：毫秒
+    long getMaxWaitTime(BleGattCmdPriority priority) {
+        BleGattScheduler.Lane lane = this.lane;
+        return (lane == null) ? 0 : lane.getMaxWaitTime(priority);
     }
 
     // Gatt操作
     // 读
-    final void read(BleGattElement element, IBleDataCallback dataCallback) {
+    final BleGattHandle read(BleGattElement element, IBleDataCallback dataCallback) {
+        return read(element, BleGattCmdPriority.INTERACTIVE, dataCallback);
+    }
+
+    // 按指定优先级读
+    final BleGattHandle read(BleGattElement element, BleGattCmdPriority priority, IBleDataCallback dataCallback) {
+        return read(element, priority, null, dataCallback);
+    }
+
+    // 按指定优先级和重试策略读，retryPolicy为null时使用缺省策略
+    final BleGattHandle read(BleGattElement element, BleGattCmdPriority priority, BleGattRetryPolicy retryPolicy, IBleDataCallback dataCallback) {
         BleSerialGattCommand command = BleSerialGattCommand.create(device, element, BleGattCmdType.GATT_CMD_READ,
+                null, dataCallback, null, priority, retryPolicy);
+        if(command != null) {
+            command.setCoalescable(coalesceReads);
+        }
+        return executeCommand(command, dataCallback);
+    }
+
+    // 长读，由协议栈读完整个值后回调一次
+    final BleGattHandle readLong(BleGattElement element, IBleDataCallback dataCallback) {
+        BleSerialGattCommand command = BleSerialGattCommand.create(device, element, BleGattCmdType.GATT_CMD_READ_LONG,
                 null, dataCallback, null);
-        if(command != null)
-            executeCommand(command);
+        return executeCommand(command, dataCallback);
     }
 
-    // 写多字节
-    final void write(BleGattElement element, byte[] data, IBleDataCallback dataCallback) {
-        BleSerialGattCommand command = BleSerialGattCommand.create(device, element, BleGattCmdType.GATT_CMD_WRITE,
+    // 可靠写，整块数据在一个可靠写事务中写入，完成后回调一次
+    final BleGattHandle reliableWrite(BleGattElement element, byte[] data, IBleDataCallback dataCallback) {
+        BleSerialGattCommand command = BleSerialGattCommand.create(device, element, BleGattCmdType.GATT_CMD_RELIABLE_WRITE,
                 data, dataCallback, null);
-        if(command != null)
-            executeCommand(command);
+        return executeCommand(command, dataCallback);
+    }
+
+    // 写多字节，超过单包长度的数据自动分包。分包只是按MTU切分数据，不加长度头，需要对端重组时先用BleGattFrameAssembler.frame()加上长度头
+    final BleGattHandle write(BleGattElement element, byte[] data, IBleDataCallback dataCallback) {
+        return write(element, data, BleGattCmdPriority.INTERACTIVE, dataCallback);
+    }
+
+    // 按指定优先级写多字节
+    final BleGattHandle write(BleGattElement element, byte[] data, BleGattCmdPriority priority, IBleDataCallback dataCallback) {
+        return write(element, data, priority, null, dataCallback);
+    }
+
+    // 按指定优先级和重试策略写多字节，retryPolicy为null时使用缺省策略
+    final BleGattHandle write(BleGattElement element, byte[] data, BleGattCmdPriority priority, BleGattRetryPolicy retryPolicy, IBleDataCallback dataCallback) {
+        return writeFrames(element, BleGattCmdType.GATT_CMD_WRITE, data, priority, retryPolicy, dataCallback);
     }
 
-    // 写单字节
-    final void write(BleGattElement element, byte data, IBleDataCallback dataCallback) {
-        write(element, new byte[]{data}, dataCallback);
+    // 状态写：只有最后写入的值有意义。排队中对同一element的状态写会被合并，只写最后的值，写完后回调所有调用者。
+    // 超过单包长度的数据不合并
+    final BleGattHandle writeState(BleGattElement element, byte[] data, BleGattCmdPriority priority, IBleDataCallback dataCallback) {
+        BleGatt bleGatt = device.getBleGatt();
+        if(data == null || bleGatt == null || data.length > bleGatt.getMaxPayloadSize()) {
+            return write(element, data, priority, dataCallback);
+        }
+
+        BleSerialGattCommand command = BleSerialGattCommand.create(device, element, BleGattCmdType.GATT_CMD_WRITE,
+                data, dataCallback, null, priority);
+        if(command != null) {
+            command.setCoalescable(true);
+        }
+        return executeCommand(command, dataCallback);
+    }
+
+    // 无响应写多字节，超过单包长度的数据按MTU切分，不加长度头
+    final BleGattHandle writeNoResponse(BleGattElement element, byte[] data, IBleDataCallback dataCallback) {
+        return writeNoResponse(element, data, BleGattCmdPriority.INTERACTIVE, dataCallback);
+    }
+
+    // 按指定优先级无响应写多字节
+    final BleGattHandle writeNoResponse(BleGattElement element, byte[] data, BleGattCmdPriority priority, IBleDataCallback dataCallback) {
+        return writeFrames(element, BleGattCmdType.GATT_CMD_WRITE_NO_RESPONSE, data, priority, null, dataCallback);
+    }
+
+    // 按当前MTU将数据分包写入，所有分包写完后只回调一次。数据原样切分，不加任何帧格式
+    private BleGattHandle writeFrames(BleGattElement element, BleGattCmdType cmdType, byte[] data, BleGattCmdPriority priority,
+                             BleGattRetryPolicy retryPolicy, IBleDataCallback dataCallback) {
+        BleGatt bleGatt = device.getBleGatt();
+        int frameSize = (bleGatt == null) ? 0 : bleGatt.getMaxPayloadSize();
+        if(data == null || frameSize <= 0 || data.length <= frameSize) {
+            BleSerialGattCommand command = BleSerialGattCommand.create(device, element, cmdType,
+                    data, dataCallback, null, priority, retryPolicy);
+            return executeCommand(command, dataCallback);
+        }
+
+        // 所有分包一次提交，要么全部进入队列，要么全部不进入，不会只写出一部分数据
+        int frameNum = (data.length + frameSize - 1) / frameSize;
+        FrameDataCallback frameCallback = new FrameDataCallback(data, frameNum, dataCallback);
+        List<BleSerialGattCommand> commands = new ArrayList<>(frameNum);
+        for(int i = 0; i < frameNum; i++) {
+            byte[] frame = Arrays.copyOfRange(data, i * frameSize, Math.min((i + 1) * frameSize, data.length));
+            BleSerialGattCommand command = BleSerialGattCommand.create(device, element, cmdType,
+                    frame, frameCallback, null, priority, retryPolicy);
+            if(command == null) {
+                recycleAll(commands);
+                frameCallback.onFailure(new OtherException("Invalid gatt command."));
+                return BleGattHandle.NONE;
+            }
+            commands.add(command);
+        }
+
+        BleGattScheduler.Lane lane = this.lane;
+        BleGattHandle handle = new BleGattHandle(lane, frameNum);
+        for(BleSerialGattCommand command : commands) {
+            handle.add(command, frameCallback);
+        }
+        frameCallback.start(commands, lane);
+        if(lane == null || !lane.submitAll(commands)) {
+            BleException exception = submitFailure(lane);
+            for(BleSerialGattCommand command : commands) {
+                command.abort(exception);
+                command.recycle();
+            }
+        }
+        return handle;
+    }
+
+    // 写单字节。写入的数组会回到调用者的回调中，因此每次新建，不能共用
+    final BleGattHandle write(BleGattElement element, byte data, IBleDataCallback dataCallback) {
+        return write(element, new byte[]{data}, dataCallback);
     }
 
     // Notify
-    final void notify(BleGattElement element, boolean enable, IBleDataCallback receiveCallback) {
-        notify(element, enable, null, receiveCallback);
+    final BleGattHandle notify(BleGattElement element, boolean enable, IBleDataCallback receiveCallback) {
+        return notify(element, enable, null, receiveCallback);
     }
 
-    private void notify(BleGattElement element, boolean enable
+    // Notify，reassemble为true时将多包数据重组为完整消息后再回调
+    final BleGattHandle notify(BleGattElement element, boolean enable, boolean reassemble, IBleDataCallback receiveCallback) {
+        return notify(element, enable, null, (reassemble && receiveCallback != null) ? new BleGattFrameAssembler(receiveCallback) : receiveCallback);
+    }
+
+    // Notify，dataCallback在使能或禁止完成时回调
+    final BleGattHandle notify(BleGattElement element, boolean enable
             , IBleDataCallback dataCallback, IBleDataCallback receiveCallback) {
         BleSerialGattCommand command = BleSerialGattCommand.create(device, element, BleGattCmdType.GATT_CMD_NOTIFY,
-                (enable) ? new byte[]{0x01} : new byte[]{0x00}, dataCallback, receiveCallback);
-        if(command != null)
-            executeCommand(command);
+                (enable) ? BleGattCommand.ENABLE_VALUE : BleGattCommand.DISABLE_VALUE, dataCallback, receiveCallback);
+        return executeCommand(command, dataCallback);
     }
 
     // Indicate
-    final void indicate(BleGattElement element, boolean enable, IBleDataCallback receiveCallback) {
-        indicate(element, enable, null, receiveCallback);
+    final BleGattHandle indicate(BleGattElement element, boolean enable, IBleDataCallback receiveCallback) {
+        return indicate(element, enable, null, receiveCallback);
+    }
+
+    // Indicate，reassemble为true时将多包数据重组为完整消息后再回调
+    final BleGattHandle indicate(BleGattElement element, boolean enable, boolean reassemble, IBleDataCallback receiveCallback) {
+        return indicate(element, enable, null, (reassemble && receiveCallback != null) ? new BleGattFrameAssembler(receiveCallback) : receiveCallback);
     }
 
-    private void indicate(BleGattElement element, boolean enable
+    // Indicate，dataCallback在使能或禁止完成时回调
+    final BleGattHandle indicate(BleGattElement element, boolean enable
             , IBleDataCallback dataCallback, IBleDataCallback receiveCallback) {
         BleSerialGattCommand command = BleSerialGattCommand.create(device, element, BleGattCmdType.GATT_CMD_INDICATE,
-                (enable) ? new byte[]{0x01} : new byte[]{0x00}, dataCallback, receiveCallback);
-        if(command != null)
-            executeCommand(command);
+                (enable) ? BleGattCommand.ENABLE_VALUE : BleGattCommand.DISABLE_VALUE, dataCallback, receiveCallback);
+        return executeCommand(command, dataCallback);
     }
 
     // 无需等待响应立刻执行完毕
-    final void runInstantly(IBleDataCallback dataCallback) {
+    final BleGattHandle runInstantly(IBleDataCallback dataCallback) {
         BleSerialGattCommand command = BleSerialGattCommand.create(device, null, BleGattCmdType.GATT_CMD_INSTANT_RUN,
                 null, dataCallback, null);
-        if(command != null)
-            executeCommand(command);
+        return executeCommand(command, dataCallback);
     }
 
-    private void executeCommand(final BleGattCommand command) {
-        if(isAlive()) {
-            gattCmdService.execute(new Runnable() {
+    // 执行批处理，所有步骤作为一个整体提交，全部结束后回调一次汇总结果
+    final BleGattHandle executeBatch(BleGattBatch batch, IBleBatchCallback batchCallback) {
+        if(batch == null || batchCallback == null) {
+            throw new NullPointerException("The batch or callback is null.");
+        }
+
+        List<BleGattBatch.Step> steps = batch.getSteps();
+        BatchRun run = new BatchRun(steps, batch.isStopOnFailure(), batchCallback);
+        BleGattScheduler.Lane lane = this.lane;
+        if(lane == null || !lane.isAlive()) {
+            run.fail(submitFailure(lane));
+            return BleGattHandle.NONE;
+        }
+
+        BleGatt bleGatt = device.getBleGatt();
+        int frameSize = (bleGatt == null) ? 0 : bleGatt.getMaxPayloadSize();
+        for(int i = 0; i < steps.size(); i++) {
+            byte[] data = steps.get(i).getData();
+            if(data != null && frameSize > 0 && data.length > frameSize) {
+                run.fail(new OtherException("The data of step " + i + " exceeds the frame size."));
+                return BleGattHandle.NONE;
+            }
+        }
+
+        List<BleSerialGattCommand> commands = new ArrayList<>(steps.size());
+        BleGattHandle handle = new BleGattHandle(lane, steps.size());
+        for(int i = 0; i < steps.size(); i++) {
+            BleGattBatch.Step step = steps.get(i);
+            BatchStepCallback stepCallback = new BatchStepCallback(run, i);
+            BleSerialGattCommand command = BleSerialGattCommand.create(device, step.getElement(), step.getCmdType(),
+                    step.getData(), stepCallback, step.getReceiveCallback(), batch.getPriority(), batch.getRetryPolicy());
+            if(command == null) {
+                // 已经取得的命令不再提交，回收
+                recycleAll(commands);
+                run.fail(new OtherException("Invalid gatt command."));
+                return BleGattHandle.NONE;
+            }
+            command.setBatch(run);
+            stepCallback.command = command;
+            commands.add(command);
+            handle.add(command, stepCallback);
+        }
+
+        run.start(commands, lane);
+        if(commands.isEmpty()) {
+            run.finish();
+        } else if(!lane.submitAll(commands)) {
+            recycleAll(commands);
+            run.fail(submitFailure(lane));
+        }
+        return handle;
+    }
+
+    private static void recycleAll(List<BleSerialGattCommand> commands) {
+        for(BleSerialGattCommand command : commands) {
+            command.recycle();
+        }
+    }
+
+    // 不执行批处理，直接以exception回调所有步骤失败
+    static void failBatch(BleGattBatch batch, IBleBatchCallback batchCallback, BleException exception) {
+        new BatchRun(batch.getSteps(), batch.isStopOnFailure(), batchCallback).fail(exception);
+    }
+
+    // 执行命令，返回命令的取消句柄。命令无效时直接回调失败
+    private BleGattHandle executeCommand(BleSerialGattCommand command, IBleDataCallback dataCallback) {
+        if(command == null) {
+            if(dataCallback != null) {
+                dataCallback.onFailure(new OtherException("Invalid gatt command."));
+            }
+            return BleGattHandle.NONE;
+        }
+
+        BleGattScheduler.Lane lane = this.lane;
+        BleGattHandle handle = new BleGattHandle(lane);
+        handle.add(command, dataCallback);
+        executeCommand(lane, command);
+        return handle;
+    }
+
+    // 提交命令。执行器已经停止或者队列已满时命令以失败结束，并回收命令对象
+    private static void executeCommand(BleGattScheduler.Lane lane, BleSerialGattCommand command) {
+        if(lane == null || !lane.submit(command)) {
+            command.abort(submitFailure(lane));
+            command.recycle();
+        }
+    }
+
+    // 提交失败的原因
+    private static BleException submitFailure(BleGattScheduler.Lane lane) {
+        if(lane != null && lane.isAlive()) {
+            return new OtherException("The gatt command queue is full.");
+        }
+        return new OtherException("The gatt command executor is stopped.");
+    }
+
+    // 批处理的一次执行，收集每一步的结果，所有步骤结束后回调一次
+    private static class BatchRun {
+        private final BleGattBatchResult.StepResult[] results;
+        private final boolean stopOnFailure;
+        private final IBleBatchCallback batchCallback;
+        private List<BleSerialGattCommand> commands;
+        private int[] generations; // 提交时各步命令的代数，命令回收后不再终止它
+        private BleGattScheduler.Lane lane; // 批处理命令所在的通道
+        private final long startTime;
+        private int remain;
+        private boolean skipping; // 是否已经开始跳过后面的步骤
+        private boolean finished;
+
+        BatchRun(List<BleGattBatch.Step> steps, boolean stopOnFailure, IBleBatchCallback batchCallback) {
+            this.results = new BleGattBatchResult.StepResult[steps.size()];
+            for(int i = 0; i < results.length; i++) {
+                results[i] = new BleGattBatchResult.StepResult(steps.get(i).getCmdType(), steps.get(i).getElement());
+            }
+            this.stopOnFailure = stopOnFailure;
+            this.batchCallback = batchCallback;
+            this.startTime = SystemClock.elapsedRealtime();
+        }
+
+        synchronized void start(List<BleSerialGattCommand> commands, BleGattScheduler.Lane lane) {
+            this.commands = commands;
+            this.generations = new int[commands.size()];
+            for(int i = 0; i < generations.length; i++) {
+                generations[i] = commands.get(i).getGeneration();
+            }
+            this.lane = lane;
+            this.remain = commands.size();
+        }
+
+        // 没有提交就失败，所有步骤都没有执行
+        void fail(BleException exception) {
+            synchronized (this) {
+                for(BleGattBatchResult.StepResult result : results) {
+                    result.setFailure(exception, false, 0, 0);
+                }
+            }
+            finish();
+        }
+
+        void onStepSuccess(int index, BleSerialGattCommand command, byte[] data) {
+            long issueTime = command.getIssueTime();
+            long now = SystemClock.elapsedRealtime();
+            synchronized (this) {
+                results[index].setSuccess(data, issueTime - command.getEnqueueTime(), now - issueTime);
+            }
+            onStepFinished();
+        }
+
+        void onStepFailure(int index, BleSerialGattCommand command, BleException exception) {
+            long issueTime = command.getIssueTime();
+            long now = SystemClock.elapsedRealtime();
+            boolean executed = command.isIssued();
+            boolean skip;
+            final List<BleSerialGattCommand> commands;
+            final int[] generations;
+            BleGattScheduler.Lane lane;
+            synchronized (this) {
+                results[index].setFailure(exception, executed,
+                        executed ? issueTime - command.getEnqueueTime() : 0, executed ? now - issueTime : 0);
+                commands = this.commands;
+                generations = this.generations;
+                lane = this.lane;
+                // 不论失败的步骤是否已经发出（如被取消），都跳过后面的步骤。只有第一个失败的步骤发起跳过
+                skip = stopOnFailure && !skipping && commands != null && lane != null && index + 1 < commands.size();
+                if(skip) skipping = true;
+            }
+
+            // 失败的回调在失败步骤的锁内执行，跳过后面的步骤推迟到通道发出下一条命令之前，在锁外进行。
+            // 后面还没发出的步骤不再发出，已经发出的步骤仍等待其结果
+            if(skip) {
+                final int failedIndex = index;
+                lane.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        for(int i = failedIndex + 1; i < generations.length; i++) {
+                            commands.get(i).abort(generations[i], new OtherException("Skipped after step " + failedIndex + " failed."));
+                        }
+                    }
+                });
+            }
+            onStepFinished();
+        }
+
+        private void onStepFinished() {
+            synchronized (this) {
+                if(--remain > 0) return;
+            }
+            finish();
+        }
+
+        void finish() {
+            BleGattBatchResult result;
+            synchronized (this) {
+                if(finished) return;
+                finished = true;
+                result = new BleGattBatchResult(results, SystemClock.elapsedRealtime() - startTime);
+            }
+            if(BleLog.isLoggable(BleLog.DEBUG)) {
+                BleLog.d("Batch complete: " + result);
+            }
+            batchCallback.onComplete(result);
+        }
+    }
+
+    // 批处理一步的回调
+    private static class BatchStepCallback implements IBleDataCallback {
+        private final BatchRun run;
+        private final int index;
+        private BleSerialGattCommand command;
+
+        BatchStepCallback(BatchRun run, int index) {
+            this.run = run;
+            this.index = index;
+        }
+
+        @Override
+        public void onSuccess(byte[] data, BleGattElement element) {
+            run.onStepSuccess(index, command, data);
+        }
+
+        @Override
+        public void onFailure(BleException exception) {
+            run.onStepFailure(index, command, exception);
+        }
+    }
+
+    // 分包写回调，最后一包写成功后用完整数据回调一次，任一包失败只回调一次失败，并终止后面还没发出的分包
+    private static class FrameDataCallback implements IBleDataCallback {
+        private final byte[] data;
+        private final IBleDataCallback dataCallback;
+        private int remain;
+        private boolean failed;
+        private List<BleSerialGattCommand> commands; // 所有分包的命令
+        private int[] generations; // 提交时各分包命令的代数，命令回收后不再终止它
+        private BleGattScheduler.Lane lane; // 分包命令所在的通道
+
+        FrameDataCallback(byte[] data, int frameNum, IBleDataCallback dataCallback) {
+            this.data = data;
+            this.remain = frameNum;
+            this.dataCallback = dataCallback;
+        }
+
+        synchronized void start(List<BleSerialGattCommand> commands, BleGattScheduler.Lane lane) {
+            this.commands = commands;
+            this.generations = new int[commands.size()];
+            for(int i = 0; i < generations.length; i++) {
+                generations[i] = commands.get(i).getGeneration();
+            }
+            this.lane = lane;
+        }
+
+        @Override
+        public synchronized void onSuccess(byte[] frame, BleGattElement element) {
+            if(failed) return;
+            if(--remain == 0 && dataCallback != null) {
+                dataCallback.onSuccess(data, element);
+            }
+        }
+
+        @Override
+        public void onFailure(BleException exception) {
+            synchronized (this) {
+                if(failed) return;
+                failed = true;
+                if(dataCallback != null) {
+                    dataCallback.onFailure(exception);
+                }
+                if(commands == null || lane == null) return;
+            }
+
+            // 失败的回调在失败分包的锁内执行，终止其他分包推迟到通道发出下一条命令之前，在锁外进行。
+            // 后面还没发出的分包不再发出，已经发出的分包不能终止，其结果被忽略
+            lane.post(new Runnable() {
                 @Override
                 public void run() {
-                    try {
-                        command.execute();
-                    } catch (InterruptedException e) {
-                        e.printStackTrace();
+                    for(int i = 0; i < generations.length; i++) {
+                        commands.get(i).abort(generations[i], new OtherException("Skipped after a frame failed."));
                     }
                 }
             });
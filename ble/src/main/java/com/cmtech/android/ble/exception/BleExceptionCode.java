@@ -11,5 +11,6 @@ public enum BleExceptionCode {
     GATT_ERR,   //GATT异常
     INITIATED_ERR,  //初始化异常
     SCAN_ERR, // 扫描异常
+    CANCELLED, // 已取消
     OTHER_ERR   //其他异常
 }
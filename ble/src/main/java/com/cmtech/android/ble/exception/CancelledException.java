@@ -0,0 +1,12 @@
+package com.cmtech.android.ble.exception;
+
+/**
+ * @Description: 取消异常，调用者取消了Gatt命令
+ * @author: chenm
+ * @date: 2026-10-16 20:10
+ */
+public class CancelledException extends BleException {
+    public CancelledException() {
+        super(BleExceptionCode.CANCELLED, "The gatt command is cancelled.");
+    }
+}
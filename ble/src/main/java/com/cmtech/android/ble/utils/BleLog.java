@@ -0,0 +1,59 @@
+package com.cmtech.android.ble.utils;
+
+import com.cmtech.android.ble.BuildConfig;
+import com.vise.log.ViseLog;
+
+/**
+ * ClassName:      BleLog
+ * Description:    ble模块的日志门面。先判断日志级别再格式化，热路径上应先调用isLoggable()，
+ *                 级别不够时不拼接字符串。数据包内容用BleTrace以二进制形式记录
+ * Author:         chenm
+ * CreateDate:     2026-10-16 14:30
+ * UpdateUser:     chenm
+ * UpdateDate:     2026-10-16 14:30
+ * UpdateRemark:   无
+ * Version:        1.0
+ */
+public class BleLog {
+    public static final int VERBOSE = 2;
+    public static final int DEBUG = 3;
+    public static final int INFO = 4;
+    public static final int WARN = 5;
+    public static final int ERROR = 6;
+    public static final int NONE = 7; // 关闭日志
+
+    private static volatile int level = BuildConfig.DEBUG ? INFO : WARN; // 当前日志级别，release版本缺省只输出警告和错误
+
+    public static int getLevel() {
+        return level;
+    }
+
+    public static void setLevel(int level) {
+        BleLog.level = level;
+    }
+
+    // 该级别的日志是否会输出
+    public static boolean isLoggable(int level) {
+        return level >= BleLog.level;
+    }
+
+    public static void v(String msg) {
+        if (isLoggable(VERBOSE)) ViseLog.v(msg);
+    }
+
+    public static void d(String msg) {
+        if (isLoggable(DEBUG)) ViseLog.d(msg);
+    }
+
+    public static void i(String msg) {
+        if (isLoggable(INFO)) ViseLog.i(msg);
+    }
+
+    public static void w(String msg) {
+        if (isLoggable(WARN)) ViseLog.w(msg);
+    }
+
+    public static void e(String msg) {
+        if (isLoggable(ERROR)) ViseLog.e(msg);
+    }
+}
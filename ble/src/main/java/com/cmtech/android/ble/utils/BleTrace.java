@@ -0,0 +1,98 @@
+package com.cmtech.android.ble.utils;
+
+import android.os.SystemClock;
+
+/**
+ * ClassName:      BleTrace
+ * Description:    GATT数据包的二进制跟踪。在预分配的环形缓冲区中记录事件、状态和数据包的前若干字节，
+ *                 记录时不分配内存也不格式化，需要时再调用dump()输出
+ * Author:         chenm
+ * CreateDate:     2026-10-16 14:30
+ * UpdateUser:     chenm
+ * UpdateDate:     2026-10-16 14:30
+ * UpdateRemark:   无
+ * Version:        1.0
+ */
+public class BleTrace {
+    public static final int EVENT_READ = 1; // 读特征值
+    public static final int EVENT_WRITE = 2; // 写特征值
+    public static final int EVENT_NOTIFY = 3; // 收到通知
+    public static final int EVENT_DESCRIPTOR_READ = 4; // 读描述符
+    public static final int EVENT_DESCRIPTOR_WRITE = 5; // 写描述符
+
+    private static final int DEFAULT_CAPACITY = 1024; // 缺省的记录条数
+    private static final int MAX_PAYLOAD = 32; // 每条记录保存的最大数据长度
+
+    private static volatile boolean enabled = false; // 是否开启跟踪
+    private static long[] times; // 时间戳，单位：纳秒
+    private static int[] events; // 事件
+    private static int[] statuses; // 状态
+    private static int[] lengths; // 数据包的实际长度
+    private static byte[] payloads; // 数据包内容
+    private static int next; // 下一条记录的位置
+    private static int count; // 有效记录条数
+
+    // 开启或关闭跟踪，开启时分配缓冲区并清空原有记录
+    public static synchronized void setEnabled(boolean enabled, int capacity) {
+        if (enabled) {
+            int size = (capacity > 0) ? capacity : DEFAULT_CAPACITY;
+            times = new long[size];
+            events = new int[size];
+            statuses = new int[size];
+            lengths = new int[size];
+            payloads = new byte[size * MAX_PAYLOAD];
+            next = 0;
+            count = 0;
+        }
+        BleTrace.enabled = enabled;
+    }
+
+    public static void setEnabled(boolean enabled) {
+        setEnabled(enabled, DEFAULT_CAPACITY);
+    }
+
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    // 记录一个事件
+    public static void record(int event, int status, byte[] data) {
+        if (!enabled) return;
+
+        synchronized (BleTrace.class) {
+            if (times == null) return;
+
+            int i = next;
+            times[i] = SystemClock.elapsedRealtimeNanos();
+            events[i] = event;
+            statuses[i] = status;
+            int length = (data == null) ? 0 : data.length;
+            lengths[i] = length;
+            if (length > 0) {
+                System.arraycopy(data, 0, payloads, i * MAX_PAYLOAD, Math.min(length, MAX_PAYLOAD));
+            }
+            next = (i + 1) % times.length;
+            if (count < times.length) count++;
+        }
+    }
+
+    // 按时间顺序输出所有记录，每条一行
+    public static synchronized String dump() {
+        if (times == null || count == 0) return "";
+
+        StringBuilder builder = new StringBuilder(count * 96);
+        int start = (next - count + times.length) % times.length;
+        for (int n = 0; n < count; n++) {
+            int i = (start + n) % times.length;
+            int saved = Math.min(lengths[i], MAX_PAYLOAD);
+            byte[] payload = new byte[saved];
+            System.arraycopy(payloads, i * MAX_PAYLOAD, payload, 0, saved);
+            builder.append(times[i]).append(' ')
+                    .append(events[i]).append(' ')
+                    .append(statuses[i]).append(' ')
+                    .append(lengths[i]).append(' ')
+                    .append(HexUtil.encodeHexStr(payload)).append('\n');
+        }
+        return builder.toString();
+    }
+}
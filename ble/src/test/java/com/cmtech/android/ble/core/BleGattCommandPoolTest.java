@@ -0,0 +1,77 @@
+package com.cmtech.android.ble.core;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.UUID;
+
+import static org.junit.Assert.*;
+
+/**
+ * Gatt命令对象池的测试。对象池热身后，稳定地读写不再新建命令对象
+ */
+public class BleGattCommandPoolTest {
+    private static final BleGattElement ELEMENT = new BleGattElement(UUID.randomUUID(), UUID.randomUUID(), null, "pooled");
+    private static final int WARM_UP_COUNT = 100;
+    private static final int STEADY_COUNT = 2000;
+
+    private FakeBleGatt bleGatt;
+    private BleSerialGattCommandExecutor executor;
+
+    @Before
+    public void setUp() {
+        bleGatt = new FakeBleGatt();
+        executor = new BleSerialGattCommandExecutor(bleGatt.newConnector());
+        executor.start();
+    }
+
+    @After
+    public void tearDown() {
+        executor.stop();
+        bleGatt.shutdown();
+    }
+
+    @Test
+    public void steadyReadsAndWrites_doNotAllocateCommands() throws Exception {
+        readAndWrite(WARM_UP_COUNT);
+        long allocated = BleSerialGattCommand.getAllocatedCount();
+
+        readAndWrite(STEADY_COUNT);
+
+        assertEquals(allocated, BleSerialGattCommand.getAllocatedCount());
+        assertEquals(WARM_UP_COUNT + STEADY_COUNT, bleGatt.readCount.get());
+        assertEquals(WARM_UP_COUNT + STEADY_COUNT, bleGatt.writeCount.get());
+    }
+
+    @Test
+    public void singleByteWrites_doNotShareTheDataArray() throws Exception {
+        FakeBleGatt.WaitingCallback first = new FakeBleGatt.WaitingCallback();
+        executor.write(ELEMENT, (byte) 7, first);
+        assertTrue(first.await());
+        assertArrayEquals(new byte[]{7}, first.data);
+
+        // 调用者修改回调中得到的数组，不能影响之后写同一个字节
+        first.data[0] = 9;
+        FakeBleGatt.WaitingCallback second = new FakeBleGatt.WaitingCallback();
+        executor.write(ELEMENT, (byte) 7, second);
+        assertTrue(second.await());
+        assertArrayEquals(new byte[]{7}, second.data);
+    }
+
+    private void readAndWrite(int count) throws Exception {
+        byte[] data = new byte[]{1, 2, 3};
+        for(int i = 0; i < count; i++) {
+            FakeBleGatt.WaitingCallback read = new FakeBleGatt.WaitingCallback();
+            executor.read(ELEMENT, read);
+            FakeBleGatt.WaitingCallback write = new FakeBleGatt.WaitingCallback();
+            executor.write(ELEMENT, data, write);
+
+            assertTrue(read.await());
+            assertNull(read.exception);
+            assertTrue(write.await());
+            assertNull(write.exception);
+            assertArrayEquals(data, write.data);
+        }
+    }
+}
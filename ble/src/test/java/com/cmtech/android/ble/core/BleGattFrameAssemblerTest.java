@@ -0,0 +1,103 @@
+package com.cmtech.android.ble.core;
+
+import com.cmtech.android.ble.callback.IBleDataCallback;
+import com.cmtech.android.ble.exception.BleException;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.UUID;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * 多包数据重组器的测试
+ */
+public class BleGattFrameAssemblerTest {
+    private static final BleGattElement ELEMENT = new BleGattElement(UUID.randomUUID(), UUID.randomUUID(), null, "frames");
+
+    // 把收到的消息放入队列的接收回调
+    private static class QueueCallback implements IBleDataCallback {
+        private final BlockingQueue<byte[]> received = new LinkedBlockingQueue<>();
+
+        @Override
+        public void onSuccess(byte[] data, BleGattElement element) {
+            received.add(data);
+        }
+
+        @Override
+        public void onFailure(BleException exception) {
+        }
+
+        byte[] poll() throws InterruptedException {
+            return received.poll(5, TimeUnit.SECONDS);
+        }
+    }
+
+    @Test
+    public void wrappedRingBuffer_isStartedAndStoppedThroughTheAssembler() throws Exception {
+        QueueCallback callback = new QueueCallback();
+        BleNotifyRingBuffer buffer = new BleNotifyRingBuffer(callback);
+        BleGattFrameAssembler assembler = new BleGattFrameAssembler(buffer);
+
+        assembler.start();
+        assertTrue(buffer.isStarted());
+
+        assembler.onSuccess(new byte[]{3, 0, 10, 11}, ELEMENT);
+        assembler.onSuccess(new byte[]{12}, ELEMENT);
+        assertArrayEquals(new byte[]{10, 11, 12}, callback.poll());
+
+        assembler.stop();
+        assertFalse(buffer.isStarted());
+    }
+
+    @Test
+    public void framedMessage_isSplitAtAnyBoundaryAndReassembled() throws Exception {
+        QueueCallback callback = new QueueCallback();
+        BleGattFrameAssembler assembler = new BleGattFrameAssembler(callback);
+        byte[] message = new byte[300];
+        for(int i = 0; i < message.length; i++) {
+            message[i] = (byte) i;
+        }
+
+        // 写操作按MTU原样切分带长度头的数据
+        byte[] data = BleGattFrameAssembler.frame(message);
+        assertEquals(message.length + 2, data.length);
+        for(int i = 0; i < data.length; i += 20) {
+            assembler.onSuccess(Arrays.copyOfRange(data, i, Math.min(i + 20, data.length)), ELEMENT);
+        }
+
+        assertArrayEquals(message, callback.poll());
+    }
+
+    @Test
+    public void overflowingFrame_dropsTheMessageAndResynchronizes() throws Exception {
+        QueueCallback callback = new QueueCallback();
+        BleGattFrameAssembler assembler = new BleGattFrameAssembler(callback);
+
+        // 长度头为2，后续数据超出，整条消息丢弃
+        assembler.onSuccess(new byte[]{2, 0, 1}, ELEMENT);
+        assembler.onSuccess(new byte[]{2, 3}, ELEMENT);
+        // 下一包作为新消息的第一包
+        assembler.onSuccess(new byte[]{1, 0, 9}, ELEMENT);
+
+        assertArrayEquals(new byte[]{9}, callback.poll());
+        assertTrue(callback.received.isEmpty());
+    }
+
+    @Test
+    public void shortFirstFrame_isDropped() throws Exception {
+        QueueCallback callback = new QueueCallback();
+        BleGattFrameAssembler assembler = new BleGattFrameAssembler(callback);
+
+        assembler.onSuccess(new byte[]{5}, ELEMENT);
+        assembler.onSuccess(new byte[]{0, 0}, ELEMENT);
+
+        // 只有1字节的第一包被丢弃，长度为0的消息立即完成
+        assertArrayEquals(new byte[0], callback.poll());
+        assertTrue(callback.received.isEmpty());
+    }
+}
@@ -0,0 +1,100 @@
+package com.cmtech.android.ble.core;
+
+import com.cmtech.android.ble.exception.CancelledException;
+
+import org.junit.Test;
+
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/**
+ * Gatt操作结果的测试。取消then()串起来的序列时，要取消正在执行的那一级，后续操作不再执行
+ */
+public class BleGattFutureTest {
+    private static final BleGattElement ELEMENT = new BleGattElement(UUID.randomUUID(), UUID.randomUUID(), null, "future");
+
+    @Test
+    public void cancelBeforeTheFirstStageCompletes_cancelsTheFirstStage() {
+        BleGattFuture first = new BleGattFuture();
+        final AtomicInteger applied = new AtomicInteger();
+        BleGattFuture next = first.then(new BleGattFuture.Continuation() {
+            @Override
+            public BleGattFuture apply(byte[] data, BleGattElement element) {
+                applied.incrementAndGet();
+                return null;
+            }
+        });
+
+        assertTrue(next.cancel());
+
+        assertTrue(first.isDone());
+        assertTrue(first.getException() instanceof CancelledException);
+        assertTrue(next.getException() instanceof CancelledException);
+        assertEquals(0, applied.get());
+    }
+
+    @Test
+    public void cancelWhileTheSecondStageRuns_cancelsTheSecondStage() {
+        BleGattFuture first = new BleGattFuture();
+        final BleGattFuture second = new BleGattFuture();
+        final AtomicInteger applied = new AtomicInteger();
+        BleGattFuture next = first.then(new BleGattFuture.Continuation() {
+            @Override
+            public BleGattFuture apply(byte[] data, BleGattElement element) {
+                return second;
+            }
+        }).then(new BleGattFuture.Continuation() {
+            @Override
+            public BleGattFuture apply(byte[] data, BleGattElement element) {
+                applied.incrementAndGet();
+                return null;
+            }
+        });
+
+        first.getCompleteCallback().onSuccess(new byte[]{1}, ELEMENT);
+        assertFalse(next.isDone());
+
+        assertTrue(next.cancel());
+
+        assertTrue(second.getException() instanceof CancelledException);
+        assertTrue(next.getException() instanceof CancelledException);
+        assertEquals(0, applied.get());
+        assertFalse(next.cancel());
+    }
+
+    @Test
+    public void stageReturnedAfterCancel_isCancelledToo() {
+        final BleGattFuture[] next = new BleGattFuture[1];
+        final BleGattFuture second = new BleGattFuture();
+        BleGattFuture first = new BleGattFuture();
+        next[0] = first.then(new BleGattFuture.Continuation() {
+            @Override
+            public BleGattFuture apply(byte[] data, BleGattElement element) {
+                // 后续操作执行期间序列被取消
+                next[0].cancel();
+                return second;
+            }
+        });
+
+        first.getCompleteCallback().onSuccess(new byte[]{1}, ELEMENT);
+
+        assertTrue(next[0].getException() instanceof CancelledException);
+        assertTrue(second.getException() instanceof CancelledException);
+    }
+
+    @Test
+    public void completedChain_cannotBeCancelled() {
+        BleGattFuture next = BleGattFuture.succeeded(new byte[]{1}, ELEMENT).then(new BleGattFuture.Continuation() {
+            @Override
+            public BleGattFuture apply(byte[] data, BleGattElement element) {
+                return BleGattFuture.succeeded(new byte[]{2}, element);
+            }
+        });
+
+        assertFalse(next.cancel());
+        assertTrue(next.isSuccess());
+        assertArrayEquals(new byte[]{2}, next.getData());
+    }
+}
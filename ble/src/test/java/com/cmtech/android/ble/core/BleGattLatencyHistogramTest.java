@@ -0,0 +1,85 @@
+package com.cmtech.android.ble.core;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * 时延直方图的测试
+ */
+public class BleGattLatencyHistogramTest {
+    @Test
+    public void emptyHistogram_reportsZero() {
+        BleGattLatencyHistogram histogram = new BleGattLatencyHistogram();
+        assertEquals(0, histogram.getCount());
+        assertEquals(0, histogram.getMean());
+        assertEquals(0, histogram.getP99());
+    }
+
+    @Test
+    public void smallLatencies_areExact() {
+        BleGattLatencyHistogram histogram = new BleGattLatencyHistogram();
+        for(int i = 0; i < 16; i++) {
+            histogram.record(i);
+        }
+        assertEquals(7, histogram.getP50());
+        assertEquals(15, histogram.getPercentile(100));
+        assertEquals(0, histogram.getPercentile(0));
+    }
+
+    @Test
+    public void largeLatencies_areWithinTheRelativeError() {
+        for(long value = 16; value < 1000000; value = value * 5 / 4 + 1) {
+            BleGattLatencyHistogram histogram = new BleGattLatencyHistogram();
+            histogram.record(value);
+            histogram.record(2000000);
+            // 较小的样本所在桶的上界
+            long bound = histogram.getP50();
+            assertTrue(value + " -> " + bound, bound >= value);
+            assertTrue(value + " -> " + bound, bound <= value + value / 8);
+        }
+    }
+
+    @Test
+    public void percentile_neverExceedsTheMax() {
+        BleGattLatencyHistogram histogram = new BleGattLatencyHistogram();
+        histogram.record(100);
+        assertEquals(100, histogram.getP99());
+        assertEquals(100, histogram.getMax());
+    }
+
+    @Test
+    public void countMeanAndReset() {
+        BleGattLatencyHistogram histogram = new BleGattLatencyHistogram();
+        histogram.record(10);
+        histogram.record(30);
+        histogram.record(-5);
+
+        assertEquals(3, histogram.getCount());
+        assertEquals(13, histogram.getMean());
+        assertEquals(30, histogram.getMax());
+
+        histogram.reset();
+        assertEquals(0, histogram.getCount());
+        assertEquals(0, histogram.getMax());
+    }
+
+    @Test
+    public void snapshot_isNotAffectedByLaterRecords() {
+        BleGattLatencyHistogram histogram = new BleGattLatencyHistogram();
+        histogram.record(10);
+        BleGattLatencyHistogram snapshot = histogram.snapshot();
+        histogram.record(500);
+
+        assertEquals(1, snapshot.getCount());
+        assertEquals(10, snapshot.getMax());
+        assertEquals(2, histogram.getCount());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void invalidPercentile_isRejected() {
+        BleGattLatencyHistogram histogram = new BleGattLatencyHistogram();
+        histogram.record(1);
+        histogram.getPercentile(101);
+    }
+}
@@ -0,0 +1,57 @@
+package com.cmtech.android.ble.core;
+
+import com.cmtech.android.ble.callback.IBleDataCallback;
+import com.cmtech.android.ble.exception.BleException;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+import static org.junit.Assert.*;
+
+/**
+ * 长读命令的测试。协议栈的readCharacteristic()已经读完整个值，长读只能发出一次读操作
+ */
+public class BleGattLongReadTest {
+    private static final BleGattElement ELEMENT = new BleGattElement(UUID.randomUUID(), UUID.randomUUID(), null, "long value");
+
+    @Test
+    public void readLong_issuesOneReadAndReturnsTheWholeValue() throws Exception {
+        final List<IBleDataCallback> reads = new ArrayList<>();
+        BleGatt bleGatt = new BleGatt() {
+            @Override
+            public synchronized boolean readData(BleGattElement gattElement, IBleDataCallback dataCallback) {
+                reads.add(dataCallback);
+                return true;
+            }
+        };
+        final List<byte[]> results = new ArrayList<>();
+        IBleDataCallback callback = new IBleDataCallback() {
+            @Override
+            public void onSuccess(byte[] data, BleGattElement element) {
+                results.add(data);
+            }
+
+            @Override
+            public void onFailure(BleException exception) {
+                fail("Unexpected failure: " + exception);
+            }
+        };
+
+        assertTrue(bleGatt.readLongData(ELEMENT, callback));
+        assertEquals(1, reads.size());
+
+        // 协议栈返回完整的值，每次读都一样长，不能因此继续读取并重复拼接
+        byte[] value = new byte[300];
+        for(int i = 0; i < value.length; i++) {
+            value[i] = (byte) i;
+        }
+        reads.get(0).onSuccess(value, ELEMENT);
+
+        assertEquals(1, reads.size());
+        assertEquals(1, results.size());
+        assertArrayEquals(value, results.get(0));
+    }
+}
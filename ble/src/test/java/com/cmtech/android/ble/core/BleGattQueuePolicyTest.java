@@ -0,0 +1,120 @@
+package com.cmtech.android.ble.core;
+
+import com.cmtech.android.ble.callback.IBleDataCallback;
+import com.cmtech.android.ble.exception.BleException;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/**
+ * 命令队列已满时各处理策略的测试。第一条命令发出后不响应，占住通道，之后的命令都留在队列中
+ */
+public class BleGattQueuePolicyTest {
+    private static final BleGattElement ELEMENT = new BleGattElement(UUID.randomUUID(), UUID.randomUUID(), null, "queued");
+    private static final BleGattElement OTHER_ELEMENT = new BleGattElement(UUID.randomUUID(), UUID.randomUUID(), null, "other");
+    private static final int CAPACITY = 2;
+
+    // 写操作发出后不响应的Gatt
+    private static class HoldingGatt extends FakeBleGatt {
+        @Override
+        public synchronized boolean writeData(BleGattElement gattElement, IBleDataCallback dataCallback, byte[] data) {
+            writeCount.incrementAndGet();
+            return true;
+        }
+    }
+
+    private HoldingGatt bleGatt;
+    private BleSerialGattCommandExecutor executor;
+
+    @Before
+    public void setUp() throws Exception {
+        bleGatt = new HoldingGatt();
+        executor = new BleSerialGattCommandExecutor(bleGatt.newConnector());
+        executor.start();
+
+        executor.write(ELEMENT, new byte[]{0}, new FakeBleGatt.WaitingCallback());
+        for(int i = 0; i < 500 && bleGatt.writeCount.get() == 0; i++) {
+            Thread.sleep(10);
+        }
+        assertEquals(1, bleGatt.writeCount.get());
+    }
+
+    @After
+    public void tearDown() {
+        executor.stop();
+        bleGatt.shutdown();
+    }
+
+    @Test
+    public void reject_failsTheNewCommand() throws Exception {
+        executor.setQueueLimit(CAPACITY, BleGattQueuePolicy.REJECT, 0);
+        FakeBleGatt.WaitingCallback[] callbacks = writeAll(ELEMENT, ELEMENT, ELEMENT);
+
+        assertTrue(callbacks[2].await());
+        assertNotNull(callbacks[2].exception);
+        assertEquals(CAPACITY, executor.getPendingCount());
+        assertEquals(1, executor.getRejectedCount());
+        assertEquals(0, executor.getDroppedCount());
+    }
+
+    @Test
+    public void dropOldest_failsTheOldestQueuedCommand() throws Exception {
+        executor.setQueueLimit(CAPACITY, BleGattQueuePolicy.DROP_OLDEST, 0);
+        FakeBleGatt.WaitingCallback[] callbacks = writeAll(ELEMENT, ELEMENT, ELEMENT);
+
+        assertTrue(callbacks[0].await());
+        assertNotNull(callbacks[0].exception);
+        assertEquals(CAPACITY, executor.getPendingCount());
+        assertEquals(0, executor.getRejectedCount());
+        assertEquals(1, executor.getDroppedCount());
+    }
+
+    @Test
+    public void dropStale_dropsTheSupersededCommandOrRejects() throws Exception {
+        // 陈旧时间足够长，只按是否被新命令取代丢弃
+        executor.setQueueLimit(CAPACITY, BleGattQueuePolicy.DROP_STALE, 60000);
+        FakeBleGatt.WaitingCallback[] callbacks = writeAll(OTHER_ELEMENT, ELEMENT, OTHER_ELEMENT);
+
+        assertTrue(callbacks[0].await());
+        assertNotNull(callbacks[0].exception);
+        assertEquals(1, executor.getDroppedCount());
+
+        // 队列中没有操作同一element的命令可以取代，拒绝新命令
+        BleGattElement third = new BleGattElement(UUID.randomUUID(), UUID.randomUUID(), null, "third");
+        FakeBleGatt.WaitingCallback rejected = writeAll(third)[0];
+        assertTrue(rejected.await());
+        assertNotNull(rejected.exception);
+        assertEquals(1, executor.getRejectedCount());
+        assertEquals(CAPACITY, executor.getPendingCount());
+    }
+
+    @Test
+    public void unlimitedQueue_acceptsEveryCommand() {
+        final AtomicInteger failures = new AtomicInteger();
+        for(int i = 0; i < 100; i++) {
+            executor.write(ELEMENT, new byte[]{(byte) i}, new FakeBleGatt.WaitingCallback() {
+                @Override
+                public void onFailure(BleException exception) {
+                    failures.incrementAndGet();
+                }
+            });
+        }
+        assertEquals(100, executor.getPendingCount());
+        assertEquals(0, failures.get());
+    }
+
+    private FakeBleGatt.WaitingCallback[] writeAll(BleGattElement... elements) {
+        FakeBleGatt.WaitingCallback[] callbacks = new FakeBleGatt.WaitingCallback[elements.length];
+        for(int i = 0; i < elements.length; i++) {
+            callbacks[i] = new FakeBleGatt.WaitingCallback();
+            executor.write(elements[i], new byte[]{(byte) (i + 1)}, callbacks[i]);
+        }
+        return callbacks;
+    }
+}
@@ -0,0 +1,75 @@
+package com.cmtech.android.ble.core;
+
+import android.bluetooth.BluetoothGatt;
+
+import com.cmtech.android.ble.exception.GattException;
+import com.cmtech.android.ble.exception.TimeoutException;
+
+import org.junit.Test;
+
+import static com.cmtech.android.ble.core.BleGattCmdType.GATT_CMD_INDICATE;
+import static com.cmtech.android.ble.core.BleGattCmdType.GATT_CMD_NOTIFY;
+import static com.cmtech.android.ble.core.BleGattCmdType.GATT_CMD_READ;
+import static com.cmtech.android.ble.core.BleGattCmdType.GATT_CMD_READ_LONG;
+import static com.cmtech.android.ble.core.BleGattCmdType.GATT_CMD_RELIABLE_WRITE;
+import static com.cmtech.android.ble.core.BleGattCmdType.GATT_CMD_WRITE;
+import static com.cmtech.android.ble.core.BleGattCmdType.GATT_CMD_WRITE_NO_RESPONSE;
+import static org.junit.Assert.*;
+
+/**
+ * Gatt命令超时和重试策略的测试
+ */
+public class BleGattRetryPolicyTest {
+    private static final BleGattCmdType[] WRITES = {GATT_CMD_WRITE, GATT_CMD_WRITE_NO_RESPONSE,
+            GATT_CMD_RELIABLE_WRITE, GATT_CMD_NOTIFY, GATT_CMD_INDICATE};
+
+    @Test
+    public void defaultPolicy_retriesReadsOnTransientErrorsAndTimeouts() {
+        BleGattRetryPolicy policy = new BleGattRetryPolicy();
+        for(BleGattCmdType type : new BleGattCmdType[]{GATT_CMD_READ, GATT_CMD_READ_LONG}) {
+            assertTrue(policy.shouldRetry(type, 0, new TimeoutException()));
+            assertTrue(policy.shouldRetry(type, 0, new GattException(BleGattRetryPolicy.GATT_ERROR)));
+            assertTrue(policy.shouldRetry(type, 1, new GattException(BluetoothGatt.GATT_FAILURE)));
+            assertFalse(policy.shouldRetry(type, policy.getMaxRetries(), new TimeoutException()));
+            assertFalse(policy.shouldRetry(type, 0, new GattException(BluetoothGatt.GATT_READ_NOT_PERMITTED)));
+        }
+    }
+
+    @Test
+    public void defaultPolicy_neverRetriesWrites() {
+        BleGattRetryPolicy policy = new BleGattRetryPolicy();
+        for(BleGattCmdType type : WRITES) {
+            assertFalse(type.toString(), policy.shouldRetry(type, 0, new TimeoutException()));
+            assertFalse(type.toString(), policy.shouldRetry(type, 0, new GattException(BleGattRetryPolicy.GATT_ERROR)));
+            assertFalse(type.toString(), policy.shouldRetry(type, 0, new GattException(BleGattRetryPolicy.GATT_BUSY)));
+            assertFalse(type.toString(), policy.shouldRetry(type, 0, new GattException(BluetoothGatt.GATT_FAILURE)));
+        }
+    }
+
+    @Test
+    public void retryWrites_optsWritesIntoTheReadRules() {
+        BleGattRetryPolicy policy = new BleGattRetryPolicy().setRetryWrites(true).setRetryOnTimeout(false);
+        assertTrue(policy.shouldRetry(GATT_CMD_WRITE, 0, new GattException(BleGattRetryPolicy.GATT_ERROR)));
+        assertFalse(policy.shouldRetry(GATT_CMD_WRITE, 0, new TimeoutException()));
+        assertFalse(policy.shouldRetry(GATT_CMD_WRITE, policy.getMaxRetries(), new GattException(BleGattRetryPolicy.GATT_ERROR)));
+    }
+
+    @Test
+    public void noRetry_neverRetries() {
+        BleGattRetryPolicy policy = BleGattRetryPolicy.noRetry();
+        assertFalse(policy.shouldRetry(GATT_CMD_READ, 0, new TimeoutException()));
+        assertFalse(policy.shouldRetry(GATT_CMD_READ, 0, new GattException(BleGattRetryPolicy.GATT_ERROR)));
+    }
+
+    @Test
+    public void backoff_growsByTheMultiplier() {
+        BleGattRetryPolicy policy = new BleGattRetryPolicy().setBackoff(50).setBackoffMultiplier(2.0f);
+        assertEquals(50, policy.getBackoffTime(1));
+        assertEquals(100, policy.getBackoffTime(2));
+        assertEquals(200, policy.getBackoffTime(3));
+
+        // 倍数小于1时按1处理，退避时间不会缩短
+        policy.setBackoffMultiplier(0.5f);
+        assertEquals(50, policy.getBackoffTime(3));
+    }
+}
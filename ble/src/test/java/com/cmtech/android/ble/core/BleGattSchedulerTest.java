@@ -0,0 +1,78 @@
+package com.cmtech.android.ble.core;
+
+import com.cmtech.android.ble.callback.IBleBatchCallback;
+import com.cmtech.android.ble.callback.IBleDataCallback;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * 共享Gatt调度器的测试
+ */
+public class BleGattSchedulerTest {
+    private static final BleGattElement ELEMENT = new BleGattElement(UUID.randomUUID(), UUID.randomUUID(), null, "scheduled");
+    private static final int STEP_COUNT = 200;
+
+    // 记录发出读操作时的调用栈深度的Gatt。只有第一个读操作能发出，由响应线程异步回调，之后的都同步失败
+    private static class DepthRecordingGatt extends FakeBleGatt {
+        volatile int minDepth = Integer.MAX_VALUE;
+        volatile int maxDepth = 0;
+
+        @Override
+        public synchronized boolean readData(BleGattElement gattElement, IBleDataCallback dataCallback) {
+            int depth = Thread.currentThread().getStackTrace().length;
+            if(depth < minDepth) minDepth = depth;
+            if(depth > maxDepth) maxDepth = depth;
+            boolean issued = super.readData(gattElement, dataCallback);
+            issuable = false;
+            return issued;
+        }
+    }
+
+    private DepthRecordingGatt bleGatt;
+    private BleSerialGattCommandExecutor executor;
+
+    @Before
+    public void setUp() {
+        bleGatt = new DepthRecordingGatt();
+        executor = new BleSerialGattCommandExecutor(bleGatt.newConnector());
+        executor.start();
+    }
+
+    @After
+    public void tearDown() {
+        executor.stop();
+        bleGatt.shutdown();
+    }
+
+    @Test
+    public void batchStepsFailingSynchronously_areNotIssuedRecursively() throws Exception {
+        // 第一步在响应线程中结束，之后每一步都发不出去，同步失败后继续下一步
+        BleGattBatch batch = new BleGattBatch().setStopOnFailure(false).setRetryPolicy(BleGattRetryPolicy.noRetry());
+        for(int i = 0; i < STEP_COUNT; i++) {
+            batch.read(ELEMENT);
+        }
+        final CountDownLatch done = new CountDownLatch(1);
+        final BleGattBatchResult[] result = new BleGattBatchResult[1];
+        executor.executeBatch(batch, new IBleBatchCallback() {
+            @Override
+            public void onComplete(BleGattBatchResult batchResult) {
+                result[0] = batchResult;
+                done.countDown();
+            }
+        });
+
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertEquals(1, result[0].getFailedStep());
+        // 下一步交给线程池发出，调用栈不随步数增长
+        assertTrue("Stack grew from " + bleGatt.minDepth + " to " + bleGatt.maxDepth,
+                bleGatt.maxDepth - bleGatt.minDepth < 20);
+    }
+}
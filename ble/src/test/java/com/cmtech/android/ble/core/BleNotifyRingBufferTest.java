@@ -0,0 +1,139 @@
+package com.cmtech.android.ble.core;
+
+import com.cmtech.android.ble.callback.IBleDataCallback;
+import com.cmtech.android.ble.exception.BleException;
+
+import org.junit.Test;
+
+import java.util.UUID;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Notify环形缓冲区的测试
+ */
+public class BleNotifyRingBufferTest {
+    private static final BleGattElement ELEMENT = new BleGattElement(UUID.randomUUID(), UUID.randomUUID(), null, "notify");
+    private static final long WAIT_SECONDS = 5;
+    private static final int CAPACITY = 4;
+    private static final int OVERFLOW_COUNT = 10;
+
+    // 把收到的数据放入队列的接收回调
+    private static class QueueCallback implements IBleDataCallback {
+        private final BlockingQueue<byte[]> received = new LinkedBlockingQueue<>();
+
+        @Override
+        public void onSuccess(byte[] data, BleGattElement element) {
+            received.add(data);
+        }
+
+        @Override
+        public void onFailure(BleException exception) {
+        }
+
+        byte[] poll() throws InterruptedException {
+            return received.poll(WAIT_SECONDS, TimeUnit.SECONDS);
+        }
+    }
+
+    @Test
+    public void restartWithTheSameBuffer_keepsTheConsumerRunning() throws Exception {
+        QueueCallback callback = new QueueCallback();
+        BleNotifyRingBuffer buffer = new BleNotifyRingBuffer(callback);
+
+        // 用同一个缓冲区重新使能：新表项先启动，旧表项后停止
+        buffer.start();
+        buffer.start();
+        buffer.stop();
+        assertTrue(buffer.isStarted());
+
+        buffer.onSuccess(new byte[]{1}, ELEMENT);
+        assertArrayEquals(new byte[]{1}, callback.poll());
+
+        buffer.stop();
+        assertFalse(buffer.isStarted());
+    }
+
+    @Test
+    public void idleConsumer_isWokenByTheNextNotification() throws Exception {
+        QueueCallback callback = new QueueCallback();
+        BleNotifyRingBuffer buffer = new BleNotifyRingBuffer(callback);
+        buffer.start();
+        try {
+            // 多次空闲后再放入数据，消费线程挂起时没有超时，必须由生产者唤醒
+            for(int i = 0; i < 20; i++) {
+                Thread.sleep(5);
+                buffer.onSuccess(new byte[]{(byte) i}, ELEMENT);
+                assertArrayEquals(new byte[]{(byte) i}, callback.poll());
+            }
+        } finally {
+            buffer.stop();
+        }
+    }
+
+    @Test
+    public void burstsFromTheProducer_areAllDeliveredInOrder() throws Exception {
+        final int total = 20000;
+        QueueCallback callback = new QueueCallback();
+        BleNotifyRingBuffer buffer = new BleNotifyRingBuffer(callback, total, BleNotifyRingBuffer.OverflowPolicy.DROP_NEWEST, 8);
+        buffer.start();
+        try {
+            for(int i = 0; i < total; i++) {
+                buffer.onSuccess(new byte[]{(byte) (i >> 8), (byte) i}, ELEMENT);
+                if(i % 1000 == 0) Thread.sleep(1);
+            }
+            for(int i = 0; i < total; i++) {
+                byte[] data = callback.poll();
+                assertNotNull("Notification " + i + " was not delivered.", data);
+                assertArrayEquals(new byte[]{(byte) (i >> 8), (byte) i}, data);
+            }
+            assertEquals(0, buffer.getDroppedCount());
+        } finally {
+            buffer.stop();
+        }
+    }
+
+    @Test
+    public void dropNewest_keepsTheFirstNotifications() throws Exception {
+        QueueCallback callback = new QueueCallback();
+        BleNotifyRingBuffer buffer = fillBeforeStart(callback, BleNotifyRingBuffer.OverflowPolicy.DROP_NEWEST);
+        buffer.start();
+        try {
+            for(int i = 0; i < CAPACITY; i++) {
+                assertArrayEquals(new byte[]{(byte) i}, callback.poll());
+            }
+            assertEquals(OVERFLOW_COUNT - CAPACITY, buffer.getDroppedCount());
+        } finally {
+            buffer.stop();
+        }
+    }
+
+    @Test
+    public void dropOldest_keepsTheLatestNotifications() throws Exception {
+        QueueCallback callback = new QueueCallback();
+        BleNotifyRingBuffer buffer = fillBeforeStart(callback, BleNotifyRingBuffer.OverflowPolicy.DROP_OLDEST);
+        buffer.start();
+        try {
+            for(int i = OVERFLOW_COUNT - CAPACITY; i < OVERFLOW_COUNT; i++) {
+                assertArrayEquals(new byte[]{(byte) i}, callback.poll());
+            }
+            assertEquals(OVERFLOW_COUNT - CAPACITY, buffer.getDroppedCount());
+        } finally {
+            buffer.stop();
+        }
+    }
+
+    // 消费线程启动前放入超过容量的数据
+    private static BleNotifyRingBuffer fillBeforeStart(QueueCallback callback, BleNotifyRingBuffer.OverflowPolicy policy) {
+        // 容量向上取整为2的幂，3按4计
+        BleNotifyRingBuffer buffer = new BleNotifyRingBuffer(callback, CAPACITY - 1, policy, 2);
+        for(int i = 0; i < OVERFLOW_COUNT; i++) {
+            buffer.onSuccess(new byte[]{(byte) i}, ELEMENT);
+        }
+        assertTrue(callback.received.isEmpty());
+        return buffer;
+    }
+}
@@ -0,0 +1,75 @@
+package com.cmtech.android.ble.core;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * 扫描启动令牌桶的测试
+ */
+public class BleScanRateLimiterTest {
+    private static final int QUOTA = 5;
+    private static final long PERIOD = 30000;
+    private static final long START = 1000; // 起始时间，0表示令牌未用过，不能作为启动时间
+
+    @Test
+    public void startsWithinTheQuota_areNotDeferred() {
+        BleScanRateLimiter limiter = new BleScanRateLimiter(QUOTA, PERIOD);
+        for(int i = 0; i < QUOTA; i++) {
+            assertEquals(0, limiter.tryAcquire(START + i * 100));
+        }
+        assertEquals(QUOTA, limiter.getStartCount());
+    }
+
+    @Test
+    public void startBeyondTheQuota_waitsUntilTheOldestTokenReturns() {
+        BleScanRateLimiter limiter = new BleScanRateLimiter(QUOTA, PERIOD);
+        for(int i = 0; i < QUOTA; i++) {
+            limiter.tryAcquire(START + i * 100);
+        }
+
+        long now = START + 1000;
+        assertEquals(PERIOD - 1000, limiter.tryAcquire(now));
+        // 被拒绝的申请不用掉令牌
+        assertEquals(QUOTA, limiter.getStartCount());
+
+        // 最早的令牌补回后可以启动，下一个令牌仍要等待
+        assertEquals(0, limiter.tryAcquire(START + PERIOD));
+        assertEquals(100, limiter.tryAcquire(START + PERIOD));
+    }
+
+    @Test
+    public void anyPeriod_containsAtMostQuotaStarts() {
+        BleScanRateLimiter limiter = new BleScanRateLimiter(QUOTA, PERIOD);
+        long[] starts = new long[100];
+        int count = 0;
+        for(long now = START; count < starts.length; now += 700) {
+            if(limiter.tryAcquire(now) == 0) {
+                starts[count++] = now;
+            }
+        }
+        for(int i = QUOTA; i < count; i++) {
+            assertTrue(starts[i] - starts[i - QUOTA] >= PERIOD);
+        }
+    }
+
+    @Test
+    public void deferredStarts_areRecorded() {
+        BleScanRateLimiter limiter = new BleScanRateLimiter(QUOTA, PERIOD);
+        limiter.recordDeferred(200);
+        limiter.recordDeferred(500);
+
+        assertEquals(2, limiter.getDeferredCount());
+        assertEquals(700, limiter.getTotalDeferredTime());
+        assertEquals(500, limiter.getMaxDeferredTime());
+
+        limiter.resetStats();
+        assertEquals(0, limiter.getDeferredCount());
+        assertEquals(0, limiter.getMaxDeferredTime());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void nonPositiveQuota_isRejected() {
+        new BleScanRateLimiter(0, PERIOD);
+    }
+}
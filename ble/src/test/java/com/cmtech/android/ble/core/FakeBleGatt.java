@@ -0,0 +1,113 @@
+package com.cmtech.android.ble.core;
+
+import com.cmtech.android.ble.callback.IBleDataCallback;
+import com.cmtech.android.ble.exception.BleException;
+import com.cmtech.android.ble.exception.GattException;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 测试用的Gatt。读写操作不经过蓝牙协议栈，由一个单独的响应线程异步回调，模拟协议栈的回调线程。
+ * 读操作返回value，写操作回显写入的数据；failures大于0时接下来的这么多个操作以GATT_FAILURE失败
+ */
+class FakeBleGatt extends BleGatt {
+    static final int GATT_FAILURE = 0x101;
+
+    private final ExecutorService responder = Executors.newSingleThreadExecutor();
+    final AtomicInteger readCount = new AtomicInteger(); // 发出的读操作数
+    final AtomicInteger writeCount = new AtomicInteger(); // 发出的写操作数
+    final AtomicInteger failures = new AtomicInteger(); // 接下来要失败的操作数
+    volatile byte[] value = new byte[]{0x55}; // 读操作返回的数据
+    volatile boolean issuable = true; // 操作能否发出，为false时发出操作直接返回false
+
+    @Override
+    public synchronized boolean readData(BleGattElement gattElement, IBleDataCallback dataCallback) {
+        if(!issuable) return false;
+        readCount.incrementAndGet();
+        respond(gattElement, dataCallback, value);
+        return true;
+    }
+
+    @Override
+    public synchronized boolean writeData(BleGattElement gattElement, IBleDataCallback dataCallback, byte[] data) {
+        if(!issuable) return false;
+        writeCount.incrementAndGet();
+        respond(gattElement, dataCallback, data);
+        return true;
+    }
+
+    private void respond(final BleGattElement element, final IBleDataCallback dataCallback, final byte[] data) {
+        final boolean fail = failures.get() > 0;
+        if(fail) failures.decrementAndGet();
+        responder.execute(new Runnable() {
+            @Override
+            public void run() {
+                if(fail) {
+                    dataCallback.onFailure(new GattException(GATT_FAILURE));
+                } else {
+                    dataCallback.onSuccess(data, element);
+                }
+            }
+        });
+    }
+
+    void shutdown() {
+        responder.shutdownNow();
+    }
+
+    // 使用本Gatt的设备连接器
+    BleDeviceConnector newConnector() {
+        return new BleDeviceConnector(newDevice()) {
+            @Override
+            public BleGatt getBleGatt() {
+                return FakeBleGatt.this;
+            }
+        };
+    }
+
+    // 所有方法都返回缺省值的设备
+    private static IDevice newDevice() {
+        return (IDevice) Proxy.newProxyInstance(IDevice.class.getClassLoader(), new Class<?>[]{IDevice.class},
+                new InvocationHandler() {
+                    @Override
+                    public Object invoke(Object proxy, Method method, Object[] args) {
+                        Class<?> type = method.getReturnType();
+                        if(type == boolean.class) return false;
+                        if(type == int.class) return 0;
+                        if(type == long.class) return 0L;
+                        if(type == String.class) return "00:00:00:00:00:00";
+                        return null;
+                    }
+                });
+    }
+
+    // 记录结果并等待完成的数据回调
+    static class WaitingCallback implements IBleDataCallback {
+        private final CountDownLatch done = new CountDownLatch(1);
+        volatile byte[] data;
+        volatile BleException exception;
+
+        @Override
+        public void onSuccess(byte[] data, BleGattElement element) {
+            this.data = data;
+            done.countDown();
+        }
+
+        @Override
+        public void onFailure(BleException exception) {
+            this.exception = exception;
+            done.countDown();
+        }
+
+        boolean await() throws InterruptedException {
+            return done.await(5, TimeUnit.SECONDS);
+        }
+    }
+}